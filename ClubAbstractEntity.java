@@ -1,44 +1,65 @@
-import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.*;
 
 
 /**
 * This class is abstract class.
-* It is the main entity from which clubber entities entities {@link Person} , {@link Student} , {@link Soldier} inherit.
+* It is the main entity from which clubber editor frames {@link Person} , {@link Student} , {@link Soldier} inherit.
 * The class inherits from {@link JFrame} has a center panel and two buttons in the bottom of the frame OK and Cancel.
+* The clubbers data is not held by the frame, the frame edits a {@link ClubberRecord} of the {@link ClubberRepository}
+* and a new clubber has no record until its first commit.
+* Frames are reused: a {@link ClubberEditorPool} binds a frame to the record of a clubber with {@link #bind} when the clubber is shown
+* and unbinds it with {@link #unbind} when it is hidden, so the number of frames doesn't grow with the number of clubbers.
+* The frame tracks whether its fields were edited since it was bound, committed or rolled back with {@link #isDirty},
+* so closing the app looks only at the frames holding uncommitted edits.
 * This class responsible for the basic GUI initialization,
 * The structure of data field row that is placed in the center-panel(label textField error-symbol) 
 * which every subclass can add depending on the data it holds.
 * The class also provides a method to add the rows and gui components to the center-Panel {@link #addToCenter}.
-* This class declares 4 abstract methods {@link #match}, {@link #rollBack} , {@link #validateData} , {@link #commit}
+* This class declares 3 abstract methods {@link #rollBack} , {@link #validateData} , {@link #commit}
 * which need to be defined in the subclasses.
 * The class handles the button events.
-* pressing 'OK' checks field validity according to implementation in the subclass commits the values and hides the frame
-* pressing 'Cancel' invokes value rollBack and hides the frame
+* pressing 'OK' checks field validity according to implementation in the subclass commits the values and releases the frame to the pool
+* pressing 'Cancel' invokes value rollBack and releases the frame to the pool
 */
-public abstract class ClubAbstractEntity extends JFrame implements Serializable
+public abstract class ClubAbstractEntity extends JFrame
 {
 	private final JButton okButton;
 	private final JButton cancelButton;
 	private JPanel centerPanel;
   private ButtonHandler handler;
+  private final ClubberType type;
+  private ClubberRecord record;
+  //fields were edited since the frame was bound, committed or rolled back
+  private boolean dirty;
+  private final DocumentListener editListener;
     
     
     /**
-    * Parameterless constructor - creates and initializes the instance variables and the handler {@link ClubAbstractEntity.ButtonHandler},
+    * Constructor - creates and initializes the instance variables and the handler {@link ClubAbstractEntity.ButtonHandler},
     * initializes and creates the GUI elements
-    * the button's functionality will be defined by the inheriting subclasses by the definition of the four abstract methods.
+    * the button's functionality will be defined by the inheriting subclasses by the definition of the three abstract methods.
     * places the panel in the middle of the frame, prevents resizing and disabling the window close button.
+    *
+    * @param type the type of the clubber the frame edits
+    * @param record the committed record of the clubber, null for a new clubber
     */
-    public ClubAbstractEntity()
+    public ClubAbstractEntity(ClubberType type, ClubberRecord record)
     {
+      this.type = type;
+      this.record = record;
       okButton = new JButton("OK");
       cancelButton = new JButton("Cancel");
       centerPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
       add(centerPanel);
       
+      editListener = new DocumentListener() {
+      	public void insertUpdate(DocumentEvent e) { dirty = true; }
+      	public void removeUpdate(DocumentEvent e) { dirty = true; }
+      	public void changedUpdate(DocumentEvent e) {}
+      };
       handler = new ButtonHandler();
       okButton.addActionListener(handler);
       cancelButton.addActionListener(handler);
@@ -48,7 +69,7 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
       southPanel.add(cancelButton);
       add(southPanel, BorderLayout.SOUTH);
       //cancel button disabled before first commit
-      cancelButton.setEnabled(false);
+      cancelButton.setEnabled(record != null);
       setResizable(false);
       setLocationRelativeTo(null);
       setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
@@ -68,19 +89,77 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
     }
     
    /**
-   * Abstract method that matches clubAbstractEntity object to unique key.
-   * Method is defined by each subclasses and  whether the key is a match or not.
+   * @return the type of the clubber the frame edits
+    */
+    public ClubberType getClubberType()
+    {
+    	return type;
+    }
+    
+   /**
+   * @return the committed record of the clubber, null if the clubber was not committed yet
+    */
+    public ClubberRecord getRecord()
+    {
+    	return record;
+    }
+    
+   /**
+   * This method replaces the committed record of the clubber, used by {@link #commit}.
    *
-   * @param key search key
-   * @return if the key match or not 
+   * @param record the new committed record
     */
-    public abstract boolean match(String key); 
+    protected void setRecord(ClubberRecord record)
+    {
+    	this.record = record;
+    }
+    
+   /**
+   * This method binds the frame to a clubber, the text fields are filled with the committed values of the record
+   * using {@link #rollBack} and the cancel button is enabled only for a committed clubber.
+   *
+   * @param record the committed record of the clubber, null for a new clubber
+    */
+    public void bind(ClubberRecord record)
+    {
+    	this.record = record;
+    	rollBack();
+    	dirty = false;
+    	cancelButton.setEnabled(record != null);
+    }
+    
+   /**
+   * This method unbinds the frame from its clubber, the text fields are emptied so the frame can be bound to another clubber.
+    */
+    public void unbind()
+    {
+    	bind(null);
+    }
+    
+   /**
+   * @return true if the fields were edited since the frame was bound, committed or rolled back
+    */
+    public boolean isDirty()
+    {
+    	return dirty;
+    }
+    
+   /**
+   * This method returns the committed value of a field, used to fill and roll back the text fields.
+   *
+   * @param field index of the field in the {@link ClubberRecord}
+   * @return the committed value or an empty string if the clubber was not committed yet
+    */
+    protected String getCommitted(int field)
+    {
+    	return record == null ? "" : record.get(field);
+    }
     
     /**
     * Abstract method to validate the objects input data.
     * Every subclass must define this method in a way
     * that indicates whether the objects TextField inputs are valid for each of its fields.
-    * checks fields consecutively and stops if field is invalid and adds an error sign.
+    * checks all the fields and adds an error sign to every invalid field.
     * @return if the data is valid or not.
     */
     protected abstract boolean validateData();
@@ -88,14 +167,14 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
     /**
     * Abstract method to store the objects information.
     * Every subclass must define this method,
-    * by saving the information in each textField to the corresponding string-field.  
+    * by saving the information in each textField to a new {@link ClubberRecord} using {@link #setRecord}.  
     */
     protected abstract void commit();
     
      /**
     * Abstract method that returns object to validated state. 
     * Every subclass must define this method, 
-    * that returns the validated stored information to the corresponding textField.
+    * that returns the validated stored information of the {@link ClubberRecord} to the corresponding textField.
     */
     protected abstract void rollBack();
     
@@ -103,6 +182,7 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
     /**
     * This method creates a generic line structure 
     * every subclass creates the rows that correspond to its characterizing fields.
+    * Editing the text-field of a row marks the frame dirty.
     *
     * @param label The label that identifies the rows field
     * @param field The rows text-field
@@ -111,6 +191,7 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
     protected JPanel createRow(String label, JTextField field)
     {
     	JPanel row = new JPanel();
+      field.getDocument().addDocumentListener(editListener);
       row.add(new JLabel(label));
       row.add(field);
       JLabel error = new JLabel(" ");
@@ -141,10 +222,12 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
     * The implementation of this handlers actionListener is generic and correct for any type of customer,
     * every subclass must implement all the abstract methods.
     * If "OK" is pressed - {@link #validateData} is invoked and if all fields are valid 
-    * {@link #commit} is invoked, otherwise does nothing.
+    * {@link #commit} is invoked and the new record is stored in the repository, otherwise does nothing.
+    * If another terminal committed one of the keys meanwhile the record is not stored and the frame stays open.
     * if "Cancel" is pressed {@link #rollBack} is invoked.
+    * Once stored or cancelled the frame is hidden and released to the {@link ClubberEditorPool}.
     */
-    private class ButtonHandler implements ActionListener , Serializable
+    private class ButtonHandler implements ActionListener
     {
     	@Override
     	public void actionPerformed(ActionEvent event)
@@ -152,16 +235,26 @@ public abstract class ClubAbstractEntity extends JFrame implements Serializable
     		switch(event.getActionCommand())
     		{
     		case "OK" ://checks that fields are valid and id doesn't exist
-    	 		 if(validateData() && !NightClubMgmtApp.isExists(ClubAbstractEntity.this))
+    			long validating = ClubberMetrics.get().start(ClubberMetrics.Operation.VALIDATE);
+    			boolean valid = validateData();
+    			ClubberMetrics.get().end(ClubberMetrics.Operation.VALIDATE, validating);
+    	 		 if(valid && !NightClubMgmtApp.isExists(ClubAbstractEntity.this))
     				{
+    					ClubberRecord old = record;
     					commit();
-    					setVisible(false);
-    					cancelButton.setEnabled(true);
+    					if(NightClubMgmtApp.store(ClubAbstractEntity.this, old, record))
+    					{
+    						dirty = false;
+    						setVisible(false);
+    						NightClubMgmtApp.release(ClubAbstractEntity.this);
+    					}else record = old;//the edited fields stay for the user to fix
     		    } 
     			break;
     		case "Cancel" :
     			rollBack();
+    			dirty = false;
     			setVisible(false);
+    			NightClubMgmtApp.release(ClubAbstractEntity.this);
     			break;
     		}
     	}
@@ -0,0 +1,480 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+* This class is the benchmark suite of the clubbers database, it runs without a build tool or JMH so it works on this source tree as is:
+* <pre>
+* java -Xmx12g ClubberBenchmark [-sizes 10000,1000000,10000000] [-format csv|json] [-out file]
+*                               [-warmup 3] [-iterations 5] [-seconds 1] [-only benchmark,...]
+* </pre>
+* For every size a database of clubbers with the default type mix of {@link ClubberGenerator}
+* is generated from a fixed seed into a temporary BKCustomers.dat.
+* The benchmarks are:
+* <pre>
+* search.hit        {@link ClubberEngine#search} of a random key of a clubber, the lookup behind NightClubMgmtApp.search
+* search.miss       {@link ClubberEngine#search} of a key nobody owns
+* isExists          {@link ClubberEngine#isExists} of a key by its own clubber, the check of the OK button of an editor
+* checkin           {@link ClubberEngine#checkIn} or {@link ClubberEngine#checkOut} of a clubber at the door, one event
+* validate.person   {@link ClubberValidator#validate} of a person, the rules Person.validateData applies to its fields
+* validate.soldier  the same for a soldier, Soldier.validateData
+* validate.student  the same for a student, Student.validateData
+* file.write        {@link ClubberFile#write} of the whole database
+* file.read         {@link ClubberFile#read} of the whole database
+* shards.write      {@link ClubberShards#write} of the whole database, the shards are written in parallel
+* shards.read       {@link ClubberShards#read} of the whole database, the shards are read in parallel
+* shards.lookup     {@link ClubberShards#lookup} of a random id, the shard is mapped and one block of it is inflated
+* storage.load      {@link ClubberStorage#load} of the sharded database into an empty repository
+* scan.records      count of the clubbers of every type over a snapshot of the repository, a full scan of the records
+* scan.columns      the same count with {@link ClubberColumns#countByType}, a full scan of the type column
+* </pre>
+* Like JMH every benchmark runs warmup iterations first, then measured iterations of a fixed time,
+* the score is the mean time per operation over the measured iterations and the error is their standard deviation.
+* The results are written as CSV or JSON, to standard output or to a file, so they can be compared between runs,
+* progress goes to standard error. A size that doesn't fit in the heap is reported and skipped.
+* <p>
+* This harness runs every benchmark and size in one JVM, so the profile the JIT collected for one benchmark
+* shapes the code the next ones run, and its scores depend on the order they run in. It is meant for a quick check without a build tool,
+* the JMH benchmarks of jmh/pom.xml measure the same operations in a forked JVM per benchmark and size and are the reference for regressions.
+*/
+public class ClubberBenchmark
+{
+	private static final long SEED = 20240101L;
+	private static final int KEYS = 1 << 16;
+	private static final long MIN_BATCH_NANOS = 1000000;
+
+	private final int warmup;
+	private final int iterations;
+	private final long iterationNanos;
+	private final Set<String> only;
+	private final ArrayList<Result> results;
+	private final ClubberGenerator generator;
+	//every operation returns a value that is added here, so the JIT can't remove the work
+	private long sink;
+
+
+	/**
+	* Constructor with the iteration settings.
+	*
+	* @param warmup number of warmup iterations
+	* @param iterations number of measured iterations
+	* @param seconds length of an iteration in seconds
+	* @param only names of the benchmarks to run, empty for all
+	*/
+	public ClubberBenchmark(int warmup, int iterations, double seconds, Set<String> only)
+	{
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.iterationNanos = (long)(seconds * 1e9);
+		this.only = only;
+		results = new ArrayList<>();
+		generator = new ClubberGenerator(SEED);
+	}
+
+	/**
+	* This method runs the benchmarks with the command line options and writes the results.
+	*
+	* @param args the command line options
+	* @throws IOException if a temporary database or the results can't be written
+	*/
+	public static void main(String[] args) throws IOException
+	{
+		HashMap<String, String> options = new HashMap<>();
+		for(int i = 0; i + 1 < args.length; i += 2)
+		{
+			if(!args[i].startsWith("-"))
+			{
+				System.err.println("usage: ClubberBenchmark [-sizes n,...] [-format csv|json] [-out file] [-warmup n] [-iterations n] [-seconds s] [-only name,...]");
+				System.exit(2);
+			}
+			options.put(args[i].substring(1), args[i + 1]);
+		}
+		HashSet<String> only = new HashSet<>();
+		if(options.containsKey("only"))
+			only.addAll(Arrays.asList(options.get("only").split(",")));
+		ClubberBenchmark benchmark = new ClubberBenchmark(Integer.parseInt(options.getOrDefault("warmup", "3")),
+			Integer.parseInt(options.getOrDefault("iterations", "5")), Double.parseDouble(options.getOrDefault("seconds", "1")), only);
+		for(String size : options.getOrDefault("sizes", "10000,1000000,10000000").split(","))
+			benchmark.run(Integer.parseInt(size));
+
+		String format = options.getOrDefault("format", "csv");
+		if(options.containsKey("out"))
+			try(PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(options.get("out"))), false, "UTF-8"))
+			{
+				benchmark.write(format, out);
+			}
+		else benchmark.write(format, System.out);
+	}
+
+	/**
+	* This method runs all the benchmarks on a generated database.
+	*
+	* @param clubbers number of clubbers in the database
+	* @throws IOException if the temporary database can't be written or read
+	*/
+	public void run(int clubbers) throws IOException
+	{
+		Path directory = Files.createTempDirectory("clubbers-benchmark");
+		try
+		{
+			System.err.printf("generating %d clubbers%n", clubbers);
+			Path dataFile = directory.resolve("BKCustomers.dat");
+			generator.write(dataFile, 0, clubbers, written -> {});
+			runLookups(clubbers, dataFile);
+			runValidation(clubbers);
+			runPersistence(clubbers, dataFile, directory.resolve("copy.dat"));
+		}catch(OutOfMemoryError e)
+		{
+			System.err.printf("%d clubbers don't fit in the heap, run with a larger -Xmx%n", clubbers);
+		}finally
+		{
+			try(DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+			{
+				for(Path file : files)
+					Files.delete(file);
+			}
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	* This method writes the results.
+	*
+	* @param format csv or json
+	* @param out receives the results
+	*/
+	public void write(String format, PrintStream out)
+	{
+		if(format.equals("json"))
+		{
+			out.println("[");
+			for(int i = 0; i < results.size(); i++)
+			{
+				Result result = results.get(i);
+				out.printf(Locale.ROOT, "  {\"benchmark\":\"%s\",\"clubbers\":%d,\"iterations\":%d,\"score\":%.3f,\"error\":%.3f,\"unit\":\"%s\"}%s%n",
+					result.benchmark, result.clubbers, result.iterations, result.score, result.error, result.unit, i + 1 < results.size() ? "," : "");
+			}
+			out.println("]");
+		}else
+		{
+			out.println("benchmark,clubbers,iterations,score,error,unit");
+			for(Result result : results)
+				out.printf(Locale.ROOT, "%s,%d,%d,%.3f,%.3f,%s%n", result.benchmark, result.clubbers, result.iterations,
+					result.score, result.error, result.unit);
+		}
+	}
+
+	/**
+	* @return the results of the benchmarks that ran so far
+	*/
+	public List<Result> getResults()
+	{
+		return Collections.unmodifiableList(results);
+	}
+
+	private void runLookups(int clubbers, Path dataFile) throws IOException
+	{
+		try(ClubberEngine engine = new ClubberEngine(dataFile))
+		{
+			engine.load();
+			//the first load replaces the single generated file by the shards, the write would compete with the benchmarks
+			engine.compact();
+			//the name index is built in the background, it would compete with the benchmarks for the processors
+			try
+			{
+				engine.awaitNameIndex();
+			}catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			//a sample of the keys with their clubbers, the id or the sub key of a soldier or a student
+			String [] keys = new String[KEYS];
+			ClubberRecord [] owners = new ClubberRecord[KEYS];
+			String [] misses = new String[KEYS];
+			Random random = new Random(SEED);
+			int seen = 0;
+			for(ClubberRecord clubber : engine.getRepository().snapshot())
+			{
+				int slot = seen < KEYS ? seen : random.nextInt(seen + 1);
+				if(slot < KEYS)
+				{
+					String [] own = clubber.getKeys();
+					keys[slot] = own[random.nextInt(own.length)];
+					owners[slot] = clubber;
+				}
+				seen++;
+			}
+			for(int i = 0; i < KEYS; i++)
+			{
+				if(keys[i] == null)
+				{
+					keys[i] = keys[i % seen];
+					owners[i] = owners[i % seen];
+				}
+				//ids after the last clubber of the database
+				misses[i] = ClubberGenerator.id(clubbers + i);
+			}
+
+			measure("search.hit", clubbers, "ns/op", (count, i) -> {
+				long found = 0;
+				for(int n = 0; n < count; n++)
+					if(engine.search(keys[i + n & KEYS - 1]) != null)
+						found++;
+				return found;
+			});
+			measure("search.miss", clubbers, "ns/op", (count, i) -> {
+				long found = 0;
+				for(int n = 0; n < count; n++)
+					if(engine.search(misses[i + n & KEYS - 1]) != null)
+						found++;
+				return found;
+			});
+			measure("isExists", clubbers, "ns/op", (count, i) -> {
+				long taken = 0;
+				for(int n = 0; n < count; n++)
+					if(engine.isExists(keys[i + n & KEYS - 1], owners[i + n & KEYS - 1]))
+						taken++;
+				return taken;
+			});
+			//a clubber who is inside is checked out instead, so every run adds one event
+			measure("checkin", clubbers, "ns/op", (count, i) -> {
+				long changed = 0;
+				for(int n = 0; n < count; n++)
+				{
+					ClubberRecord clubber = owners[i + n & KEYS - 1];
+					if(engine.checkIn(clubber, 1) || engine.checkOut(clubber, 1))
+						changed++;
+				}
+				return changed;
+			});
+		}
+	}
+
+	private void runValidation(int clubbers)
+	{
+		for(ClubberType type : ClubberType.values())
+		{
+			ClubberRecord [] records = new ClubberRecord[KEYS];
+			for(int i = 0; i < KEYS; i++)
+				records[i] = generator.generate(type, i);
+			measure("validate." + type.getTitle().toLowerCase(Locale.ROOT), clubbers, "ns/op", (count, i) -> {
+				long invalid = 0;
+				for(int n = 0; n < count; n++)
+					invalid += ClubberValidator.validate(records[i + n & KEYS - 1]);
+				return invalid;
+			});
+		}
+	}
+
+	private void runPersistence(int clubbers, Path dataFile, Path copy) throws IOException
+	{
+		ClubberShards shards = new ClubberShards(dataFile);
+		measure("shards.read", clubbers, "ms/op", (count, i) -> {
+			long read = 0;
+			for(int n = 0; n < count; n++)
+				read += shards.read(ClubberStorage.LOAD_BATCH, batch -> {});
+			return read;
+		});
+		measure("storage.load", clubbers, "ms/op", (count, i) -> {
+			long loaded = 0;
+			for(int n = 0; n < count; n++)
+			{
+				ClubberRepository repository = new ClubberRepository();
+				try(ClubberStorage storage = new ClubberStorage(dataFile))
+				{
+					storage.load(repository);
+				}
+				loaded += repository.size();
+			}
+			return loaded;
+		});
+		ClubberRepository repository = new ClubberRepository();
+		try(ClubberStorage storage = new ClubberStorage(dataFile))
+		{
+			storage.load(repository);
+		}
+		String [] ids = new String[KEYS];
+		Iterator<ClubberRecord> sample = repository.snapshot().iterator();
+		for(int i = 0; i < KEYS; i++)
+		{
+			if(!sample.hasNext())
+				sample = repository.snapshot().iterator();
+			ids[i] = sample.next().getId();
+		}
+		measure("shards.lookup", clubbers, "ns/op", (count, i) -> {
+			long found = 0;
+			for(int n = 0; n < count; n++)
+				if(shards.lookup(ids[i + n & KEYS - 1]) != null)
+					found++;
+			return found;
+		});
+		measure("file.write", clubbers, "ms/op", (count, i) -> {
+			long bytes = 0;
+			for(int n = 0; n < count; n++)
+				bytes += ClubberFile.write(copy, repository.snapshot());
+			return bytes;
+		});
+		measure("file.read", clubbers, "ms/op", (count, i) -> {
+			long read = 0;
+			for(int n = 0; n < count; n++)
+				read += ClubberFile.read(copy, clubber -> {});
+			return read;
+		});
+		ClubberShards copies = new ClubberShards(copy);
+		measure("shards.write", clubbers, "ms/op", (count, i) -> {
+			long bytes = 0;
+			for(int n = 0; n < count; n++)
+				bytes += copies.write(repository.snapshot());
+			return bytes;
+		});
+		measure("scan.records", clubbers, "ms/op", (count, i) -> {
+			long persons = 0;
+			for(int n = 0; n < count; n++)
+				for(ClubberRecord clubber : repository.snapshot())
+					if(clubber.getType() == ClubberType.PERSON)
+						persons++;
+			return persons;
+		});
+		ClubberColumns columns = ClubberColumns.of(repository.snapshot(), false);
+		measure("scan.columns", clubbers, "ms/op", (count, i) -> {
+			long persons = 0;
+			for(int n = 0; n < count; n++)
+				persons += columns.countByType()[ClubberType.PERSON.ordinal()];
+			return persons;
+		});
+	}
+
+	/**
+	* This method runs the warmup and measured iterations of a benchmark and keeps its result.
+	* An iteration runs the operation in batches that double until a batch takes at least a millisecond,
+	* so the clock is read rarely for fast operations and after every run for slow ones.
+	*
+	* @param benchmark name of the benchmark
+	* @param clubbers size of the database
+	* @param unit ns/op or ms/op
+	* @param operation the operation
+	*/
+	private void measure(String benchmark, int clubbers, String unit, Operation operation)
+	{
+		if(!only.isEmpty() && !only.contains(benchmark))
+			return;
+		double scale = unit.equals("ms/op") ? 1e6 : 1;
+		double [] scores = new double[iterations];
+		for(int iteration = -warmup; iteration < iterations; iteration++)
+		{
+			long operations = 0;
+			int batch = 1;
+			long start = System.nanoTime(), now = start;
+			try
+			{
+				while(now - start < iterationNanos)
+				{
+					sink += operation.run(batch, (int)operations);
+					operations += batch;
+					long after = System.nanoTime();
+					if(after - now < MIN_BATCH_NANOS)
+						batch = Math.min(batch * 2, 1 << 24);
+					now = after;
+				}
+			}catch(IOException e)
+			{
+				e.printStackTrace();
+				return;
+			}
+			if(iteration >= 0)
+				scores[iteration] = (now - start) / scale / operations;
+		}
+
+		double mean = 0, variance = 0;
+		for(double score : scores)
+			mean += score / iterations;
+		for(double score : scores)
+			variance += (score - mean) * (score - mean) / Math.max(1, iterations - 1);
+		Result result = new Result(benchmark, clubbers, iterations, mean, Math.sqrt(variance), unit);
+		results.add(result);
+		System.err.println(result);
+	}
+
+	/**
+	* This interface is a benchmarked operation.
+	*/
+	private interface Operation
+	{
+		/**
+		* @param count number of times to run the operation
+		* @param offset number of times it ran before in the iteration, used to pick different inputs
+		* @return any value computed by the runs
+		*/
+		long run(int count, int offset) throws IOException;
+	}
+
+	/**
+	* This class is the result of one benchmark at one database size.
+	*/
+	public static class Result
+	{
+		private final String benchmark;
+		private final int clubbers;
+		private final int iterations;
+		private final double score;
+		private final double error;
+		private final String unit;
+
+		Result(String benchmark, int clubbers, int iterations, double score, double error, String unit)
+		{
+			this.benchmark = benchmark;
+			this.clubbers = clubbers;
+			this.iterations = iterations;
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+		}
+
+		/**
+		* @return name of the benchmark
+		*/
+		public String getBenchmark()
+		{
+			return benchmark;
+		}
+
+		/**
+		* @return size of the database
+		*/
+		public int getClubbers()
+		{
+			return clubbers;
+		}
+
+		/**
+		* @return mean time per operation in the unit
+		*/
+		public double getScore()
+		{
+			return score;
+		}
+
+		/**
+		* @return standard deviation of the iterations in the unit
+		*/
+		public double getError()
+		{
+			return error;
+		}
+
+		/**
+		* @return ns/op or ms/op
+		*/
+		public String getUnit()
+		{
+			return unit;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.ROOT, "%-17s %,11d clubbers %12.3f +- %.3f %s", benchmark, clubbers, score, error, unit);
+		}
+	}
+}
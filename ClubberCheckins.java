@@ -0,0 +1,595 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+
+/**
+* This class records the visits of the clubbers: every check-in and check-out at a door is an event
+* with the time, the door and the clubber, and it keeps the live occupancy of the club.
+* <p>
+* Door terminals add events without a shared lock: an event is placed in a bounded ring buffer by claiming its slot with one atomic
+* increment and publishing the slot with an ordered write of its sequence number, so terminals never wait for each other or for the disk.
+* Only the scans of the same clubber are ordered, by the entry of the clubber in the map of the clubbers inside.
+* Only when the ring is full a terminal waits for the writer thread to free a slot.
+* The writer thread takes the published events in batches and appends every batch to the log as one entry,
+* forced to disk once, like the group commit of {@link ClubberJournal}.
+* When the log is closed the writer stops once it took every claimed slot, a terminal that claimed its slot
+* after the writer stopped gets an IOException instead of an event that is never written.
+* <pre>
+* entry : payload length (int), payload, CRC32 of the payload (int)
+* event : time in epoch millis (long), door (int), IN or OUT (byte), {@link ClubberType} ordinal (byte),
+*         id (unsigned short length and UTF-8 bytes)
+* </pre>
+* The log is partitioned by night, BKCustomers.checkins.2024-01-05 holds the events from noon of that day to noon of the next day,
+* so a Friday night that runs past midnight is one partition, and old nights can be archived or deleted as whole files.
+* <p>
+* The occupancy, the headcount and the number of clubbers of every type inside, is counted with {@link LongAdder}s
+* as the events are added, before they are written. A clubber that is already inside can't check in again
+* and one that isn't inside can't check out, so a card scanned twice doesn't count twice.
+* The occupancy starts from zero every night at noon, and when the log is opened it is restored from the partition of the current night.
+*/
+public class ClubberCheckins implements Closeable
+{
+	public static final int CAPACITY = 1 << 16;
+	private static final byte IN = 1;
+	private static final byte OUT = 2;
+	private static final int MAX_BATCH = 8192;
+	private static final long IDLE_NANOS = 1000000;
+	private static final Duration NIGHT_START = Duration.ofHours(12);
+	private static final ClubberType [] TYPES = ClubberType.values();
+
+	private final Path base;
+	private final ZoneId zone;
+	//the ring: the sequence number of every slot tells whether it is free for a position or published
+	private final AtomicLongArray sequences;
+	private final long [] times;
+	private final int [] doors;
+	private final byte [] kinds;
+	private final byte [] types;
+	private final String [] ids;
+	private final AtomicLong tail;
+	private volatile long head;
+	private final Thread writer;
+	//guards the rolling of the occupancy to a new night and the waiting of flush
+	private final Object lock = new Object();
+	private final ConcurrentHashMap<String, ClubberType> inside;
+	private final LongAdder [] insideByType;
+	private final LongAdder checkIns;
+	private final LongAdder checkOuts;
+	private final LongAdder refused;
+	private volatile long nightEnd;
+	private volatile IOException failure;
+	private volatile boolean closed;
+	private FileChannel channel;
+	private LocalDate partition;
+
+
+	/**
+	* This interface receives the events of a partition when it is read.
+	*/
+	public interface Reader
+	{
+		/**
+		* @param time time of the event in epoch millis
+		* @param door the door
+		* @param in true for a check-in, false for a check-out
+		* @param type type of the clubber at the time of the event
+		* @param id id of the clubber
+		*/
+		void event(long time, int door, boolean in, ClubberType type, String id);
+	}
+
+
+	/**
+	* Constructor - restores the occupancy of the current night from its partition and starts the writer thread.
+	*
+	* @param base path of the log, the dates of the partitions are appended to it
+	* @throws IOException if the partition of the current night can't be read
+	*/
+	public ClubberCheckins(Path base) throws IOException
+	{
+		this.base = base;
+		zone = ZoneId.systemDefault();
+		sequences = new AtomicLongArray(CAPACITY);
+		for(int i = 0; i < CAPACITY; i++)
+			sequences.set(i, i);
+		times = new long[CAPACITY];
+		doors = new int[CAPACITY];
+		kinds = new byte[CAPACITY];
+		types = new byte[CAPACITY];
+		ids = new String[CAPACITY];
+		tail = new AtomicLong();
+		inside = new ConcurrentHashMap<>();
+		insideByType = new LongAdder[TYPES.length];
+		for(int i = 0; i < TYPES.length; i++)
+			insideByType[i] = new LongAdder();
+		checkIns = new LongAdder();
+		checkOuts = new LongAdder();
+		refused = new LongAdder();
+		long now = System.currentTimeMillis();
+		nightEnd = nightStart(night(now).plusDays(1));
+		Path current = partition(night(now));
+		if(Files.exists(current))
+		{
+			long valid = scan(current, (time, door, in, type, id) -> {
+				if(in)
+					enter(id, type);
+				else leave(id);
+			});
+			//cut the torn tail so the events appended from now on can be read after it
+			if(valid < Files.size(current))
+				try(FileChannel torn = FileChannel.open(current, StandardOpenOption.WRITE))
+				{
+					torn.truncate(valid);
+				}
+		}
+		writer = new Thread(this::writeLoop, "clubber-checkins");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	* This method checks a clubber in at a door.
+	*
+	* @param clubber the clubber
+	* @param door the door
+	* @return true if the clubber was checked in, false if the clubber is already inside
+	* @throws IOException if the log was closed or failed
+	*/
+	public boolean checkIn(ClubberRecord clubber, int door) throws IOException
+	{
+		long now = rollNight();
+		checkOpen();
+		ClubberType type = clubber.getType();
+		//the slot is claimed while the entry of the clubber is locked, so the events of a clubber are logged in the order they happened
+		long [] position = {-1};
+		inside.computeIfAbsent(clubber.getId(), id -> {
+			position[0] = tail.getAndIncrement();
+			return type;
+		});
+		if(position[0] < 0)
+		{
+			refused.increment();
+			return false;
+		}
+		insideByType[type.ordinal()].increment();
+		checkIns.increment();
+		publish(position[0], now, door, IN, type, clubber.getId());
+		return true;
+	}
+
+	/**
+	* This method checks a clubber out at a door.
+	*
+	* @param clubber the clubber
+	* @param door the door
+	* @return true if the clubber was checked out, false if the clubber is not inside
+	* @throws IOException if the log was closed or failed
+	*/
+	public boolean checkOut(ClubberRecord clubber, int door) throws IOException
+	{
+		long now = rollNight();
+		checkOpen();
+		long [] position = {-1};
+		ClubberType [] type = new ClubberType[1];
+		inside.computeIfPresent(clubber.getId(), (id, entered) -> {
+			position[0] = tail.getAndIncrement();
+			type[0] = entered;
+			return null;
+		});
+		if(position[0] < 0)
+		{
+			refused.increment();
+			return false;
+		}
+		insideByType[type[0].ordinal()].decrement();
+		checkOuts.increment();
+		publish(position[0], now, door, OUT, type[0], clubber.getId());
+		return true;
+	}
+
+	/**
+	* @param id id of a clubber
+	* @return true if the clubber is inside
+	*/
+	public boolean isInside(String id)
+	{
+		return inside.containsKey(id);
+	}
+
+	/**
+	* @return number of clubbers inside
+	*/
+	public long getHeadcount()
+	{
+		return inside.size();
+	}
+
+	/**
+	* @param type a clubber type
+	* @return number of clubbers of the type inside
+	*/
+	public long getHeadcount(ClubberType type)
+	{
+		return insideByType[type.ordinal()].sum();
+	}
+
+	/**
+	* This method returns the occupancy of the current night:
+	* the headcount, the number of every type inside, and the check-ins, check-outs and refused scans of the night.
+	*
+	* @return the counter names and values in a stable order
+	*/
+	public LinkedHashMap<String, Long> occupancy()
+	{
+		LinkedHashMap<String, Long> occupancy = new LinkedHashMap<>();
+		occupancy.put("inside", getHeadcount());
+		for(ClubberType type : TYPES)
+			occupancy.put(type.getTitle().toLowerCase() + "sInside", getHeadcount(type));
+		occupancy.put("checkIns", checkIns.sum());
+		occupancy.put("checkOuts", checkOuts.sum());
+		occupancy.put("refused", refused.sum());
+		return occupancy;
+	}
+
+	/**
+	* This method waits until all the events added before the call are written and forced to disk.
+	*
+	* @throws IOException if the log failed
+	*/
+	public void flush() throws IOException
+	{
+		await(tail.get());
+	}
+
+	/**
+	* This method writes the remaining events and closes the log.
+	*/
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try
+		{
+			writer.join();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	/**
+	* This method returns the existing partitions of a log in order.
+	*
+	* @param base path of the log
+	* @return the partition files sorted by night
+	* @throws IOException if the directory can't be listed
+	*/
+	public static List<Path> partitions(Path base) throws IOException
+	{
+		Path dir = base.toAbsolutePath().getParent();
+		String prefix = base.getFileName() + ".";
+		ArrayList<Path> found = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*"))
+		{
+			for(Path file : files)
+				if(file.getFileName().toString().substring(prefix.length()).matches("\\d{4}-\\d{2}-\\d{2}"))
+					found.add(file);
+		}
+		found.sort(Comparator.comparing(file -> file.getFileName().toString()));
+		return found;
+	}
+
+	/**
+	* This method reads the events of a partition in order.
+	* Reading stops at the first incomplete or corrupted entry,
+	* which can only be the tail that was being written when the app stopped.
+	*
+	* @param partition the partition file
+	* @param reader receives the events
+	* @return number of events read
+	* @throws IOException if the partition can't be read
+	*/
+	public static int read(Path partition, Reader reader) throws IOException
+	{
+		int [] count = new int[1];
+		scan(partition, (time, door, in, type, id) -> {
+			reader.event(time, door, in, type, id);
+			count[0]++;
+		});
+		return count[0];
+	}
+
+	/**
+	* This method reads the events of a partition in order up to the first incomplete or corrupted entry.
+	*
+	* @return length of the complete entries in bytes
+	*/
+	private static long scan(Path partition, Reader reader) throws IOException
+	{
+		long valid = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partition))))
+		{
+			CRC32 crc = new CRC32();
+			while(true)
+			{
+				byte [] payload;
+				try
+				{
+					int length = in.readInt();
+					if(length <= 0 || length > MAX_BATCH * 256)
+						break;
+					payload = new byte[length];
+					in.readFully(payload);
+					crc.reset();
+					crc.update(payload);
+					if(in.readInt() != (int)crc.getValue())
+						break;
+				}catch(EOFException e)
+				{
+					break;
+				}
+				ByteBuffer events = ByteBuffer.wrap(payload);
+				while(events.hasRemaining())
+				{
+					long time = events.getLong();
+					int door = events.getInt();
+					boolean entered = events.get() == IN;
+					ClubberType type = TYPES[events.get()];
+					byte [] id = new byte[events.getShort() & 0xFFFF];
+					events.get(id);
+					reader.event(time, door, entered, type, new String(id, StandardCharsets.UTF_8));
+				}
+				valid += 8 + payload.length;
+			}
+		}
+		return valid;
+	}
+
+	/**
+	* This method marks a clubber of the log as inside and counts the check-in, when the occupancy is restored.
+	*/
+	private void enter(String id, ClubberType type)
+	{
+		if(inside.putIfAbsent(id, type) != null)
+			return;
+		insideByType[type.ordinal()].increment();
+		checkIns.increment();
+	}
+
+	/**
+	* This method marks a clubber of the log as outside and counts the check-out, when the occupancy is restored.
+	*/
+	private void leave(String id)
+	{
+		ClubberType type = inside.remove(id);
+		if(type == null)
+			return;
+		insideByType[type.ordinal()].decrement();
+		checkOuts.increment();
+	}
+
+	private void checkOpen() throws IOException
+	{
+		if(failure != null)
+			throw failure;
+		if(closed)
+			throw new IOException("Check-in log is closed");
+	}
+
+	/**
+	* This method waits until the writer took the events before a position, failed or stopped.
+	*
+	* @throws IOException if the log failed
+	*/
+	private void await(long target) throws IOException
+	{
+		synchronized(lock)
+		{
+			while(head < target && failure == null && writer.isAlive())
+			{
+				try
+				{
+					lock.wait(100);
+				}catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for the check-in log");
+				}
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	/**
+	* This method starts the occupancy of a new night from zero when the current night is over.
+	* Events added by other terminals while the night is rolled over may be counted in either night.
+	*
+	* @return the current time in epoch millis
+	*/
+	private long rollNight()
+	{
+		long now = System.currentTimeMillis();
+		if(now < nightEnd)
+			return now;
+		synchronized(lock)
+		{
+			if(now >= nightEnd)
+			{
+				inside.clear();
+				for(LongAdder type : insideByType)
+					type.reset();
+				checkIns.reset();
+				checkOuts.reset();
+				refused.reset();
+				nightEnd = nightStart(night(now).plusDays(1));
+			}
+		}
+		return now;
+	}
+
+	/**
+	* This method places an event in its claimed slot of the ring, waiting only while the ring is full.
+	*/
+	private void publish(long position, long time, int door, byte kind, ClubberType type, String id) throws IOException
+	{
+		int slot = (int)(position & CAPACITY - 1);
+		//the slot is free for this position once the writer took the event of the previous lap,
+		//the writer keeps taking events after close until it reaches the tail, so a claimed slot is always written
+		for(int spins = 0; sequences.get(slot) != position; spins++)
+		{
+			if(failure != null)
+				throw failure;
+			if(closed && !writer.isAlive())
+				throw new IOException("Check-in log is closed");
+			if(spins < 100)
+				Thread.onSpinWait();
+			else LockSupport.parkNanos(10000);
+		}
+		times[slot] = time;
+		doors[slot] = door;
+		kinds[slot] = kind;
+		types[slot] = (byte)type.ordinal();
+		ids[slot] = id;
+		sequences.lazySet(slot, position + 1);
+		//a slot claimed before the log was closed is seen by the writer before it stops,
+		//one claimed after may be behind the last check of the writer, so it is written only if the writer got to it
+		if(closed)
+		{
+			await(position + 1);
+			if(head <= position)
+				throw new IOException("Check-in log is closed");
+		}
+	}
+
+	/**
+	* The writer thread, writes the published events in batches until the log is closed and the ring is empty.
+	*/
+	private void writeLoop()
+	{
+		ByteBuffer batch = ByteBuffer.allocate(MAX_BATCH * 256);
+		CRC32 crc = new CRC32();
+		try
+		{
+			while(true)
+			{
+				boolean stopping = closed;
+				batch.clear().position(4);
+				LocalDate night = null;
+				long start = 0, end = 0;
+				int count = 0;
+				long position = head;
+				for(; count < MAX_BATCH; count++, position++)
+				{
+					int slot = (int)(position & CAPACITY - 1);
+					if(sequences.get(slot) != position + 1)
+						break;
+					//a batch never spans two nights, the next event starts the next batch
+					long time = times[slot];
+					if(count == 0)
+					{
+						night = night(time);
+						start = nightStart(night);
+						end = nightStart(night.plusDays(1));
+					}else if(time < start || time >= end)
+						break;
+					byte [] id = ids[slot].getBytes(StandardCharsets.UTF_8);
+					if(batch.remaining() < 16 + id.length + 4)
+						break;
+					batch.putLong(time).putInt(doors[slot]).put(kinds[slot]).put(types[slot]).putShort((short)id.length).put(id);
+					ids[slot] = null;
+					sequences.lazySet(slot, position + CAPACITY);
+				}
+				if(count == 0)
+				{
+					if(stopping && head == tail.get())
+						break;
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				int length = batch.position() - 4;
+				crc.reset();
+				crc.update(batch.array(), 4, length);
+				batch.putInt((int)crc.getValue()).putInt(0, length).flip();
+				write(night, batch);
+				head = position;
+				synchronized(lock)
+				{
+					lock.notifyAll();
+				}
+			}
+		}catch(IOException e)
+		{
+			failure = e;
+		}finally
+		{
+			try
+			{
+				if(channel != null)
+					channel.close();
+			}catch(IOException e)
+			{
+				if(failure == null)
+					failure = e;
+			}
+			synchronized(lock)
+			{
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	* This method appends a batch to the partition of its night and forces it to disk.
+	*/
+	private void write(LocalDate night, ByteBuffer batch) throws IOException
+	{
+		if(!night.equals(partition))
+		{
+			if(channel != null)
+				channel.close();
+			channel = FileChannel.open(partition(night), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			partition = night;
+		}
+		while(batch.hasRemaining())
+			channel.write(batch);
+		channel.force(false);
+	}
+
+	/**
+	* @return the night of a time, the date of the noon that started it
+	*/
+	private LocalDate night(long time)
+	{
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone).minus(NIGHT_START).toLocalDate();
+	}
+
+	/**
+	* @return the time in epoch millis the night starts at
+	*/
+	private long nightStart(LocalDate night)
+	{
+		return night.atStartOfDay(zone).plus(NIGHT_START).toInstant().toEpochMilli();
+	}
+
+	private Path partition(LocalDate night)
+	{
+		return Paths.get(base + "." + night);
+	}
+}
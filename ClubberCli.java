@@ -0,0 +1,511 @@
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+
+/**
+* This class is the command line entry point of the clubbers database, for headless servers and batch jobs.
+* It works on the {@link ClubberEngine} only and never initializes AWT or Swing.
+* <pre>
+* java ClubberCli [-db file] lookup key...
+* java ClubberCli [-db file] peek id...
+* java ClubberCli [-db file] find prefixes [offset [limit]]
+* java ClubberCli [-db file] tel number|prefix [offset [limit]]
+* java ClubberCli [-db file] add type id name surname tel [extra]
+* java ClubberCli [-db file] history id
+* java ClubberCli [-db file] revert id time
+* java ClubberCli [-db file] import file.csv
+* java ClubberCli [-db file] export file.csv
+* java ClubberCli [-db file] stats
+* java ClubberCli [-db file] dedup [limit]
+* java ClubberCli [-db file] checkin|checkout key [door]
+* java ClubberCli [-db file] occupancy
+* java ClubberCli [-db file] serve [port]
+* java ClubberCli [-db file] loadtest [clients] [requests]
+* java ClubberCli generate file.dat|file.csv count [seed [invalid%]]
+* java ClubberCli [-db file] replay [rate [requests [engine|http]]]
+* </pre>
+* serve runs the {@link ClubberServer} on localhost until the process is stopped,
+* loadtest runs it on a free port and measures it with {@link ClubberServer#loadTest}.
+* checkin and checkout add a visit to the {@link ClubberCheckins} log, occupancy shows the clubbers inside tonight.
+* dedup copies the database into a {@link ClubberColumns} store and shows the clubbers registered more than once.
+* history shows the kept revisions of a clubber from the {@link ClubberHistory}, revert commits the record it had at a time again,
+* the time is a local date or date and time such as 2024-05-01T22:30, as history shows it.
+* peek reads the clubbers with the ids from the files without loading the database, see {@link ClubberStorage#lookup}.
+* lookup does the same when every key is a person id, a secondary key can only be searched in the loaded database.
+* The other keys never have the form of an id, so the result is the same as a search after a full load.
+* generate writes synthetic clubbers with {@link ClubberGenerator} without loading a database,
+* replay sends door traffic to the database with {@link ClubberReplay}, in this JVM or over HTTP, and journals its edits and creates,
+* so it is meant for a generated database.
+* The database file is BKCustomers.dat unless given with -db.
+* An added clubber is appended to the journal, an import folds the journal into a new snapshot before exiting,
+* so the next start doesn't replay the whole import.
+* The exit code is 0 on success, 1 if a clubber was not found or rejected or the database failed, and 2 for a usage error.
+*/
+public class ClubberCli
+{
+	private static final String DB_FILE = "BKCustomers.dat";
+	private static final String USAGE = String.join(System.lineSeparator(),
+		"usage: ClubberCli [-db file] command",
+		"  lookup key...                              show the clubbers with the keys",
+		"  peek id...                                 show the clubbers with the ids without loading the database",
+		"  find prefixes [offset [limit]]             show the clubbers whose names start with the prefixes",
+		"  tel number|prefix [offset [limit]]         show the owners of a phone number, or of the numbers of +(country) or +(country)area",
+		"  add type id name surname tel [extra]       add a clubber, type is one of " + String.join(", ", ClubberType.titles()),
+		"  history id                                 show the revisions of a clubber from the newest",
+		"  revert id time                             restore the record a clubber had at a time, such as 2024-05-01T22:30",
+		"  import file.csv                            import clubbers, rejected lines go to file.rejects.csv",
+		"  export file.csv                            export all the clubbers",
+		"  stats                                      show statistics of the database",
+		"  checkin|checkout key [door]                check the clubber with the key in or out at a door, door 0 by default",
+		"  occupancy                                  show the clubbers inside tonight",
+		"  dedup [limit]                              show clubbers with the same name, surname and tel, 20 groups by default",
+		"  serve [port]                               serve the database over HTTP on localhost, port 8080 by default",
+		"  loadtest [clients] [requests]              load-test the HTTP service, 1000 clients and 100000 requests by default",
+		"  generate file.dat|file.csv count [seed [invalid%]]  write synthetic clubbers, the given percent of them invalid",
+		"  replay [rate [requests [engine|http]]]     replay door traffic at rate requests/s, 0 for max, 1000/s and 100000 requests by default");
+
+
+	/**
+	* This method runs one command and exits with its exit code.
+	*
+	* @param args the command line
+	*/
+	public static void main(String[] args)
+	{
+		ClubberServer.enableNoDelay();
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	* This method runs one command.
+	*
+	* @param args the command line
+	* @param out receives the output of the command
+	* @param err receives the error messages
+	* @return the exit code
+	*/
+	public static int run(String [] args, PrintStream out, PrintStream err)
+	{
+		Path dataFile = Paths.get(DB_FILE);
+		int next = 0;
+		if(args.length >= 2 && args[0].equals("-db"))
+		{
+			dataFile = Paths.get(args[1]);
+			next = 2;
+		}
+		if(next == args.length)
+		{
+			err.println(USAGE);
+			return 2;
+		}
+		String command = args[next];
+		String [] operands = Arrays.copyOfRange(args, next + 1, args.length);
+		if(!isUsage(command, operands))
+		{
+			err.println(USAGE);
+			return 2;
+		}
+
+		if(command.equals("generate"))
+			return generate(operands, out, err);
+		if(command.equals("peek"))
+			return peek(dataFile, operands, "Clubber with id %s does not exist%n", out, err);
+		if(command.equals("lookup") && isPeekable(dataFile, operands))
+			return peek(dataFile, operands, "Clubber with key %s does not exist%n", out, err);
+		try(ClubberEngine engine = new ClubberEngine(dataFile))
+		{
+			engine.load();
+			switch(command)
+			{
+				case "lookup":
+					return lookup(engine, operands, out, err);
+				case "find":
+				case "tel":
+					if(command.equals("find"))
+						engine.awaitNameIndex();
+					int offset = operands.length > 1 ? Integer.parseInt(operands[1]) : 0;
+					int limit = operands.length > 2 ? Integer.parseInt(operands[2]) : 20;
+					ClubberNameIndex.Page page = command.equals("find") ? engine.searchNames(operands[0], offset, limit)
+						: engine.searchTel(operands[0], offset, limit);
+					for(ClubberRecord clubber : page.getClubbers())
+						out.println(clubber);
+					if(page.hasMore())
+						out.println("...");
+					return page.getClubbers().isEmpty() ? 1 : 0;
+				case "add":
+					return add(engine, operands, out, err);
+				case "history":
+					return history(engine, operands[0], out, err);
+				case "revert":
+					return revert(engine, operands, out, err);
+				case "import":
+					ClubberImporter.Report report = engine.importCsv(Paths.get(operands[0]), lines -> {});
+					engine.compact();
+					out.println(report);
+					if(report.getInvalid() + report.getDuplicates() > 0)
+						out.println("Rejected lines were written to " + report.getRejects());
+					return 0;
+				case "export":
+					out.printf("%d clubbers exported to %s%n", engine.exportCsv(Paths.get(operands[0])), operands[0]);
+					return 0;
+				case "serve":
+					return serve(engine, operands.length > 0 ? Integer.parseInt(operands[0]) : ClubberServer.DEFAULT_PORT, out);
+				case "loadtest":
+					try(ClubberServer server = new ClubberServer(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).start())
+					{
+						ClubberServer.loadTest(engine, server.getPort(), operands.length > 0 ? Integer.parseInt(operands[0]) : 1000,
+							operands.length > 1 ? Integer.parseInt(operands[1]) : 100000, out);
+					}
+					return 0;
+				case "replay":
+					return replay(engine, operands, out);
+				case "checkin":
+				case "checkout":
+					return checkIn(engine, command.equals("checkin"), operands, out, err);
+				case "occupancy":
+					for(Map.Entry<String, Long> counter : engine.occupancy().entrySet())
+						out.printf("%s=%d%n", counter.getKey(), counter.getValue());
+					return 0;
+				case "dedup":
+					return dedup(engine, operands.length > 0 ? Integer.parseInt(operands[0]) : 20, out);
+				default:
+					for(Map.Entry<String, Long> stat : engine.stats().entrySet())
+						out.printf("%s=%d%n", stat.getKey(), stat.getValue());
+					return 0;
+			}
+		}catch(NumberFormatException | DateTimeParseException e)
+		{
+			err.println(USAGE);
+			return 2;
+		}catch(InterruptedException e)
+		{
+			return 1;
+		}catch(IOException e)
+		{
+			err.println("Clubbers database failed: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	* @param command the command name
+	* @param operands the operands given
+	* @return true if the command exists and takes these operands otherwise false
+	*/
+	private static boolean isUsage(String command, String [] operands)
+	{
+		switch(command)
+		{
+			case "lookup":
+			case "peek":
+				return operands.length > 0;
+			case "find":
+			case "tel":
+				return operands.length >= 1 && operands.length <= 3;
+			case "add":
+				return operands.length == 5 || operands.length == 6;
+			case "history":
+			case "import":
+			case "export":
+				return operands.length == 1;
+			case "revert":
+				return operands.length == 2;
+			case "stats":
+				return operands.length == 0;
+			case "dedup":
+				return operands.length <= 1;
+			case "checkin":
+			case "checkout":
+				return operands.length == 1 || operands.length == 2;
+			case "occupancy":
+				return operands.length == 0;
+			case "serve":
+				return operands.length <= 1;
+			case "loadtest":
+				return operands.length <= 2;
+			case "generate":
+				return operands.length >= 2 && operands.length <= 4;
+			case "replay":
+				return operands.length <= 3 && (operands.length < 3 || operands[2].equals("engine") || operands[2].equals("http"));
+			default:
+				return false;
+		}
+	}
+
+	/**
+	* This method serves the database over HTTP until the process is stopped,
+	* a shutdown hook stops the service and closes the engine so the journal is forced to disk.
+	*
+	* @return never returns unless interrupted
+	*/
+	private static int serve(ClubberEngine engine, int port, PrintStream out) throws IOException, InterruptedException
+	{
+		ClubberServer server = new ClubberServer(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			try
+			{
+				engine.close();
+			}catch(IOException e)
+			{
+				e.printStackTrace();
+			}
+		}));
+		engine.schedule(5, java.util.concurrent.TimeUnit.MINUTES);
+		out.printf("Serving %d clubbers on http://localhost:%d/clubbers%n", engine.size(), server.getPort());
+		Thread.currentThread().join();
+		return 0;
+	}
+
+	/**
+	* This method checks if the clubbers of a lookup can be read from the files without loading the database.
+	*
+	* @return true if every key is a person id and the database is not a legacy file, which only a full load migrates
+	*/
+	private static boolean isPeekable(Path dataFile, String [] keys)
+	{
+		if(!Arrays.stream(keys).allMatch(ClubberValidator::isId))
+			return false;
+		try
+		{
+			return !Files.exists(dataFile) || !ClubberFile.isLegacy(dataFile);
+		}catch(IOException e)
+		{
+			//the full load reports the failure
+			return false;
+		}
+	}
+
+	/**
+	* This method shows the clubbers with the ids, every one is read from one block of its shard and the journal.
+	*
+	* @return 0 if all the clubbers were found, otherwise 1
+	*/
+	private static int peek(Path dataFile, String [] ids, String missing, PrintStream out, PrintStream err)
+	{
+		try(ClubberStorage storage = new ClubberStorage(dataFile))
+		{
+			int result = 0;
+			for(String id : ids)
+			{
+				ClubberRecord clubber = storage.lookup(id);
+				if(clubber == null)
+				{
+					err.printf(missing, id);
+					result = 1;
+				}else out.println(clubber);
+			}
+			return result;
+		}catch(IOException e)
+		{
+			err.println("Clubbers database failed: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	* This method writes synthetic clubbers to a file.
+	*
+	* @return 0
+	*/
+	private static int generate(String [] operands, PrintStream out, PrintStream err)
+	{
+		long count = Long.parseLong(operands[1]);
+		long seed = operands.length > 2 ? Long.parseLong(operands[2]) : 1;
+		double invalid = operands.length > 3 ? Double.parseDouble(operands[3]) / 100 : 0;
+		ClubberGenerator generator = new ClubberGenerator(seed, ClubberGenerator.DEFAULT_PERSON_PERCENT, ClubberGenerator.DEFAULT_SOLDIER_PERCENT, invalid);
+		long start = System.nanoTime();
+		try
+		{
+			long bytes = generator.write(Paths.get(operands[0]), 0, count, written -> {});
+			out.printf("%d clubbers written to %s, %d bytes in %d ms%n", count, operands[0], bytes, (System.nanoTime() - start) / 1000000);
+			return 0;
+		}catch(IOException e)
+		{
+			err.println("Generating failed: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	* This method checks the clubber with the key in or out.
+	*
+	* @return 0 if the clubber was checked in or out, 1 if there is no such clubber or it is already inside or not inside
+	*/
+	private static int checkIn(ClubberEngine engine, boolean in, String [] operands, PrintStream out, PrintStream err) throws IOException
+	{
+		ClubberRecord clubber = engine.search(operands[0]);
+		if(clubber == null)
+		{
+			err.println("Clubber with key " + operands[0] + " does not exist");
+			return 1;
+		}
+		int door = operands.length > 1 ? Integer.parseInt(operands[1]) : 0;
+		if(in ? !engine.checkIn(clubber, door) : !engine.checkOut(clubber, door))
+		{
+			err.println(clubber.getId() + (in ? " is already inside" : " is not inside"));
+			return 1;
+		}
+		out.println(clubber + (in ? " checked in" : " checked out") + " at door " + door);
+		return 0;
+	}
+
+	/**
+	* This method shows the groups of clubbers with the same name, surname and tel, and the size of the column store.
+	*
+	* @return 0
+	*/
+	private static int dedup(ClubberEngine engine, int limit, PrintStream out)
+	{
+		ClubberColumns columns = engine.columns(false);
+		List<int[]> duplicates = columns.findDuplicates();
+		for(int [] group : duplicates.subList(0, Math.min(limit, duplicates.size())))
+		{
+			for(int row : group)
+				out.println(columns.get(row));
+			out.println();
+		}
+		out.printf("%d groups of duplicates in %d clubbers, %d distinct names and surnames, %d irregular clubbers, %d bytes of columns%n",
+			duplicates.size(), columns.size(), columns.getDictionarySize(), columns.getIrregularCount(), columns.getMemoryBytes());
+		return 0;
+	}
+
+	/**
+	* This method replays door traffic to the database, directly or through the HTTP service on a free port.
+	*
+	* @return 0
+	*/
+	private static int replay(ClubberEngine engine, String [] operands, PrintStream out) throws IOException, InterruptedException
+	{
+		double rate = operands.length > 0 ? Double.parseDouble(operands[0]) : 1000;
+		long requests = operands.length > 1 ? Long.parseLong(operands[1]) : 100000;
+		//the name index is built in the background, it would compete with the replay for the processors
+		engine.awaitNameIndex();
+		ArrayList<ClubberRecord> clubbers = new ArrayList<>(engine.size());
+		for(ClubberRecord clubber : engine.getRepository().snapshot())
+			clubbers.add(clubber);
+		if(operands.length > 2 && operands[2].equals("http"))
+		{
+			try(ClubberServer server = new ClubberServer(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).start())
+			{
+				ClubberReplay.Target target = ClubberReplay.forHttp(URI.create("http://localhost:" + server.getPort() + "/clubbers"));
+				new ClubberReplay(target, clubbers, 1, 1).run(rate, requests, 64, out);
+			}
+		}else new ClubberReplay(ClubberReplay.forEngine(engine), clubbers, 1, 1).run(rate, requests, 64, out);
+		return 0;
+	}
+
+	/**
+	* This method shows the clubber of every key.
+	*
+	* @return 0 if all the keys were found otherwise 1
+	*/
+	private static int lookup(ClubberEngine engine, String [] keys, PrintStream out, PrintStream err)
+	{
+		int status = 0;
+		for(String key : keys)
+		{
+			ClubberRecord clubber = engine.search(key);
+			if(clubber == null)
+			{
+				err.printf("Clubber with key %s does not exist%n", key);
+				status = 1;
+			}else out.println(clubber);
+		}
+		return status;
+	}
+
+	/**
+	* This method shows the revisions of a clubber with their local times, the record it had before the first kept change has no time.
+	*
+	* @return 0 if the clubber has revisions or exists, otherwise 1
+	*/
+	private static int history(ClubberEngine engine, String id, PrintStream out, PrintStream err)
+	{
+		List<ClubberHistory.Revision> revisions = engine.history(id);
+		for(ClubberHistory.Revision revision : revisions)
+			out.printf("%-23s  %s%n", revision.getTime() == 0 ? "initial" : toLocal(revision.getTime()), revision);
+		if(!revisions.isEmpty())
+			return 0;
+		ClubberRecord clubber = engine.getById(id);
+		if(clubber == null)
+		{
+			err.println("Clubber with id " + id + " has no history");
+			return 1;
+		}
+		out.printf("%-23s  %s%n", "unchanged", clubber);
+		return 0;
+	}
+
+	/**
+	* This method restores the record a clubber had at a time.
+	*
+	* @return 0 if the record was restored, 1 if the clubber had no record at the time or another clubber owns one of its keys
+	*/
+	private static int revert(ClubberEngine engine, String [] operands, PrintStream out, PrintStream err) throws IOException
+	{
+		String time = operands[1];
+		LocalDateTime local = time.contains("T") ? LocalDateTime.parse(time) : LocalDate.parse(time).atStartOfDay();
+		long millis = local.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		ClubberRecord target = engine.getAt(operands[0], millis);
+		try
+		{
+			ClubberRecord conflict = engine.revert(operands[0], millis);
+			if(conflict != null)
+			{
+				err.printf("Clubber with key %s already exists%n", conflict.getId());
+				return 1;
+			}
+		}catch(IllegalArgumentException e)
+		{
+			err.println(e.getMessage());
+			return 1;
+		}
+		out.println(target + " restored");
+		return 0;
+	}
+
+	/**
+	* @return the time in milliseconds as a local date and time
+	*/
+	private static LocalDateTime toLocal(long millis)
+	{
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+	}
+
+	/**
+	* This method adds a new clubber.
+	*
+	* @return 0 if the clubber was added otherwise 1
+	*/
+	private static int add(ClubberEngine engine, String [] operands, PrintStream out, PrintStream err) throws IOException
+	{
+		ClubberType type = ClubberType.forTitle(operands[0]);
+		if(type == null || type.getFieldCount() != operands.length - 1)
+		{
+			err.println(type == null ? "Unknown type " + operands[0] + ", the types are " + String.join(", ", ClubberType.titles())
+				: type.getTitle() + " takes " + type.getFieldCount() + " fields");
+			return 2;
+		}
+		ClubberRecord clubber = new ClubberRecord(type, Arrays.copyOfRange(operands, 1, operands.length));
+		try
+		{
+			ClubberRecord conflict = engine.create(clubber);
+			if(conflict != null)
+			{
+				err.printf("Clubber with key %s already exists%n", conflict.getId());
+				return 1;
+			}
+		}catch(IllegalArgumentException e)
+		{
+			err.println(e.getMessage());
+			return 1;
+		}
+		out.println(clubber);
+		return 0;
+	}
+}
@@ -0,0 +1,479 @@
+import java.nio.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+
+/**
+* This class is a compact column store of clubbers, for full scans of the database such as statistics, exports and finding duplicates.
+* A {@link ClubberRecord} costs about 300 bytes of heap: the record, its field array and five strings.
+* The column store keeps every field in a column of its own instead, about 30 bytes per clubber:
+* <pre>
+* type      byte   ordinal of the {@link ClubberType}
+* id        long   the 8 digits of d-ddddddd|c followed by the check digit
+* name      int    code of the name in the dictionary
+* surname   int    code of the surname in the dictionary
+* tel       long   the number packed by {@link ClubberPhoneIndex#encode}
+* extra     int    the extra field packed by the mask of its {@link ClubberField}, such as a personal number or a student id
+* </pre>
+* Names and surnames repeat a lot, so every distinct string is kept once in a dictionary shared by both columns.
+* A clubber with a field that doesn't follow the rules of {@link ClubberValidator}, such as a record of an old file,
+* is kept as a record on the side, its id column holds -1.
+* <p>
+* The columns are buffers on the heap, or outside the heap when the store is created off heap,
+* then only the dictionary and the irregular records are on the heap.
+* The store is filled by one thread with {@link #add} or built from a snapshot with {@link #of},
+* after that it can be read by any number of threads. {@link #get} creates a new record every time,
+* it is equal in its fields to the one that was added but it is not the same object.
+*/
+public class ClubberColumns
+{
+	private static final int ROW_BYTES = 1 + 8 + 4 + 4 + 8 + 4;
+	private static final int ID_DIGITS = 100000000;
+	private static final ClubberType [] TYPES = ClubberType.values();
+
+	private final boolean offHeap;
+	private final ArrayList<String> words;
+	private final HashMap<String, Integer> codes;
+	private final HashMap<Integer, ClubberRecord> irregular;
+	private ByteBuffer types;
+	private LongBuffer ids;
+	private IntBuffer names;
+	private IntBuffer surnames;
+	private LongBuffer tels;
+	private IntBuffer extras;
+	private int size;
+	//rank of every word of the dictionary in alphabetical order, computed when first needed
+	private int [] ranks;
+
+
+	/**
+	* Constructor with the initial capacity, the columns grow as clubbers are added.
+	*
+	* @param capacity number of clubbers the columns hold before they grow
+	* @param offHeap true to keep the columns outside the heap
+	*/
+	public ClubberColumns(int capacity, boolean offHeap)
+	{
+		this.offHeap = offHeap;
+		words = new ArrayList<>();
+		codes = new HashMap<>();
+		irregular = new HashMap<>();
+		allocate(Math.max(capacity, 16));
+	}
+
+	/**
+	* This method builds the column store of a snapshot of the repository.
+	*
+	* @param snapshot the clubbers
+	* @param offHeap true to keep the columns outside the heap
+	* @return the column store
+	*/
+	public static ClubberColumns of(ClubberRepository.Snapshot snapshot, boolean offHeap)
+	{
+		ClubberColumns columns = new ClubberColumns(snapshot.size(), offHeap);
+		for(ClubberRecord clubber : snapshot)
+			columns.add(clubber);
+		return columns;
+	}
+
+	/**
+	* This method adds a clubber in the next row.
+	*
+	* @param clubber the record of the clubber
+	* @return the row of the clubber
+	*/
+	public int add(ClubberRecord clubber)
+	{
+		if(size == types.capacity())
+			grow();
+		int row = size++;
+		ClubberType type = clubber.getType();
+		long id = packId(clubber.getId());
+		long tel = ClubberPhoneIndex.encode(clubber.get(ClubberRecord.TEL));
+		int extra = type.getFieldCount() > ClubberRecord.EXTRA ? type.getField(ClubberRecord.EXTRA).pack(clubber.get(ClubberRecord.EXTRA)) : 0;
+		types.put(row, (byte)type.ordinal());
+		if(id < 0 || tel < 0 || extra < 0)
+		{
+			ids.put(row, -1);
+			irregular.put(row, clubber);
+			return row;
+		}
+		ids.put(row, id);
+		names.put(row, code(clubber.get(ClubberRecord.NAME)));
+		surnames.put(row, code(clubber.get(ClubberRecord.SURNAME)));
+		tels.put(row, tel);
+		extras.put(row, extra);
+		return row;
+	}
+
+	/**
+	* This method creates the record of a row.
+	*
+	* @param row the row
+	* @return a new record with the fields of the clubber in the row
+	* @throws IndexOutOfBoundsException if there is no such row
+	*/
+	public ClubberRecord get(int row)
+	{
+		if(row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("row " + row + " of " + size);
+		long id = ids.get(row);
+		if(id < 0)
+			return irregular.get(row);
+		ClubberType type = TYPES[types.get(row)];
+		String [] fields = new String[type.getFieldCount()];
+		fields[ClubberRecord.ID] = unpackId(id);
+		fields[ClubberRecord.NAME] = words.get(names.get(row));
+		fields[ClubberRecord.SURNAME] = words.get(surnames.get(row));
+		fields[ClubberRecord.TEL] = ClubberPhoneIndex.decode(tels.get(row));
+		if(type.getFieldCount() > ClubberRecord.EXTRA)
+			fields[ClubberRecord.EXTRA] = type.getField(ClubberRecord.EXTRA).unpack(extras.get(row));
+		return new ClubberRecord(type, fields);
+	}
+
+	/**
+	* This method passes the record of every row to the consumer in row order.
+	*
+	* @param consumer receives the records
+	*/
+	public void forEach(Consumer<ClubberRecord> consumer)
+	{
+		for(int row = 0; row < size; row++)
+			consumer.accept(get(row));
+	}
+
+	/**
+	* @return number of clubbers in the store
+	*/
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	* @param row the row
+	* @return the type of the clubber in the row
+	*/
+	public ClubberType getType(int row)
+	{
+		return TYPES[types.get(row)];
+	}
+
+	/**
+	* This method returns the dictionary code of the name or surname of a row,
+	* so a filter can test every distinct word once with {@link #matchWords} instead of every row.
+	*
+	* @param field {@link ClubberRecord#NAME} or {@link ClubberRecord#SURNAME}
+	* @param row the row
+	* @return the code of the word, or -1 if the clubber is irregular
+	*/
+	public int getWord(int field, int row)
+	{
+		if(ids.get(row) < 0)
+			return -1;
+		return field == ClubberRecord.NAME ? names.get(row) : surnames.get(row);
+	}
+
+	/**
+	* This method tests every word of the dictionary.
+	*
+	* @param predicate the test
+	* @return for every code of the dictionary, true if its word passes the test
+	*/
+	public boolean[] matchWords(Predicate<String> predicate)
+	{
+		boolean [] matches = new boolean[words.size()];
+		for(int code = 0; code < matches.length; code++)
+			matches[code] = predicate.test(words.get(code));
+		return matches;
+	}
+
+	/**
+	* This method returns the sort key of a field of a row, sorting rows by the key sorts them by the field:
+	* names and surnames alphabetically, ids, phone numbers and personal numbers or student ids numerically,
+	* the extra field by type first, and irregular clubbers after all the others.
+	*
+	* @param field index of the field in the {@link ClubberRecord}
+	* @param row the row
+	* @return the sort key
+	*/
+	public long getSortKey(int field, int row)
+	{
+		long id = ids.get(row);
+		if(id < 0)
+			return Long.MAX_VALUE;
+		switch(field)
+		{
+			case ClubberRecord.ID:
+				return id;
+			case ClubberRecord.NAME:
+				return ranks()[names.get(row)];
+			case ClubberRecord.SURNAME:
+				return ranks()[surnames.get(row)];
+			case ClubberRecord.TEL:
+				return tels.get(row);
+			default:
+				return (long)types.get(row) << 32 | extras.get(row);
+		}
+	}
+
+	/**
+	* This method returns the ranges of the sort keys of the ids or the phone numbers that start with a prefix,
+	* so a filter compares the packed column of the rows with {@link #getSortKey} instead of creating their records.
+	*
+	* @param field {@link ClubberRecord#ID} or {@link ClubberRecord#TEL}
+	* @param prefix the first characters of an id or a phone number
+	* @return the first key and the first key after every range, empty if no id or phone number in its format starts with the prefix
+	*/
+	public static long[] keyRanges(int field, String prefix)
+	{
+		return field == ClubberRecord.TEL ? ClubberPhoneIndex.textRanges(prefix) : idRange(prefix);
+	}
+
+	/**
+	* This method counts the clubbers of every type, it reads only the type column.
+	*
+	* @return the number of clubbers of every type, by the ordinal of the type
+	*/
+	public long[] countByType()
+	{
+		long [] counts = new long[TYPES.length];
+		for(int row = 0; row < size; row++)
+			counts[types.get(row)]++;
+		return counts;
+	}
+
+	/**
+	* @return number of distinct names and surnames in the dictionary
+	*/
+	public int getDictionarySize()
+	{
+		return words.size();
+	}
+
+	/**
+	* @return number of clubbers kept as records because a field doesn't follow the rules
+	*/
+	public int getIrregularCount()
+	{
+		return irregular.size();
+	}
+
+	/**
+	* This method estimates the memory the store takes, the columns, the dictionary and the irregular records.
+	*
+	* @return the estimate in bytes
+	*/
+	public long getMemoryBytes()
+	{
+		long bytes = (long)types.capacity() * ROW_BYTES;
+		for(String word : words)
+			//the string, its array, the list entry and the map entry with its boxed code
+			bytes += 24 + 16 + word.length() + 4 + 32 + 16;
+		return bytes + irregular.size() * 300L;
+	}
+
+	/**
+	* @return true if the columns are outside the heap
+	*/
+	public boolean isOffHeap()
+	{
+		return offHeap;
+	}
+
+	/**
+	* This method finds the clubbers that are probably the same person registered more than once:
+	* clubbers with different ids and the same name, surname and phone number.
+	* It compares the codes of the name, surname and tel columns only, the irregular clubbers are not compared.
+	*
+	* @return the rows of every group of duplicates, every group has at least two rows in row order
+	*/
+	public List<int[]> findDuplicates()
+	{
+		int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) * 2;
+		int mask = capacity - 1;
+		//open addressing table of the first row of every name, surname and tel, next links the rows of a group
+		int [] firsts = new int[capacity];
+		int [] next = new int[size];
+		int [] lasts = new int[size];
+		int [] counts = new int[size];
+		Arrays.fill(firsts, -1);
+		int groups = 0;
+		for(int row = 0; row < size; row++)
+		{
+			next[row] = -1;
+			if(ids.get(row) < 0)
+				continue;
+			int slot = hash(row) & mask;
+			while(firsts[slot] >= 0 && !sameContact(firsts[slot], row))
+				slot = slot + 1 & mask;
+			int first = firsts[slot];
+			if(first < 0)
+			{
+				firsts[slot] = row;
+				lasts[row] = row;
+				counts[row] = 1;
+				continue;
+			}
+			//append to the group so its rows stay in row order
+			next[lasts[first]] = row;
+			lasts[first] = row;
+			if(++counts[first] == 2)
+				groups++;
+		}
+		ArrayList<int[]> duplicates = new ArrayList<>(groups);
+		for(int row = 0; row < size; row++)
+		{
+			if(counts[row] < 2)
+				continue;
+			int [] group = new int[counts[row]];
+			for(int i = 0, member = row; member >= 0; member = next[member])
+				group[i++] = member;
+			duplicates.add(group);
+		}
+		return duplicates;
+	}
+
+	private boolean sameContact(int row, int other)
+	{
+		return tels.get(row) == tels.get(other) && names.get(row) == names.get(other) && surnames.get(row) == surnames.get(other);
+	}
+
+	private int hash(int row)
+	{
+		long tel = tels.get(row);
+		int hash = (int)(tel ^ tel >>> 32) * 31 + names.get(row);
+		hash = hash * 31 + surnames.get(row);
+		return hash ^ hash >>> 16;
+	}
+
+	/**
+	* @return the alphabetical rank of every word of the dictionary, computed again when words were added since
+	*/
+	private synchronized int[] ranks()
+	{
+		if(ranks == null || ranks.length != words.size())
+		{
+			String [] sorted = words.toArray(new String[0]);
+			Arrays.sort(sorted);
+			int [] ranked = new int[sorted.length];
+			for(int code = 0; code < ranked.length; code++)
+				ranked[code] = Arrays.binarySearch(sorted, words.get(code));
+			ranks = ranked;
+		}
+		return ranks;
+	}
+
+	/**
+	* @return the code of the string in the dictionary, a new code if it wasn't in the dictionary
+	*/
+	private int code(String word)
+	{
+		Integer code = codes.get(word);
+		if(code == null)
+		{
+			code = words.size();
+			words.add(word);
+			codes.put(word, code);
+		}
+		return code;
+	}
+
+	/**
+	* @return the digits and the check digit of the id as one number, or -1 if the id is not in the d-ddddddd|c format
+	*/
+	private static long packId(String id)
+	{
+		if(!ClubberValidator.isId(id))
+			return -1;
+		long digits = id.charAt(0) - '0';
+		for(int i = 2; i < 9; i++)
+			digits = digits * 10 + id.charAt(i) - '0';
+		return digits * 10 + id.charAt(10) - '0';
+	}
+
+	/**
+	* @return the range of packed ids that start with the prefix, empty if no id in the d-ddddddd|c format does
+	*/
+	private static long[] idRange(String prefix)
+	{
+		if(prefix.length() > 11)
+			return new long[0];
+		long first = 0;
+		int digits = 0;
+		for(int i = 0; i < prefix.length(); i++)
+		{
+			char c = prefix.charAt(i);
+			if(i == 1 || i == 9)
+			{
+				if(c != (i == 1 ? '-' : '|'))
+					return new long[0];
+			}else if(c < '0' || c > '9' || (i == 10 && c == '0'))
+				return new long[0];
+			else
+			{
+				first = first * 10 + c - '0';
+				digits++;
+			}
+		}
+		long scale = 1;
+		for(; digits < 9; digits++)
+			scale *= 10;
+		return new long[]{first * scale, (first + 1) * scale};
+	}
+
+	private static String unpackId(long id)
+	{
+		long digits = id / 10;
+		char [] chars = new char[11];
+		chars[0] = (char)('0' + digits / (ID_DIGITS / 10));
+		chars[1] = '-';
+		for(int i = 8; i >= 2; i--, digits /= 10)
+			chars[i] = (char)('0' + digits % 10);
+		chars[9] = '|';
+		chars[10] = (char)('0' + id % 10);
+		return new String(chars);
+	}
+
+	/**
+	* This method creates the columns for the capacity and copies the rows that were added.
+	*/
+	private void allocate(int capacity)
+	{
+		ByteBuffer newTypes = buffer(capacity);
+		LongBuffer newIds = buffer(capacity * 8L).asLongBuffer();
+		IntBuffer newNames = buffer(capacity * 4L).asIntBuffer();
+		IntBuffer newSurnames = buffer(capacity * 4L).asIntBuffer();
+		LongBuffer newTels = buffer(capacity * 8L).asLongBuffer();
+		IntBuffer newExtras = buffer(capacity * 4L).asIntBuffer();
+		if(size > 0)
+		{
+			newTypes.put(types.duplicate().position(0).limit(size)).clear();
+			newIds.put(ids.duplicate().position(0).limit(size)).clear();
+			newNames.put(names.duplicate().position(0).limit(size)).clear();
+			newSurnames.put(surnames.duplicate().position(0).limit(size)).clear();
+			newTels.put(tels.duplicate().position(0).limit(size)).clear();
+			newExtras.put(extras.duplicate().position(0).limit(size)).clear();
+		}
+		types = newTypes;
+		ids = newIds;
+		names = newNames;
+		surnames = newSurnames;
+		tels = newTels;
+		extras = newExtras;
+	}
+
+	private void grow()
+	{
+		if(size == Integer.MAX_VALUE / 8)
+			throw new IllegalStateException("the column store is full");
+		allocate((int)Math.min(size * 2L, Integer.MAX_VALUE / 8));
+	}
+
+	private ByteBuffer buffer(long bytes)
+	{
+		ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect((int)bytes) : ByteBuffer.allocate((int)bytes);
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+}
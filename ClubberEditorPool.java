@@ -0,0 +1,126 @@
+import java.util.*;
+
+
+/**
+* This class is a pool of the editor frames of the clubbers, a few idle frames of every {@link ClubberType}.
+* Building a frame builds its panels, rows and listeners, so instead of building a frame every time a clubber is shown
+* an idle frame of the type is bound to the record of the clubber with {@link ClubAbstractEntity#bind},
+* and when it is hidden by OK or Cancel it is unbound and returns to the pool.
+* A frame is built only when all the frames of the type are shown, and at most {@value #MAX_IDLE} idle frames
+* of every type are kept, the others are disposed, so the number of frames is the number shown at the same time and not the number of clubbers.
+* The pool also knows the frames that are shown, so the frames with uncommitted edits are found without visiting every clubber.
+* <p>
+* The pool is used on the event dispatch thread only.
+*/
+public class ClubberEditorPool
+{
+	public static final int MAX_IDLE = 4;
+
+	private final EnumMap<ClubberType, ArrayDeque<ClubAbstractEntity>> idle;
+	private final LinkedHashSet<ClubAbstractEntity> shown;
+	private int built;
+
+
+	/**
+	* Parameterless constructor - creates an empty pool.
+	*/
+	public ClubberEditorPool()
+	{
+		idle = new EnumMap<>(ClubberType.class);
+		for(ClubberType type : ClubberType.values())
+			idle.put(type, new ArrayDeque<>());
+		shown = new LinkedHashSet<>();
+	}
+
+	/**
+	* This method builds an idle frame of every type ahead of time, so even the first clubber of a type opens at once.
+	*/
+	public void prewarm()
+	{
+		for(ClubberType type : ClubberType.values())
+			if(idle.get(type).isEmpty())
+				idle.get(type).push(build(type));
+	}
+
+	/**
+	* This method takes an idle frame of the type, or builds one if there is none, and binds it to a clubber.
+	*
+	* @param type the type of the clubber
+	* @param record the committed record of the clubber, null for a new clubber
+	* @return the bound frame, not shown yet
+	*/
+	public ClubAbstractEntity acquire(ClubberType type, ClubberRecord record)
+	{
+		ClubAbstractEntity editor = idle.get(type).poll();
+		if(editor == null)
+			editor = build(type);
+		editor.bind(record);
+		shown.add(editor);
+		return editor;
+	}
+
+	/**
+	* This method unbinds a hidden frame and returns it to the pool, or disposes it if the pool of its type is full.
+	*
+	* @param editor the hidden frame
+	*/
+	public void release(ClubAbstractEntity editor)
+	{
+		ArrayDeque<ClubAbstractEntity> frames = idle.get(editor.getClubberType());
+		if(frames.contains(editor))
+			return;
+		shown.remove(editor);
+		editor.unbind();
+		if(frames.size() < MAX_IDLE)
+			frames.push(editor);
+		else editor.dispose();
+	}
+
+	/**
+	* This method returns the shown frames whose fields were edited and not committed or rolled back yet,
+	* including frames of new clubbers that were never committed.
+	*
+	* @return the dirty frames in the order they were shown
+	*/
+	public List<ClubAbstractEntity> getDirty()
+	{
+		List<ClubAbstractEntity> dirty = new ArrayList<>();
+		for(ClubAbstractEntity editor : shown)
+			if(editor.isDirty())
+				dirty.add(editor);
+		return dirty;
+	}
+
+	/**
+	* @return number of frames the pool built so far
+	*/
+	public int getBuiltCount()
+	{
+		return built;
+	}
+
+	/**
+	* @param type a clubber type
+	* @return number of idle frames of the type
+	*/
+	public int getIdleCount(ClubberType type)
+	{
+		return idle.get(type).size();
+	}
+
+	private ClubAbstractEntity build(ClubberType type)
+	{
+		built++;
+		switch(type)
+		{
+			case SOLDIER:
+				return new Soldier();
+			case STUDENT:
+				return new Student();
+			case PERSON:
+				return new Person();
+			default:
+				return new Person(type, null);
+		}
+	}
+}
@@ -0,0 +1,503 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+
+/**
+* This class is the night club clubbers engine, it has no GUI dependency.
+* It owns the {@link ClubberRepository} with its key index, the {@link ClubberNameIndex} for prefix search by name,
+* the {@link ClubberPhoneIndex} for reverse lookup by phone number, and the {@link ClubberStorage} that persists them,
+* and the {@link ClubberCheckins} log of the visits with the live occupancy of the club,
+* and offers the search, uniqueness check, commit, history, check-in, import, export and statistics operations
+* that the Swing app {@link NightClubMgmtApp}, the command line {@link ClubberCli} and batch jobs share.
+* <p>
+* An engine is loaded once with {@link #load}, every {@link #store} or {@link #create} is journaled as it happens,
+* and {@link #close} closes the journal.
+*/
+public class ClubberEngine implements Closeable
+{
+	private final Path dataFile;
+	private final ClubberRepository repository;
+	private final ClubberStorage storage;
+	private volatile ClubberNameIndex names;
+	private volatile ClubberPhoneIndex phones;
+	private volatile ClubberCheckins checkins;
+	private long loadMillis;
+
+
+	/**
+	* Constructor with the database file, the engine is empty until {@link #load} is called.
+	*
+	* @param dataFile the snapshot file, BKCustomers.dat
+	*/
+	public ClubberEngine(Path dataFile)
+	{
+		this.dataFile = dataFile;
+		repository = new ClubberRepository();
+		storage = new ClubberStorage(dataFile);
+	}
+
+	/**
+	* This method loads the database, see {@link ClubberStorage#load}.
+	*
+	* @throws IOException if the database can't be read or the journal can't be opened
+	*/
+	public void load() throws IOException
+	{
+		load(loaded -> {});
+	}
+
+	/**
+	* This method loads the database, the records already loaded can be searched while the rest is loading.
+	* {@link #isLoading} is true from the call until the load ends.
+	*
+	* @param progress receives the number of snapshot records loaded after every batch
+	* @throws IOException if the database can't be read or the journal can't be opened
+	*/
+	public void load(IntConsumer progress) throws IOException
+	{
+		long start = System.nanoTime();
+		repository.beginLoading();
+		try
+		{
+			storage.load(repository, progress);
+			names = ClubberNameIndex.attach(repository);
+			phones = ClubberPhoneIndex.attach(repository);
+			String name = dataFile.getFileName().toString();
+			checkins = new ClubberCheckins(dataFile.resolveSibling(name.replaceFirst("\\.dat$", "") + ".checkins"));
+		}finally
+		{
+			repository.finishLoading();
+			loadMillis = (System.nanoTime() - start) / 1000000;
+		}
+	}
+
+	/**
+	* This method marks the engine as loading before {@link #load} is started on another thread,
+	* so searches and commits made before the load thread runs already see it as loading.
+	*/
+	public void beginLoading()
+	{
+		repository.beginLoading();
+	}
+
+	/**
+	* @return true while the database is loading
+	*/
+	public boolean isLoading()
+	{
+		return repository.isLoading();
+	}
+
+	/**
+	* @return number of records in the snapshot file, used as the total of the load progress
+	* @throws IOException if the snapshot can't be read
+	*/
+	public int snapshotCount() throws IOException
+	{
+		return storage.snapshotCount();
+	}
+
+	/**
+	* This method searches for a clubber by any of its keys.
+	*
+	* @param key the customer key
+	* @return the clubber if the search was successful otherwise null
+	*/
+	public ClubberRecord search(String key)
+	{
+		long start = ClubberMetrics.get().start(ClubberMetrics.Operation.SEARCH);
+		ClubberRecord clubber = repository.search(key);
+		ClubberMetrics.get().end(ClubberMetrics.Operation.SEARCH, start);
+		return clubber;
+	}
+
+	/**
+	* This method searches for a clubber by any of its keys,
+	* while the database is loading it waits until the key is loaded or the loading ends.
+	*
+	* @param key the customer key
+	* @return the clubber if the search was successful otherwise null
+	* @throws InterruptedException if the thread is interrupted while waiting
+	*/
+	public ClubberRecord awaitSearch(String key) throws InterruptedException
+	{
+		return repository.awaitSearch(key);
+	}
+
+	/**
+	* This method returns the clubber with the id.
+	*
+	* @param id the person id
+	* @return the record of the clubber, or null if there is none
+	*/
+	public ClubberRecord getById(String id)
+	{
+		return repository.getById(id);
+	}
+
+	/**
+	* This method searches the clubbers by prefixes of their names and surnames, see {@link ClubberNameIndex#search}.
+	* The name index is built in the background once the database is loaded, until then the clubbers it has not indexed yet are not found.
+	*
+	* @param query space separated prefixes, case is ignored
+	* @param offset number of matching clubbers to skip
+	* @param limit maximal number of clubbers to return
+	* @return the page of matching clubbers in rank order
+	*/
+	public ClubberNameIndex.Page searchNames(String query, int offset, int limit)
+	{
+		ClubberNameIndex index = names;
+		return index == null ? ClubberNameIndex.EMPTY : index.search(query, offset, limit);
+	}
+
+	/**
+	* This method searches the clubbers by phone number or its first digits, see {@link ClubberPhoneIndex#search}.
+	* The phone index is built once the database is loaded, until then nothing is found.
+	*
+	* @param prefix a phone number, or a prefix such as +(972) or +(972)54
+	* @param offset number of matching clubbers to skip
+	* @param limit maximal number of clubbers to return
+	* @return the page of matching clubbers in the order of their numbers
+	*/
+	public ClubberNameIndex.Page searchTel(String prefix, int offset, int limit)
+	{
+		ClubberPhoneIndex index = phones;
+		return index == null ? ClubberNameIndex.EMPTY : index.search(prefix, offset, limit);
+	}
+
+	/**
+	* This method waits until the name index holds all the loaded clubbers.
+	*
+	* @throws InterruptedException if the thread is interrupted while waiting
+	*/
+	public void awaitNameIndex() throws InterruptedException
+	{
+		ClubberNameIndex index = names;
+		if(index != null)
+			index.awaitBuilt();
+	}
+
+	/**
+	* This method checks if a clubber other than the given one already owns the key.
+	*
+	* @param key the key that is about to be committed
+	* @param self the committed record of the clubber being edited, null for a new clubber
+	* @return true if another clubber owns the key otherwise false
+	*/
+	public boolean isExists(String key, ClubberRecord self)
+	{
+		long start = ClubberMetrics.get().start(ClubberMetrics.Operation.IS_EXISTS);
+		boolean exists = repository.isExists(key, self);
+		ClubberMetrics.get().end(ClubberMetrics.Operation.IS_EXISTS, start);
+		return exists;
+	}
+
+	/**
+	* This method stores a committed clubber and appends the commit to the journal.
+	* The clubber is stored only if none of its keys belongs to another clubber, checked atomically by {@link ClubberRepository#commit},
+	* so clubbers committed at the same time from several terminals can't share a key.
+	* The commit is journaled by {@link ClubberStorage#log} before the keys are unlocked, so concurrent commits of the same clubber
+	* are replayed in the order they were applied, and if the journal can't take the entry the repository is left unchanged.
+	* The method returns once the journal entry is on disk, so a stored clubber is never lost by a crash.
+	* If the entry can't be forced to disk the clubber stays stored and a {@link SyncFailedException} is thrown, see {@link ClubberStorage#finish}.
+	* The fields that didn't change keep the strings of the previous record, so the revisions in the {@link ClubberHistory} share them.
+	*
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the new record of the clubber
+	* @return null if the clubber was stored, otherwise the clubber that owns one of its keys
+	* @throws SyncFailedException if the clubber was stored but its journal entry may not be on disk
+	* @throws IOException if the journal failed, the clubber was then not stored
+	*/
+	public ClubberRecord store(ClubberRecord old, ClubberRecord updated) throws IOException
+	{
+		ClubberMetrics.Timer timer = ClubberMetrics.get().time(ClubberMetrics.Operation.COMMIT);
+		try
+		{
+			updated.shareFields(old);
+			long [] seq = new long[1];
+			ClubberRecord conflict = repository.commit(old, updated, (previous, stored) -> seq[0] = storage.log(previous, stored));
+			if(conflict == null)
+				storage.finish(repository, seq[0]);
+			timer.done(conflict == null ? 1 : 0, 0);
+			return conflict;
+		}catch(IOException | RuntimeException e)
+		{
+			timer.failed();
+			throw e;
+		}
+	}
+
+	/**
+	* This method returns the kept revisions of a clubber, see {@link ClubberHistory#getRevisions}.
+	*
+	* @param id the current id of the clubber, or the id it had when it was removed
+	* @return the revisions from the newest, empty if the clubber didn't change in the retention period
+	*/
+	public List<ClubberHistory.Revision> history(String id)
+	{
+		return storage.getHistory().getRevisions(id);
+	}
+
+	/**
+	* This method returns the record a clubber had at a time of the retention period.
+	* A clubber without kept revisions didn't change in the period, so its current record is returned.
+	*
+	* @param id the current id of the clubber, or the id it had when it was removed
+	* @param time time in milliseconds
+	* @return the record of the clubber at the time, or null if it didn't exist then or the time is before its kept revisions
+	*/
+	public ClubberRecord getAt(String id, long time)
+	{
+		ClubberHistory history = storage.getHistory();
+		ClubberHistory.Revision revision = history.getAt(id, time);
+		if(revision != null)
+			return revision.isRemoved() ? null : revision.getRecord();
+		return history.contains(id) ? null : repository.getById(id);
+	}
+
+	/**
+	* This method restores the record a clubber had at a time, as a new commit on top of its current record,
+	* so the revisions after the time stay in the history and the revert itself can be reverted.
+	* A removed clubber is added again, unless another clubber took one of its keys meanwhile.
+	*
+	* @param id the current id of the clubber, or the id it had when it was removed
+	* @param time time in milliseconds, see {@link #getAt}
+	* @return null if the record was restored, otherwise the clubber that owns one of its keys
+	* @throws IllegalArgumentException if the clubber has no record at the time
+	* @throws IOException if the journal failed
+	*/
+	public ClubberRecord revert(String id, long time) throws IOException
+	{
+		ClubberRecord target = getAt(id, time);
+		if(target == null)
+			throw new IllegalArgumentException("Clubber " + id + " has no record at " + new Date(time));
+		String [] fields = new String[target.getFieldCount()];
+		for(int i = 0; i < fields.length; i++)
+			fields[i] = target.get(i);
+		return store(repository.getById(id), new ClubberRecord(target.getType(), fields));
+	}
+
+	/**
+	* This method adds a new clubber after validating its fields with {@link ClubberValidator},
+	* the clubber is added only if none of its keys belongs to another clubber.
+	*
+	* @param clubber the record of the new clubber
+	* @return null if the clubber was added, otherwise the clubber that owns one of its keys
+	* @throws IllegalArgumentException if a field is invalid
+	* @throws IOException if the journal failed
+	*/
+	public ClubberRecord create(ClubberRecord clubber) throws IOException
+	{
+		int invalid = ClubberValidator.validate(clubber);
+		if(invalid != ClubberValidator.VALID)
+			throw new IllegalArgumentException(ClubberValidator.describe(clubber.getType(), invalid));
+		return store(null, clubber);
+	}
+
+	/**
+	* This method imports clubbers from a CSV file, see {@link ClubberImporter}.
+	*
+	* @param csv the CSV file
+	* @param progress receives the number of lines processed after every batch
+	* @return the import report
+	* @throws IOException if a file can't be read or written or the journal failed
+	*/
+	public ClubberImporter.Report importCsv(Path csv, LongConsumer progress) throws IOException
+	{
+		ClubberMetrics.Timer timer = ClubberMetrics.get().time(ClubberMetrics.Operation.IMPORT);
+		try
+		{
+			ClubberImporter.Report report = new ClubberImporter(repository, storage).importFile(csv, progress);
+			timer.done(report.getImported(), Files.size(csv));
+			return report;
+		}catch(IOException | RuntimeException e)
+		{
+			timer.failed();
+			throw e;
+		}
+	}
+
+	/**
+	* This method exports all the clubbers to a CSV file in the format {@link ClubberImporter} reads.
+	* The clubbers are written from a snapshot view, so commits made meanwhile don't wait for the export.
+	*
+	* @param csv the CSV file
+	* @return number of clubbers written
+	* @throws IOException if the file can't be written
+	*/
+	public int exportCsv(Path csv) throws IOException
+	{
+		int count = 0;
+		try(BufferedWriter out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8))
+		{
+			out.write("type,id,name,surname,tel,extra");
+			out.newLine();
+			for(ClubberRecord clubber : repository.snapshot())
+			{
+				out.write(ClubberImporter.toCsv(clubber));
+				out.newLine();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	* This method checks a clubber in at a door, see {@link ClubberCheckins#checkIn}.
+	*
+	* @param clubber the clubber, found by {@link #search}
+	* @param door the door
+	* @return true if the clubber was checked in, false if the clubber is already inside
+	* @throws IOException if the check-in log failed or the engine is not loaded
+	*/
+	public boolean checkIn(ClubberRecord clubber, int door) throws IOException
+	{
+		return checkins().checkIn(clubber, door);
+	}
+
+	/**
+	* This method checks a clubber out at a door, see {@link ClubberCheckins#checkOut}.
+	*
+	* @param clubber the clubber, found by {@link #search}
+	* @param door the door
+	* @return true if the clubber was checked out, false if the clubber is not inside
+	* @throws IOException if the check-in log failed or the engine is not loaded
+	*/
+	public boolean checkOut(ClubberRecord clubber, int door) throws IOException
+	{
+		return checkins().checkOut(clubber, door);
+	}
+
+	/**
+	* This method returns the live occupancy of the club, see {@link ClubberCheckins#occupancy}.
+	*
+	* @return the counter names and values, empty until the engine is loaded
+	*/
+	public LinkedHashMap<String, Long> occupancy()
+	{
+		ClubberCheckins log = checkins;
+		return log == null ? new LinkedHashMap<>() : log.occupancy();
+	}
+
+	/**
+	* This method copies the clubbers of a snapshot view into a {@link ClubberColumns} store for full scans,
+	* such as {@link ClubberColumns#findDuplicates}. Commits made meanwhile don't wait and are not in the copy.
+	*
+	* @param offHeap true to keep the columns outside the heap
+	* @return the column store
+	*/
+	public ClubberColumns columns(boolean offHeap)
+	{
+		return ClubberColumns.of(repository.snapshot(), offHeap);
+	}
+
+	/**
+	* This method starts a background snapshot of the database, see {@link ClubberStorage#snapshot}.
+	*
+	* @return the running snapshot task, or null if the engine is closed or not loaded yet
+	* @throws IOException if the journal can't be rotated
+	*/
+	public Future<?> snapshot() throws IOException
+	{
+		return storage.snapshot(repository);
+	}
+
+	/**
+	* This method folds the journal into a snapshot and waits until it is written, see {@link ClubberStorage#compact}.
+	*
+	* @throws IOException if the snapshot or the journal failed
+	*/
+	public void compact() throws IOException
+	{
+		storage.compact(repository);
+	}
+
+	/**
+	* This method writes a snapshot periodically, as long as commits were journaled since the last one.
+	*
+	* @param period time between snapshots
+	* @param unit unit of the period
+	*/
+	public void schedule(long period, TimeUnit unit)
+	{
+		storage.schedule(repository, period, unit);
+	}
+
+	/**
+	* This method collects statistics about the clubbers and the database files,
+	* followed by the metrics of the operations, see {@link ClubberMetrics#snapshot}.
+	*
+	* @return the statistic names and values in a stable order
+	* @throws IOException if the database files can't be read
+	*/
+	public LinkedHashMap<String, Long> stats() throws IOException
+	{
+		LinkedHashMap<String, Long> stats = new LinkedHashMap<>();
+		long [] byType = new long[ClubberType.values().length];
+		ClubberRepository.Snapshot view = repository.snapshot();
+		for(ClubberRecord clubber : view)
+			byType[clubber.getType().ordinal()]++;
+		stats.put("clubbers", (long)view.size());
+		for(ClubberType type : ClubberType.values())
+			stats.put(type.getTitle().toLowerCase() + "s", byType[type.ordinal()]);
+		ClubberPhoneIndex index = phones;
+		stats.put("telNumbers", index == null ? 0L : index.size());
+		stats.put("snapshotRecords", (long)storage.snapshotCount());
+		stats.put("snapshotBytes", storage.snapshotSize());
+		stats.put("journalBytes", storage.journalSize());
+		ClubberHistory history = storage.getHistory();
+		stats.put("historyClubbers", (long)history.size());
+		stats.put("historyRevisions", history.getRevisionCount());
+		stats.put("historyBytes", storage.historySize());
+		stats.put("loadMillis", loadMillis);
+		stats.putAll(occupancy());
+		stats.putAll(ClubberMetrics.get().snapshot());
+		return stats;
+	}
+
+	/**
+	* @return number of clubbers
+	*/
+	public int size()
+	{
+		return repository.size();
+	}
+
+	/**
+	* @return the repository of the engine
+	*/
+	public ClubberRepository getRepository()
+	{
+		return repository;
+	}
+
+	private ClubberCheckins checkins() throws IOException
+	{
+		ClubberCheckins log = checkins;
+		if(log == null)
+			throw new IOException("Clubbers database is not loaded");
+		return log;
+	}
+
+	/**
+	* This method closes the check-in log and the storage, see {@link ClubberStorage#close}.
+	*/
+	@Override
+	public void close() throws IOException
+	{
+		ClubberCheckins log = checkins;
+		try
+		{
+			if(log != null)
+				log.close();
+		}finally
+		{
+			storage.close();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+
+/**
+* This enum declares the data fields a {@link ClubberType} is made of, with their names and validation rules.
+* The person fields ID, Name, Surname and Tel have the hand-written rules of {@link ClubberValidator}.
+* The extra fields that tell the types apart are declared by a fixed length mask,
+* and their validator, their compact int codec and their search key are all derived from the mask:
+* <pre>
+* A        an upper case letter
+* [ROC]    one of the listed letters
+* #        a digit, the first digit of a run is 1-9
+* other    the character itself
+* </pre>
+* so [ROC]/####### is the rule [ROC]/[1-9]\d{6}. A mask never allocates to match, and packs a valid value into an int
+* as a number in mixed radix, one digit per position, so the packed values sort like the strings (see {@link ClubberColumns}).
+* The search key of an extra field is the value from its first # on, the key digits of every mask have a different length,
+* so the keys of different types never collide in the {@link ClubberIndex}.
+*/
+public enum ClubberField
+{
+	ID("ID", ClubberValidator::isId),
+	NAME("Name", ClubberValidator::isName),
+	SURNAME("Surname", ClubberValidator::isSurname),
+	TEL("Tel", ClubberValidator::isTel),
+	PERSONAL_NUM("Personal No.", "[ROC]/#######"),
+	STUDENT_ID("Student ID", "AAA/#####"),
+	VIP_CARD("Card No.", "VIP/######"),
+	EMPLOYEE_NUM("Employee No.", "[BDMS]/####");
+
+	private static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private static final String DIGITS = "0123456789";
+	private static final String NON_ZERO = "123456789";
+
+	private final String title;
+	private final String mask;
+	private final Predicate<CharSequence> rule;
+	//characters allowed at every position of a masked value, one for a literal
+	private final String [] alphabets;
+	private final int keyOffset;
+
+
+	/**
+	* Constructor of a field with a hand-written rule.
+	*
+	* @param title the name of the field as shown to the user
+	* @param rule the validation rule
+	*/
+	ClubberField(String title, Predicate<CharSequence> rule)
+	{
+		this.title = title;
+		this.rule = rule;
+		mask = null;
+		alphabets = null;
+		keyOffset = -1;
+	}
+
+	/**
+	* Constructor of a field declared by a mask.
+	*
+	* @param title the name of the field as shown to the user
+	* @param mask the mask of the values, see the class description
+	*/
+	ClubberField(String title, String mask)
+	{
+		this.title = title;
+		this.mask = mask;
+		alphabets = compile(mask);
+		int key = -1;
+		for(int i = 0; i < alphabets.length && key < 0; i++)
+			if(alphabets[i] == NON_ZERO)
+				key = i;
+		keyOffset = key;
+		rule = this::matches;
+		if(getValueCount() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Mask " + mask + " doesn't pack into an int");
+	}
+
+	/**
+	* @return the name of the field as shown to the user
+	*/
+	public String getTitle()
+	{
+		return title;
+	}
+
+	/**
+	* @return the mask of the values, null if the field has a hand-written rule
+	*/
+	public String getMask()
+	{
+		return mask;
+	}
+
+	/**
+	* @return number of values the mask allows, the values packed by {@link #pack} are 0 to this number - 1,
+	* 0 if the field has no mask
+	*/
+	public long getValueCount()
+	{
+		if(alphabets == null)
+			return 0;
+		long values = 1;
+		for(String alphabet : alphabets)
+			values *= alphabet.length();
+		return values;
+	}
+
+	/**
+	* @param value the value to check
+	* @return true if the value follows the rule of the field
+	*/
+	public boolean isValid(CharSequence value)
+	{
+		return rule.test(value);
+	}
+
+	/**
+	* This method extracts the search key from a value of the field.
+	*
+	* @param value the field value
+	* @return the value from the first digit of the mask on, or null if the field has no key or the value is too short
+	*/
+	public String key(String value)
+	{
+		if(keyOffset < 0 || value.length() < keyOffset)
+			return null;
+		return value.substring(keyOffset);
+	}
+
+	/**
+	* This method packs a value of a masked field into a number.
+	*
+	* @param value the field value
+	* @return the value as one number, or -1 if the field has no mask or the value doesn't match it
+	*/
+	public int pack(CharSequence value)
+	{
+		if(alphabets == null || value.length() != alphabets.length)
+			return -1;
+		int packed = 0;
+		for(int i = 0; i < alphabets.length; i++)
+		{
+			int digit = alphabets[i].indexOf(value.charAt(i));
+			if(digit < 0)
+				return -1;
+			packed = packed * alphabets[i].length() + digit;
+		}
+		return packed;
+	}
+
+	/**
+	* This method restores a value packed by {@link #pack}.
+	*
+	* @param packed the packed value
+	* @return the field value
+	*/
+	public String unpack(int packed)
+	{
+		char [] chars = new char[alphabets.length];
+		for(int i = chars.length - 1; i >= 0; i--)
+		{
+			chars[i] = alphabets[i].charAt(packed % alphabets[i].length());
+			packed /= alphabets[i].length();
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public String toString()
+	{
+		return title;
+	}
+
+	/**
+	* @return true if the value matches the mask
+	*/
+	private boolean matches(CharSequence value)
+	{
+		if(value.length() != alphabets.length)
+			return false;
+		for(int i = 0; i < alphabets.length; i++)
+			if(alphabets[i].indexOf(value.charAt(i)) < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	* This method turns a mask into the alphabet of every position, the letters of a [...] set are sorted.
+	*/
+	private static String[] compile(String mask)
+	{
+		ArrayList<String> alphabets = new ArrayList<>();
+		for(int i = 0; i < mask.length(); i++)
+		{
+			char c = mask.charAt(i);
+			if(c == 'A')
+				alphabets.add(LETTERS);
+			else if(c == '#')
+				alphabets.add(i > 0 && mask.charAt(i - 1) == '#' ? DIGITS : NON_ZERO);
+			else if(c == '[')
+			{
+				int end = mask.indexOf(']', i);
+				char [] set = mask.substring(i + 1, end).toCharArray();
+				Arrays.sort(set);
+				alphabets.add(new String(set));
+				i = end;
+			}else alphabets.add(String.valueOf(c));
+		}
+		return alphabets.toArray(new String[0]);
+	}
+}
@@ -0,0 +1,761 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.*;
+
+
+/**
+* This class reads and writes the clubbers database file BKCustomers.dat.
+* The file stores only the committed field strings and the type tag of every {@link ClubberRecord},
+* it is written and read in blocks through a {@link FileChannel}.
+* Every block is compressed on its own with {@link Deflater}, the repeated names and the fixed formats
+* of the ids, phone numbers and personal numbers compress well, and a sparse index of the first id of every block
+* is written in the footer, so a single clubber is found by inflating one block of a {@link Mapped} file.
+* <pre>
+* header  : magic "BKCD" (int), version (short), flags (short), record count (int)
+* block   : record count (int), compressed length (int), payload length (int), compressed payload, CRC32 of the compressed payload (int)
+* record  : type ordinal (byte), then for every field of the type its UTF-8 length (unsigned short) and bytes
+* footer  : block count (int), then for every block its first id (UTF-8 length (unsigned short) and bytes) and file offset (long)
+* trailer : footer offset (long), magic (int)
+* </pre>
+* The flags tell whether the records were appended in ascending id order ({@link #SORTED}),
+* only then the sparse index can be searched, otherwise a lookup inflates the blocks one by one.
+* The record count of the header is written when the file is closed,
+* a file that was not closed properly is detected by a count mismatch when it is read.
+* Files of version 1, with uncompressed blocks of record count, payload length, payload and CRC32 and without a footer, are still read.
+* Files written by earlier versions with Java serialization are detected by {@link #isLegacy}
+* and read with {@link LegacyClubberReader}.
+*/
+public class ClubberFile
+{
+	public static final int MAGIC = 0x424B4344;
+	public static final short VERSION = 2;
+	public static final int HEADER_SIZE = 12;
+	//the records of the file are in ascending id order
+	public static final short SORTED = 1;
+	private static final int BLOCK_HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 12;
+	//uncompressed payload of a block, small enough that a lookup inflates little
+	private static final int BLOCK_SIZE = 4 * 1024;
+	//first two bytes of a Java serialization stream
+	private static final short STREAM_MAGIC = (short)0xACED;
+
+
+	/**
+	* This method checks whether the file was written by an earlier version using Java serialization.
+	*
+	* @param file the database file
+	* @return true if the file is a legacy serialized file otherwise false
+	* @throws IOException if the file can't be read
+	*/
+	public static boolean isLegacy(Path file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer magic = ByteBuffer.allocate(2);
+			while(magic.hasRemaining() && channel.read(magic) >= 0);
+			return magic.position() == 2 && magic.getShort(0) == STREAM_MAGIC;
+		}
+	}
+
+	/**
+	* This method writes all the records to the file, replacing its content.
+	* The records are written to a temporary file next to it that replaces the file once it is complete.
+	*
+	* @param file the database file
+	* @param records the records to write
+	* @return number of bytes written
+	* @throws IOException if writing fails, the file is then left as it was
+	*/
+	public static long write(Path file, Iterable<ClubberRecord> records) throws IOException
+	{
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		Writer writer = new Writer(temp);
+		try
+		{
+			for(ClubberRecord clubber : records)
+				writer.append(clubber);
+			writer.close();
+		}finally
+		{
+			writer.abort();
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return writer.getBytesWritten();
+	}
+
+	/**
+	* This method reads all the records of the file and passes them one by one to the consumer in file order.
+	*
+	* @param file the database file
+	* @param consumer receives every record read
+	* @return number of records read
+	* @throws IOException if the file can't be read, is not a clubbers database or is corrupted
+	*/
+	public static int read(Path file, Consumer<ClubberRecord> consumer) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header);
+			if(header.getInt() != MAGIC)
+				throw new IOException(file + " is not a clubbers database");
+			short version = header.getShort();
+			if(version != 1 && version != VERSION)
+				throw new IOException("Unsupported clubbers database version " + version);
+			boolean compressed = version == VERSION;
+			header.getShort();
+			int expected = header.getInt();
+
+			ByteBuffer blockHeader = ByteBuffer.allocate(compressed ? BLOCK_HEADER_SIZE : 8);
+			ByteBuffer stored = ByteBuffer.allocate(BLOCK_SIZE);
+			ByteBuffer payload = ByteBuffer.allocate(BLOCK_SIZE);
+			ByteBuffer checksum = ByteBuffer.allocate(4);
+			CRC32 crc = new CRC32();
+			Inflater inflater = new Inflater();
+			try
+			{
+				int count = 0;
+				while(count < expected)
+				{
+					blockHeader.clear();
+					readFully(channel, blockHeader);
+					int blockCount = blockHeader.getInt();
+					int length = blockHeader.getInt();
+					int rawLength = compressed ? blockHeader.getInt() : length;
+					if(blockCount <= 0 || length < 0 || rawLength < 0)
+						throw new IOException("Corrupted block header at record " + count);
+					if(stored.capacity() < length)
+						stored = ByteBuffer.allocate(length);
+					stored.clear().limit(length);
+					readFully(channel, stored);
+					checksum.clear();
+					readFully(channel, checksum);
+					crc.reset();
+					crc.update(stored.array(), 0, length);
+					if((int)crc.getValue() != checksum.getInt())
+						throw new IOException("Checksum mismatch in block starting at record " + count);
+					if(compressed)
+					{
+						if(payload.capacity() < rawLength)
+							payload = ByteBuffer.allocate(rawLength);
+						payload.clear().limit(rawLength);
+						inflate(inflater, stored, payload);
+					}else payload = stored;
+
+					for(int i = 0; i < blockCount; i++)
+						consumer.accept(decode(payload));
+					count += blockCount;
+				}
+				//the blocks end where the footer starts, or at the end of a file of version 1
+				long position = channel.position();
+				long end = channel.size();
+				if(compressed && end >= position + TRAILER_SIZE)
+				{
+					ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+					readFully(channel.position(end - TRAILER_SIZE), trailer);
+					end = trailer.getLong();
+				}
+				if(count != expected || position != end)
+					throw new IOException(String.format("Record count %d doesn't match the file content", expected));
+				return count;
+			}finally
+			{
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	* This method reads the record count from the header of the file.
+	*
+	* @param file the database file
+	* @return number of records in the file
+	* @throws IOException if the file can't be read or is not a clubbers database
+	*/
+	public static int count(Path file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header);
+			if(header.getInt() != MAGIC)
+				throw new IOException(file + " is not a clubbers database");
+			return header.getInt(HEADER_SIZE - 4);
+		}
+	}
+
+	/**
+	* This method reads all the records of the file into a list.
+	*
+	* @param file the database file
+	* @return the records in file order
+	* @throws IOException if the file can't be read, is not a clubbers database or is corrupted
+	*/
+	public static ArrayList<ClubberRecord> readAll(Path file) throws IOException
+	{
+		ArrayList<ClubberRecord> records = new ArrayList<>();
+		read(file, records::add);
+		return records;
+	}
+
+	/**
+	* This method encodes a record at the position of the buffer.
+	*
+	* @param clubber the record to encode
+	* @param buffer the target buffer
+	* @throws BufferOverflowException if the record doesn't fit the remaining space of the buffer
+	* @throws IOException if a field is longer than 65535 bytes
+	*/
+	public static void encode(ClubberRecord clubber, ByteBuffer buffer) throws IOException
+	{
+		buffer.put((byte)clubber.getType().ordinal());
+		for(int i = 0; i < clubber.getFieldCount(); i++)
+		{
+			byte [] bytes = clubber.get(i).getBytes(StandardCharsets.UTF_8);
+			if(bytes.length > 0xFFFF)
+				throw new IOException("Field too long in " + clubber.getId());
+			buffer.putShort((short)bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	/**
+	* This method returns the number of bytes {@link #encode} writes for a record.
+	*
+	* @param clubber the record
+	* @return the encoded size in bytes
+	*/
+	public static int encodedSize(ClubberRecord clubber)
+	{
+		int size = 1;
+		for(int i = 0; i < clubber.getFieldCount(); i++)
+			size += 2 + clubber.get(i).getBytes(StandardCharsets.UTF_8).length;
+		return size;
+	}
+
+	/**
+	* This method decodes the record at the position of the buffer.
+	*
+	* @param buffer the source buffer
+	* @return the decoded record
+	* @throws IOException if the type tag is unknown
+	*/
+	public static ClubberRecord decode(ByteBuffer buffer) throws IOException
+	{
+		int tag = buffer.get();
+		ClubberType [] types = ClubberType.values();
+		if(tag < 0 || tag >= types.length)
+			throw new IOException("Unknown clubber type " + tag);
+		ClubberType type = types[tag];
+		String [] fields = new String[type.getFieldCount()];
+		for(int i = 0; i < fields.length; i++)
+		{
+			int length = buffer.getShort() & 0xFFFF;
+			fields[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		}
+		return new ClubberRecord(type, fields);
+	}
+
+	/**
+	* This method reads from the channel until the buffer is full.
+	*
+	* @param channel source channel
+	* @param buffer target buffer, flipped for reading when the method returns
+	* @throws EOFException if the channel ends before the buffer is full
+	*/
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+			if(channel.read(buffer) < 0)
+				throw new EOFException("Unexpected end of clubbers database");
+		buffer.flip();
+	}
+
+
+	/**
+	* This method inflates a compressed block payload.
+	*
+	* @param inflater the inflater, reset by the method
+	* @param stored the compressed payload
+	* @param payload receives the payload, its limit is the payload length, flipped for reading when the method returns
+	* @throws IOException if the payload is corrupted or its length doesn't match
+	*/
+	private static void inflate(Inflater inflater, ByteBuffer stored, ByteBuffer payload) throws IOException
+	{
+		inflater.reset();
+		inflater.setInput(stored);
+		try
+		{
+			while(payload.hasRemaining() && !inflater.finished())
+				if(inflater.inflate(payload) == 0 && inflater.needsInput())
+					break;
+		}catch(DataFormatException e)
+		{
+			throw new IOException("Corrupted compressed block", e);
+		}
+		if(payload.hasRemaining() || !inflater.finished())
+			throw new IOException("Compressed block length doesn't match its payload");
+		payload.flip();
+	}
+
+	/**
+	* This method finds the record of a clubber id in the file without reading the whole file.
+	* A file of the current version is searched through its sparse index with {@link Mapped},
+	* files of version 1 and legacy serialized files have no index and are read until the id is found.
+	*
+	* @param file the database file
+	* @param id the clubber id
+	* @return the record of the id, or null if the file has none
+	* @throws IOException if the file can't be read, is not a clubbers database or is corrupted
+	*/
+	public static ClubberRecord find(Path file, String id) throws IOException
+	{
+		if(isLegacy(file))
+		{
+			for(ClubberRecord clubber : LegacyClubberReader.read(file))
+				if(clubber.getId().equals(id))
+					return clubber;
+			return null;
+		}
+		if(version(file) == VERSION)
+			try(Mapped mapped = new Mapped(file))
+			{
+				return mapped.get(id);
+			}
+		ClubberRecord [] found = new ClubberRecord[1];
+		read(file, clubber -> {
+			if(clubber.getId().equals(id))
+				found[0] = clubber;
+		});
+		return found[0];
+	}
+
+	/**
+	* @return the version of the file from its header
+	*/
+	private static short version(Path file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header);
+			if(header.getInt() != MAGIC)
+				throw new IOException(file + " is not a clubbers database");
+			return header.getShort();
+		}
+	}
+
+
+	/**
+	* This class writes a clubbers database file record by record,
+	* so the records don't have to be held in memory together.
+	* Records are collected in a block buffer that is compressed and written with its checksum when full,
+	* and the first id and file offset of every block are kept for the footer.
+	* Closing the writer writes the last block, the footer and the record count and flags of the header.
+	* A writer whose records could not all be appended is aborted instead, the file is deleted
+	* rather than completed into a valid file that lacks records:
+	* <pre>
+	* try
+	* {
+	*     ...append...
+	*     writer.close();
+	* }finally
+	* {
+	*     writer.abort();
+	* }
+	* </pre>
+	*/
+	public static class Writer implements Closeable
+	{
+		private final Path file;
+		private final FileChannel channel;
+		private final ByteBuffer block;
+		private final Deflater deflater;
+		private final CRC32 crc;
+		private byte [] compressed;
+		//first id and file offset of every written block
+		private final ArrayList<String> firstIds;
+		private long [] offsets;
+		private String lastId;
+		private boolean sorted;
+		private int blockCount;
+		private int count;
+		private long bytesWritten;
+		private boolean closed;
+		//the file was completed by close
+		private boolean finished;
+
+
+		/**
+		* Constructor - creates or truncates the file and writes its header.
+		*
+		* @param file the database file
+		* @throws IOException if the file can't be written
+		*/
+		public Writer(Path file) throws IOException
+		{
+			this.file = file;
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+			block = ByteBuffer.allocate(2 * BLOCK_SIZE);
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			crc = new CRC32();
+			compressed = new byte[BLOCK_SIZE];
+			firstIds = new ArrayList<>();
+			offsets = new long[16];
+			sorted = true;
+			writeFully(header());
+		}
+
+		/**
+		* This method appends a record to the file.
+		* Records appended in ascending id order make a file whose sparse index can be searched by {@link Mapped#get}.
+		*
+		* @param clubber the record to write
+		* @throws IOException if writing fails
+		*/
+		public void append(ClubberRecord clubber) throws IOException
+		{
+			int mark = block.position();
+			try
+			{
+				encode(clubber, block);
+			}catch(BufferOverflowException e)
+			{
+				block.position(mark);
+				if(blockCount == 0)
+					throw new IOException("Record too large for a block: " + clubber.getId());
+				flushBlock();
+				append(clubber);
+				return;
+			}
+			String id = clubber.getId();
+			if(blockCount == 0)
+			{
+				if(firstIds.size() == offsets.length)
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				firstIds.add(id);
+			}
+			if(lastId != null && id.compareTo(lastId) <= 0)
+				sorted = false;
+			lastId = id;
+			blockCount++;
+			count++;
+			if(block.position() >= BLOCK_SIZE)
+				flushBlock();
+		}
+
+		/**
+		* @return number of records appended
+		*/
+		public int getCount()
+		{
+			return count;
+		}
+
+		/**
+		* @return number of bytes written to the file so far
+		*/
+		public long getBytesWritten()
+		{
+			return bytesWritten;
+		}
+
+		/**
+		* This method writes the last block, the footer and the record count of the header,
+		* forces the file to disk and closes it.
+		*/
+		@Override
+		public void close() throws IOException
+		{
+			if(closed)
+				return;
+			closed = true;
+			try
+			{
+				flushBlock();
+				writeFooter();
+				channel.write(header(), 0);
+				channel.force(true);
+				channel.close();
+				finished = true;
+			}finally
+			{
+				deflater.end();
+				channel.close();
+			}
+		}
+
+		/**
+		* This method closes the file without writing the last block, the footer and the header, and deletes it.
+		* It does nothing once {@link #close} completed the file, a file whose close failed is deleted.
+		*/
+		public void abort()
+		{
+			if(finished)
+				return;
+			closed = true;
+			deflater.end();
+			try
+			{
+				channel.close();
+				Files.deleteIfExists(file);
+			}catch(IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		* @return the file header with the current record count and flags
+		*/
+		private ByteBuffer header()
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putShort(VERSION).putShort(sorted ? SORTED : 0).putInt(count).flip();
+			return header;
+		}
+
+		/**
+		* This method compresses the current block and writes it with its header and checksum.
+		*/
+		private void flushBlock() throws IOException
+		{
+			if(blockCount == 0)
+				return;
+			offsets[firstIds.size() - 1] = bytesWritten;
+			int rawLength = block.position();
+			deflater.reset();
+			deflater.setInput(block.array(), 0, rawLength);
+			deflater.finish();
+			int length = 0;
+			while(!deflater.finished())
+			{
+				if(length == compressed.length)
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			crc.reset();
+			crc.update(compressed, 0, length);
+			ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+			blockHeader.putInt(blockCount).putInt(length).putInt(rawLength).flip();
+			writeFully(blockHeader);
+			writeFully(ByteBuffer.wrap(compressed, 0, length));
+			ByteBuffer checksum = ByteBuffer.allocate(4);
+			checksum.putInt((int)crc.getValue()).flip();
+			writeFully(checksum);
+			block.clear();
+			blockCount = 0;
+		}
+
+		/**
+		* This method writes the sparse index of the blocks and the trailer that points to it.
+		*/
+		private void writeFooter() throws IOException
+		{
+			long footerOffset = bytesWritten;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream footer = new DataOutputStream(bytes);
+			footer.writeInt(firstIds.size());
+			for(int i = 0; i < firstIds.size(); i++)
+			{
+				byte [] id = firstIds.get(i).getBytes(StandardCharsets.UTF_8);
+				footer.writeShort(id.length);
+				footer.write(id);
+				footer.writeLong(offsets[i]);
+			}
+			footer.writeLong(footerOffset);
+			footer.writeInt(MAGIC);
+			writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+
+		/**
+		* This method writes the whole buffer to the channel.
+		*
+		* @param buffer the bytes to write
+		*/
+		private void writeFully(ByteBuffer buffer) throws IOException
+		{
+			while(buffer.hasRemaining())
+				bytesWritten += channel.write(buffer);
+		}
+	}
+
+
+	/**
+	* This class looks clubbers up by id in a file that is mapped into memory, without reading the whole file.
+	* Opening it reads only the header and the sparse index of the footer,
+	* a lookup searches the index for the block whose id range holds the id, inflates that block alone and scans its records,
+	* comparing the encoded ids before a record is decoded.
+	* The pages of the file are read by the operating system when they are first touched and stay cached between lookups.
+	* Lookups are synchronized, they share one {@link Inflater} and one payload buffer.
+	*/
+	public static class Mapped implements Closeable
+	{
+		private final FileChannel channel;
+		private final MappedByteBuffer map;
+		private final boolean sorted;
+		private final int count;
+		private final String [] firstIds;
+		//offset of every block, and of the footer after the last block
+		private final long [] offsets;
+		private final Inflater inflater;
+		private final CRC32 crc;
+		private ByteBuffer payload;
+
+
+		/**
+		* Constructor - maps the file and reads its sparse index.
+		*
+		* @param file a database file of the current version
+		* @throws IOException if the file can't be mapped, is not a clubbers database of the current version or is corrupted
+		*/
+		public Mapped(Path file) throws IOException
+		{
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			try
+			{
+				long size = channel.size();
+				if(size > Integer.MAX_VALUE)
+					throw new IOException(file + " is too large to map");
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				if(size < HEADER_SIZE + TRAILER_SIZE || map.getInt(0) != MAGIC || map.getInt((int)size - 4) != MAGIC)
+					throw new IOException(file + " is not a clubbers database with a key index");
+				if(map.getShort(4) != VERSION)
+					throw new IOException(file + " has no key index, it was written by an earlier version");
+				sorted = (map.getShort(6) & SORTED) != 0;
+				count = map.getInt(8);
+				long footer = map.getLong((int)size - TRAILER_SIZE);
+				if(footer < HEADER_SIZE || footer > size - TRAILER_SIZE)
+					throw new IOException("Corrupted footer in " + file);
+				ByteBuffer index = map.duplicate().position((int)footer);
+				int blocks = index.getInt();
+				firstIds = new String[blocks];
+				offsets = new long[blocks + 1];
+				for(int i = 0; i < blocks; i++)
+				{
+					byte [] id = new byte[index.getShort() & 0xFFFF];
+					index.get(id);
+					firstIds[i] = new String(id, StandardCharsets.UTF_8);
+					offsets[i] = index.getLong();
+				}
+				offsets[blocks] = footer;
+			}catch(BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e)
+			{
+				channel.close();
+				throw new IOException("Corrupted footer in " + file, e);
+			}catch(IOException e)
+			{
+				channel.close();
+				throw e;
+			}
+			inflater = new Inflater();
+			crc = new CRC32();
+			payload = ByteBuffer.allocate(BLOCK_SIZE * 2);
+		}
+
+		/**
+		* @return number of records in the file
+		*/
+		public int size()
+		{
+			return count;
+		}
+
+		/**
+		* @return number of blocks in the file
+		*/
+		public int getBlockCount()
+		{
+			return firstIds.length;
+		}
+
+		/**
+		* This method returns the record of a clubber id.
+		* In a sorted file only the one block that may hold the id is inflated,
+		* in a file that isn't sorted the blocks are inflated one by one until the id is found.
+		*
+		* @param id the clubber id
+		* @return the record of the id, or null if the file has none
+		* @throws IOException if the block is corrupted
+		*/
+		public synchronized ClubberRecord get(String id) throws IOException
+		{
+			byte [] key = id.getBytes(StandardCharsets.UTF_8);
+			if(!sorted)
+			{
+				for(int block = 0; block < firstIds.length; block++)
+				{
+					ClubberRecord clubber = find(block, key);
+					if(clubber != null)
+						return clubber;
+				}
+				return null;
+			}
+			//the last block whose first id is not after the id
+			int low = 0;
+			int high = firstIds.length - 1;
+			while(low <= high)
+			{
+				int middle = (low + high) >>> 1;
+				if(firstIds[middle].compareTo(id) <= 0)
+					low = middle + 1;
+				else high = middle - 1;
+			}
+			return high < 0 ? null : find(high, key);
+		}
+
+		/**
+		* This method inflates a block and returns the record of the encoded id in it.
+		*/
+		private ClubberRecord find(int block, byte [] key) throws IOException
+		{
+			int offset = (int)offsets[block];
+			int blockCount = map.getInt(offset);
+			int length = map.getInt(offset + 4);
+			int rawLength = map.getInt(offset + 8);
+			if(blockCount <= 0 || length < 0 || rawLength < 0 || offset + BLOCK_HEADER_SIZE + length + 4 > offsets[block + 1])
+				throw new IOException("Corrupted block header of block " + block);
+			ByteBuffer stored = map.slice(offset + BLOCK_HEADER_SIZE, length);
+			crc.reset();
+			crc.update(stored.duplicate());
+			if((int)crc.getValue() != map.getInt(offset + BLOCK_HEADER_SIZE + length))
+				throw new IOException("Checksum mismatch in block " + block);
+			if(payload.capacity() < rawLength)
+				payload = ByteBuffer.allocate(rawLength);
+			payload.clear().limit(rawLength);
+			inflate(inflater, stored, payload);
+
+			ClubberType [] types = ClubberType.values();
+			for(int i = 0; i < blockCount; i++)
+			{
+				int start = payload.position();
+				int tag = payload.get();
+				if(tag < 0 || tag >= types.length)
+					throw new IOException("Unknown clubber type " + tag);
+				int idLength = payload.getShort(start + 1) & 0xFFFF;
+				if(idLength == key.length && Arrays.equals(payload.array(), start + 3, start + 3 + idLength, key, 0, idLength))
+					return decode(payload.position(start));
+				for(int field = 0; field < types[tag].getFieldCount(); field++)
+					payload.position(payload.position() + 2 + (payload.getShort() & 0xFFFF));
+			}
+			return null;
+		}
+
+		/**
+		* This method closes the file, the mapping is released when it is no longer referenced.
+		*/
+		@Override
+		public synchronized void close() throws IOException
+		{
+			inflater.end();
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.SplittableRandom;
+import java.util.function.LongConsumer;
+
+
+/**
+* This class generates synthetic clubbers for sizing and testing, deterministically from a seed.
+* Clubber number i depends only on the seed and i, so any range of a data set can be generated again, in any order or in parallel.
+* <p>
+* The clubbers are valid for the rules of {@link ClubberValidator}:
+* <ul>
+* <li>ids d-ddddddd|c are unique for the first 900,000,000 clubbers, the index is spread over the digits so ids are not sequential</li>
+* <li>names and surnames are drawn from lists of common names with a skew towards the first ones, or are made up of syllables,
+* some surnames are joined by - or '</li>
+* <li>phones are mostly Israeli mobile numbers, +(972)5x-ddddddd, with some landlines and foreign numbers</li>
+* <li>soldier personal numbers are unique for the first 9,000,000 clubbers, a student id only has 90,000 distinct digit keys,
+* so student keys repeat in large data sets like they do in the real format</li>
+* </ul>
+* A configurable share of the clubbers is deliberately invalid: exactly one field of such a clubber is broken
+* the way a typing mistake breaks it, so an import rejects it and an editor marks the field.
+* <p>
+* {@link #write} streams a range of clubbers into a BKCustomers.dat snapshot with {@link ClubberFile.Writer},
+* or into a CSV file for {@link ClubberImporter}, without keeping them in memory.
+*/
+public class ClubberGenerator
+{
+	public static final int DEFAULT_PERSON_PERCENT = 60;
+	public static final int DEFAULT_SOLDIER_PERCENT = 25;
+	public static final long MAX_UNIQUE = 900000000L;
+	private static final long ID_DIGITS = 100000000L;
+	//odd and not a multiple of 5, so multiplying by it permutes the numbers below a power of 10
+	private static final long SPREAD = 48271L * 48271L;
+	private static final String [] NAMES = {"Noa", "David", "Tamar", "Yosef", "Maya", "Ariel", "Shira", "Daniel", "Yael", "Moshe",
+		"Michal", "Itai", "Avigail", "Omer", "Rivka", "Eitan", "Lior", "Yonatan", "Hila", "Avi", "Dana", "Amit", "Sarah", "Ido",
+		"Ruth", "Nadav", "Chen", "Guy", "Efrat", "Uri", "Liat", "Ronen", "Adi", "Gal", "Miriam", "Yoav", "Keren", "Tal", "Ella", "Ben"};
+	private static final String [] SURNAMES = {"Cohen", "Levi", "Mizrahi", "Peretz", "Biton", "Dahan", "Avraham", "Friedman",
+		"Azulay", "Malka", "Katz", "Yosef", "David", "Amar", "Ohayon", "Hadad", "Gabay", "Ben-David", "Shapira", "Ben-Haim",
+		"Levy", "Vaknin", "Ashkenazi", "Elbaz", "Golan", "Segal", "Sasson", "Ben-Ami", "Edri", "Almog", "O'Neil", "Bar-On",
+		"Weiss", "Klein", "Rosen", "Stern", "Carmeli", "Shalom", "Nahum", "Tzur"};
+	private static final String [] SYLLABLES = {"ka", "lo", "mi", "ra", "ten", "vo", "sha", "el", "dan", "ni", "ro", "bar",
+		"on", "gal", "li", "tal", "yo", "av", "ne", "tz"};
+
+	private final long seed;
+	private final int personPercent;
+	private final int soldierPercent;
+	private final double invalidRate;
+
+
+	/**
+	* Constructor with the seed, generates only valid clubbers of the default type mix,
+	* {@value #DEFAULT_PERSON_PERCENT}% persons, {@value #DEFAULT_SOLDIER_PERCENT}% soldiers and the rest students.
+	*
+	* @param seed the seed of the data set
+	*/
+	public ClubberGenerator(long seed)
+	{
+		this(seed, DEFAULT_PERSON_PERCENT, DEFAULT_SOLDIER_PERCENT, 0);
+	}
+
+	/**
+	* Constructor with the seed, the type mix and the share of invalid clubbers.
+	*
+	* @param seed the seed of the data set
+	* @param personPercent percent of persons
+	* @param soldierPercent percent of soldiers, the rest are students
+	* @param invalidRate share of deliberately invalid clubbers, between 0 and 1
+	* @throws IllegalArgumentException if the percents or the rate are out of range
+	*/
+	public ClubberGenerator(long seed, int personPercent, int soldierPercent, double invalidRate)
+	{
+		if(personPercent < 0 || soldierPercent < 0 || personPercent + soldierPercent > 100 || invalidRate < 0 || invalidRate > 1)
+			throw new IllegalArgumentException("the type percents must add up to at most 100 and the invalid rate must be between 0 and 1");
+		this.seed = seed;
+		this.personPercent = personPercent;
+		this.soldierPercent = soldierPercent;
+		this.invalidRate = invalidRate;
+	}
+
+	/**
+	* This method generates a clubber of the type mix.
+	*
+	* @param index number of the clubber in the data set
+	* @return the clubber
+	*/
+	public ClubberRecord generate(long index)
+	{
+		SplittableRandom random = random(index);
+		int percent = random.nextInt(100);
+		ClubberType type = percent < personPercent ? ClubberType.PERSON
+			: percent < personPercent + soldierPercent ? ClubberType.SOLDIER : ClubberType.STUDENT;
+		return generate(type, index, random);
+	}
+
+	/**
+	* This method generates a clubber of a given type.
+	*
+	* @param type the type
+	* @param index number of the clubber in the data set
+	* @return the clubber
+	*/
+	public ClubberRecord generate(ClubberType type, long index)
+	{
+		return generate(type, index, random(index));
+	}
+
+	/**
+	* This method generates a valid phone number, for edits of generated clubbers.
+	*
+	* @param random the source of the digits
+	* @return the phone number
+	*/
+	public static String tel(SplittableRandom random)
+	{
+		int kind = random.nextInt(100);
+		int country = kind < 95 ? 972 : 1 + random.nextInt(999);
+		int area = kind < 80 ? 50 + random.nextInt(9) : 2 + random.nextInt(8);
+		return "+(" + country + ")" + area + "-" + (1000000 + random.nextInt(9000000));
+	}
+
+	/**
+	* This method returns the id of a clubber.
+	*
+	* @param index number of the clubber, ids repeat after {@value #MAX_UNIQUE} clubbers
+	* @return the id
+	*/
+	public static String id(long index)
+	{
+		long unique = Math.floorMod(index, MAX_UNIQUE);
+		long digits = Math.floorMod(unique % ID_DIGITS * SPREAD, ID_DIGITS);
+		char [] id = new char[11];
+		id[0] = (char)('0' + digits / 10000000);
+		id[1] = '-';
+		for(int i = 8; i >= 2; i--, digits /= 10)
+			id[i] = (char)('0' + digits % 10);
+		id[9] = '|';
+		id[10] = (char)('1' + unique / ID_DIGITS);
+		return new String(id);
+	}
+
+	/**
+	* This method streams a range of clubbers into a file,
+	* a BKCustomers.dat snapshot, or a CSV file with a header if the name ends with .csv.
+	* The clubbers are written to a temporary file next to it that replaces the file once it is complete.
+	*
+	* @param file the file to create or replace
+	* @param first number of the first clubber
+	* @param count number of clubbers
+	* @param progress receives the number of clubbers written so far, every 65536 clubbers
+	* @return size of the file in bytes
+	* @throws IOException if the file can't be written, it is then left as it was
+	*/
+	public long write(Path file, long first, long count, LongConsumer progress) throws IOException
+	{
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		if(file.getFileName().toString().endsWith(".csv"))
+		{
+			try(BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+			{
+				out.write("type,id,name,surname,tel,extra");
+				out.newLine();
+				for(long i = 0; i < count; i++)
+				{
+					out.write(ClubberImporter.toCsv(generate(first + i)));
+					out.newLine();
+					if((i + 1 & 0xffff) == 0)
+						progress.accept(i + 1);
+				}
+			}catch(IOException | RuntimeException e)
+			{
+				Files.deleteIfExists(temp);
+				throw e;
+			}
+		}else
+		{
+			ClubberFile.Writer writer = new ClubberFile.Writer(temp);
+			try
+			{
+				for(long i = 0; i < count; i++)
+				{
+					writer.append(generate(first + i));
+					if((i + 1 & 0xffff) == 0)
+						progress.accept(i + 1);
+				}
+				writer.close();
+			}finally
+			{
+				writer.abort();
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		progress.accept(count);
+		return Files.size(file);
+	}
+
+	/**
+	* @return the random source of a clubber, it depends only on the seed and the index
+	*/
+	private SplittableRandom random(long index)
+	{
+		return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+	}
+
+	private ClubberRecord generate(ClubberType type, long index, SplittableRandom random)
+	{
+		String [] fields = new String[type.getFieldCount()];
+		fields[ClubberRecord.ID] = id(index);
+		fields[ClubberRecord.NAME] = random.nextInt(4) > 0 ? skewed(NAMES, random) : word(random, 1 + random.nextInt(2));
+		fields[ClubberRecord.SURNAME] = random.nextInt(4) > 0 ? skewed(SURNAMES, random)
+			: random.nextInt(5) == 0 ? word(random, 2) + "-" + word(random, 1) : word(random, 2 + random.nextInt(2));
+		fields[ClubberRecord.TEL] = tel(random);
+		if(type == ClubberType.SOLDIER)
+			fields[ClubberRecord.EXTRA] = "ROC".charAt(random.nextInt(3)) + "/" + (1000000 + Math.floorMod(index * SPREAD, 9000000L));
+		else if(type == ClubberType.STUDENT)
+			fields[ClubberRecord.EXTRA] = new String(new char[]{letter(random), letter(random), letter(random), '/'})
+				+ (10000 + Math.floorMod(index * SPREAD, 90000L));
+		else if(fields.length > ClubberRecord.EXTRA)
+		{
+			ClubberField extra = type.getField(ClubberRecord.EXTRA);
+			fields[ClubberRecord.EXTRA] = extra.unpack((int)Math.floorMod(index * SPREAD, extra.getValueCount()));
+		}
+		if(random.nextDouble() < invalidRate)
+		{
+			int field = random.nextInt(fields.length);
+			fields[field] = corrupt(field, fields[field], random);
+		}
+		return new ClubberRecord(type, fields);
+	}
+
+	/**
+	* This method breaks a valid field the way a typing mistake would.
+	*
+	* @param field index of the field in the record
+	* @param value the valid value
+	* @param random chooses the mistake
+	* @return the invalid value
+	*/
+	private static String corrupt(int field, String value, SplittableRandom random)
+	{
+		boolean first = random.nextBoolean();
+		switch(field)
+		{
+			case ClubberRecord.ID:
+				//a missing dash or a check digit 0
+				return first ? value.replace("-", "") : value.substring(0, value.length() - 1) + "0";
+			case ClubberRecord.NAME:
+				//not capitalized or a digit typed in
+				return first ? value.toLowerCase() : value + "1";
+			case ClubberRecord.SURNAME:
+				//not capitalized or a doubled separator
+				return first ? value.toLowerCase() : value + "--";
+			case ClubberRecord.TEL:
+				//a missing dash or a missing digit
+				return first ? value.replace("-", "") : value.substring(0, value.length() - 1);
+			default:
+				//a lower case letter or a missing slash
+				return first ? value.toLowerCase() : value.replace("/", "");
+		}
+	}
+
+	/**
+	* @return an element of the list, the first elements are the most likely
+	*/
+	private static String skewed(String [] names, SplittableRandom random)
+	{
+		double u = random.nextDouble();
+		return names[(int)(u * u * names.length)];
+	}
+
+	private static String word(SplittableRandom random, int syllables)
+	{
+		StringBuilder word = new StringBuilder(8);
+		for(int i = 0; i < syllables; i++)
+			word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+		return word.toString();
+	}
+
+	private static char letter(SplittableRandom random)
+	{
+		return (char)('A' + random.nextInt(26));
+	}
+}
@@ -0,0 +1,384 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+* This class keeps the committed revisions of the clubbers, so the data a clubber had at any time of the retained past
+* can be shown and restored, such as when a clubber disputes at the door what was registered last month.
+* <p>
+* The revisions of a clubber are a list linked from the newest, a new revision is a node in front of the list
+* that points to the revision it replaced, so older revisions are never copied.
+* The records of the revisions share the strings of the fields that didn't change (see {@link ClubberRecord#shareFields}),
+* and the newest revision of a clubber is the very record of the {@link ClubberRepository}.
+* Only clubbers that changed while the history was kept have a list, the first revision of a clubber
+* that changes for the first time is its record before the change, with time 0.
+* <p>
+* The memory is bounded by the retention: at most maxRevisions revisions of a clubber are kept,
+* and revisions that were replaced before the retention period are dropped, except the one that was current at its start,
+* so the state at any time inside the period is known. The list of a clubber that didn't change during the period is dropped
+* when the history is written, its state is the record of the repository.
+* <p>
+* The history is written to BKCustomers.history with every snapshot by {@link #write}, as {@link ClubberJournal} entries with their times,
+* and it is read back by {@link #read} before the journal entries committed after the snapshot are added to it.
+* The times of the revisions always increase, so a journal entry that is already in the history is recognized by its time.
+*/
+public class ClubberHistory
+{
+	public static final int DEFAULT_MAX_REVISIONS = 100;
+	public static final int DEFAULT_RETENTION_DAYS = 400;
+
+	private final int maxRevisions;
+	private final long retentionMillis;
+	//id of every clubber with a history to its newest revision, the id of a removed clubber to its removal
+	private final HashMap<String, Revision> heads;
+	private long lastTime;
+
+
+	/**
+	* This class is one committed revision of a clubber, or its removal.
+	*/
+	public static final class Revision
+	{
+		private final long time;
+		private final ClubberRecord record;
+		private final boolean removed;
+		//the revision this one replaced, cut when it leaves the retention, guarded by the history
+		private Revision previous;
+
+		private Revision(long time, ClubberRecord record, boolean removed, Revision previous)
+		{
+			this.time = time;
+			this.record = record;
+			this.removed = removed;
+			this.previous = previous;
+		}
+
+		/**
+		* @return commit time in milliseconds, 0 for the record a clubber had before its history was kept
+		*/
+		public long getTime()
+		{
+			return time;
+		}
+
+		/**
+		* @return the committed record, for a removal the record that was removed
+		*/
+		public ClubberRecord getRecord()
+		{
+			return record;
+		}
+
+		/**
+		* @return true if the clubber was removed by this revision
+		*/
+		public boolean isRemoved()
+		{
+			return removed;
+		}
+
+		@Override
+		public String toString()
+		{
+			return (removed ? "removed " : "") + record;
+		}
+	}
+
+
+	/**
+	* Parameterless constructor - creates an empty history, the retention is read from the clubbers.history.revisions
+	* and clubbers.history.days system properties, {@value #DEFAULT_MAX_REVISIONS} revisions
+	* and {@value #DEFAULT_RETENTION_DAYS} days by default.
+	*/
+	public ClubberHistory()
+	{
+		this(Integer.getInteger("clubbers.history.revisions", DEFAULT_MAX_REVISIONS),
+			Integer.getInteger("clubbers.history.days", DEFAULT_RETENTION_DAYS));
+	}
+
+	/**
+	* Constructor with the retention.
+	*
+	* @param maxRevisions maximal number of revisions kept of a clubber, at least 1
+	* @param retentionDays number of days revisions are kept after they were replaced
+	*/
+	public ClubberHistory(int maxRevisions, int retentionDays)
+	{
+		if(maxRevisions < 1 || retentionDays < 0)
+			throw new IllegalArgumentException("Invalid history retention " + maxRevisions + " revisions, " + retentionDays + " days");
+		this.maxRevisions = maxRevisions;
+		retentionMillis = retentionDays * 86400000L;
+		heads = new HashMap<>();
+	}
+
+	/**
+	* This method returns the time of a commit made now, it is journaled with the commit and then passed to {@link #store} or {@link #remove}.
+	*
+	* @return the current time, later than the time of every revision before it
+	*/
+	public synchronized long nextTime()
+	{
+		lastTime = Math.max(System.currentTimeMillis(), lastTime + 1);
+		return lastTime;
+	}
+
+	/**
+	* This method adds the revision of a commit, made now or read from a file.
+	* A commit that is already in the history, replayed from the journal after the history file was written, is ignored.
+	* Commits of older journals have no time, they are added with time 0 in the order they are read.
+	*
+	* @param time commit time in milliseconds
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the committed record
+	*/
+	public synchronized void store(long time, ClubberRecord old, ClubberRecord updated)
+	{
+		Revision current = heads.get(updated.getId());
+		if(time > 0 && current != null && current.time >= time)
+			return;
+		lastTime = Math.max(lastTime, time);
+		Revision previous = old == null ? current : heads.get(old.getId());
+		if(old != null)
+		{
+			if(previous == null || previous.removed)
+				previous = new Revision(0, old, false, null);
+			if(!old.getId().equals(updated.getId()))
+				heads.remove(old.getId());
+		}
+		Revision head = new Revision(time, updated, false, previous);
+		heads.put(updated.getId(), head);
+		trim(head, cutoff());
+	}
+
+	/**
+	* This method adds the removal of a clubber, made now or read from a file, a removal already in the history is ignored.
+	*
+	* @param time removal time in milliseconds, 0 for removals of older journals
+	* @param removed the record of the removed clubber
+	*/
+	public synchronized void remove(long time, ClubberRecord removed)
+	{
+		Revision current = heads.get(removed.getId());
+		if(time > 0 && current != null && current.time >= time)
+			return;
+		lastTime = Math.max(lastTime, time);
+		if(current == null || current.removed)
+			current = new Revision(0, removed, false, current);
+		Revision head = new Revision(time, removed, true, current);
+		heads.put(removed.getId(), head);
+		trim(head, cutoff());
+	}
+
+	/**
+	* This method returns the kept revisions of a clubber.
+	*
+	* @param id the current id of the clubber, or the id it had when it was removed
+	* @return the revisions from the newest, empty if the clubber didn't change while the history was kept
+	*/
+	public synchronized List<Revision> getRevisions(String id)
+	{
+		ArrayList<Revision> revisions = new ArrayList<>();
+		for(Revision revision = heads.get(id); revision != null; revision = revision.previous)
+			revisions.add(revision);
+		return revisions;
+	}
+
+	/**
+	* This method returns the revision of a clubber that was current at a time.
+	*
+	* @param id the current id of the clubber, or the id it had when it was removed
+	* @param time time in milliseconds
+	* @return the newest revision committed at or before the time, null if the clubber has no history
+	* or it was created after the time or the time is before its kept revisions
+	*/
+	public synchronized Revision getAt(String id, long time)
+	{
+		Revision revision = heads.get(id);
+		while(revision != null && revision.time > time)
+			revision = revision.previous;
+		return revision;
+	}
+
+	/**
+	* @param id a clubber id
+	* @return true if the clubber has kept revisions
+	*/
+	public synchronized boolean contains(String id)
+	{
+		return heads.containsKey(id);
+	}
+
+	/**
+	* @return number of clubbers with kept revisions
+	*/
+	public synchronized int size()
+	{
+		return heads.size();
+	}
+
+	/**
+	* @return number of kept revisions of all the clubbers
+	*/
+	public synchronized long getRevisionCount()
+	{
+		long count = 0;
+		for(Revision head : heads.values())
+			for(Revision revision = head; revision != null; revision = revision.previous)
+				count++;
+		return count;
+	}
+
+	/**
+	* This method replaces the newest revisions that are equal to the records of the repository by those records,
+	* so a history read from its file doesn't hold the current clubbers twice.
+	*
+	* @param repository the loaded repository
+	*/
+	public synchronized void attach(ClubberRepository repository)
+	{
+		for(Map.Entry<String, Revision> entry : heads.entrySet())
+		{
+			Revision head = entry.getValue();
+			ClubberRecord live = repository.getById(entry.getKey());
+			if(!head.removed && live != null && live != head.record && same(live, head.record))
+				entry.setValue(new Revision(head.time, live, false, head.previous));
+		}
+	}
+
+	/**
+	* This method reads a history file written by {@link #write} into the history.
+	*
+	* @param file the history file
+	* @return number of revisions read
+	* @throws IOException if the file can't be read
+	*/
+	public int read(Path file) throws IOException
+	{
+		return ClubberJournal.replay(file, new ClubberJournal.Replayer() {
+			@Override
+			public void store(long time, String oldId, ClubberRecord updated)
+			{
+				ClubberRecord old = current(oldId);
+				updated.shareFields(old != null ? old : current(updated.getId()));
+				ClubberHistory.this.store(time, old, updated);
+			}
+
+			@Override
+			public void remove(long time, String id)
+			{
+				ClubberRecord old = current(id);
+				if(old != null)
+					ClubberHistory.this.remove(time, old);
+			}
+		});
+	}
+
+	/**
+	* This method writes the kept revisions to a temporary file that is renamed over the history file.
+	* The retention is applied to all the clubbers first, and clubbers without revisions inside the retention period are dropped.
+	* The revisions are collected while the history is locked and written after, so commits don't wait for the file.
+	*
+	* @param file the history file
+	* @return number of revisions written
+	* @throws IOException if writing fails, the previous file is then left intact
+	*/
+	public long write(Path file) throws IOException
+	{
+		ArrayList<Revision[]> clubbers = new ArrayList<>();
+		synchronized(this)
+		{
+			long cutoff = cutoff();
+			for(Iterator<Revision> iterator = heads.values().iterator(); iterator.hasNext();)
+			{
+				Revision head = iterator.next();
+				trim(head, cutoff);
+				if(head.previous == null && head.time < cutoff)
+				{
+					iterator.remove();
+					continue;
+				}
+				ArrayList<Revision> revisions = new ArrayList<>();
+				for(Revision revision = head; revision != null; revision = revision.previous)
+					revisions.add(revision);
+				Collections.reverse(revisions);
+				clubbers.add(revisions.toArray(new Revision[0]));
+			}
+		}
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		long count = 0;
+		try(FileOutputStream stream = new FileOutputStream(temp.toFile());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream)))
+		{
+			for(Revision [] revisions : clubbers)
+			{
+				String oldId = "";
+				for(Revision revision : revisions)
+				{
+					if(revision.removed)
+					{
+						ClubberJournal.writeRemove(out, revision.time, revision.record.getId());
+						oldId = "";
+					}else
+					{
+						ClubberJournal.writeStore(out, revision.time, oldId, revision.record);
+						oldId = revision.record.getId();
+					}
+					count++;
+				}
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+
+	/**
+	* @return the record of the newest revision of the id, null if there is none or the clubber was removed
+	*/
+	private synchronized ClubberRecord current(String id)
+	{
+		Revision head = heads.get(id);
+		return head == null || head.removed ? null : head.record;
+	}
+
+	/**
+	* @return the start of the retention period
+	*/
+	private long cutoff()
+	{
+		return System.currentTimeMillis() - retentionMillis;
+	}
+
+	/**
+	* This method drops the revisions of a clubber that are out of the retention.
+	* A revision committed before the start of the period was current at its start, so the revisions older than it are dropped.
+	*/
+	private void trim(Revision head, long cutoff)
+	{
+		Revision revision = head;
+		for(int kept = 1; revision.previous != null; kept++)
+		{
+			if(kept == maxRevisions || revision.time < cutoff)
+			{
+				revision.previous = null;
+				return;
+			}
+			revision = revision.previous;
+		}
+	}
+
+	/**
+	* @return true if the records have the same type and field values
+	*/
+	private static boolean same(ClubberRecord first, ClubberRecord second)
+	{
+		if(first.getType() != second.getType())
+			return false;
+		for(int i = 0; i < first.getFieldCount(); i++)
+			if(!first.get(i).equals(second.get(i)))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,348 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+
+/**
+* This class imports clubbers in bulk from a CSV file, one clubber per line:
+* <pre>
+* type,id,name,surname,tel[,personal number or student id]
+* Person,0-1234567|1,Dana,Levi,+(972)52-1234567
+* Soldier,0-7654321|2,Avi,Cohen,+(972)54-7654321,R/1234567
+* </pre>
+* The type is the title of the {@link ClubberType}, empty lines, lines starting with # and a header line starting with type are skipped.
+* <p>
+* The file is streamed in batches of {@link #BATCH} lines, so only one batch is held in memory whatever the size of the file.
+* The lines of a batch are parsed and validated with {@link ClubberValidator} in parallel on all the cores,
+* then the valid clubbers are added to the {@link ClubberRepository} with {@link ClubberRepository#addAllAbsent},
+* which rejects a clubber whose id or secondary key already belongs to another clubber,
+* the check {@link ClubberEngine#isExists} makes for a single clubber, including the clubbers imported earlier from the same file.
+* Every added clubber is appended to the journal of the {@link ClubberStorage}.
+* Rejected lines are written to a rejects file with their line number and the reason.
+*/
+public class ClubberImporter
+{
+	public static final int BATCH = 8192;
+	private static final String HEADER = "type,";
+
+	private final ClubberRepository repository;
+	private final ClubberStorage storage;
+
+
+	/**
+	* Constructor with the repository to import into and the storage that journals the imported clubbers.
+	*
+	* @param repository the clubbers repository
+	* @param storage the loaded storage of the repository
+	*/
+	public ClubberImporter(ClubberRepository repository, ClubberStorage storage)
+	{
+		this.repository = repository;
+		this.storage = storage;
+	}
+
+	/**
+	* This method imports a CSV file, writing the rejected lines next to it with the .rejects.csv extension.
+	*
+	* @param csv the CSV file
+	* @param progress receives the number of lines processed after every batch
+	* @return the import report
+	* @throws IOException if a file can't be read or written or the journal failed,
+	* a {@link SyncFailedException} if the imported clubbers are stored but may not be on disk
+	*/
+	public Report importFile(Path csv, LongConsumer progress) throws IOException
+	{
+		return importFile(csv, rejectsFile(csv), progress);
+	}
+
+	/**
+	* This method imports a CSV file.
+	*
+	* @param csv the CSV file
+	* @param rejects the file the rejected lines are written to, as line number, reason and the line itself
+	* @param progress receives the number of lines processed after every batch
+	* @return the import report
+	* @throws IOException if a file can't be read or written or the journal failed,
+	* a {@link SyncFailedException} if the imported clubbers are stored but may not be on disk
+	*/
+	public Report importFile(Path csv, Path rejects, LongConsumer progress) throws IOException
+	{
+		Report report = new Report(rejects);
+		long start = System.nanoTime();
+		try(BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+			BufferedWriter out = Files.newBufferedWriter(rejects, StandardCharsets.UTF_8))
+		{
+			out.write("line,reason,row");
+			out.newLine();
+			String [] lines = new String[BATCH];
+			Row [] rows = new Row[BATCH];
+			int count;
+			while((count = readBatch(in, lines)) > 0)
+			{
+				long first = report.lines + 1;
+				IntStream.range(0, count).parallel().forEach(i -> rows[i] = parse(lines[i]));
+				load(rows, lines, count, first, out, report);
+				report.lines += count;
+				Arrays.fill(lines, null);
+				Arrays.fill(rows, null);
+				progress.accept(report.lines);
+			}
+		}
+		report.nanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/**
+	* @param csv the CSV file
+	* @return the default rejects file of the CSV file
+	*/
+	public static Path rejectsFile(Path csv)
+	{
+		return csv.resolveSibling(csv.getFileName().toString().replaceFirst("\\.csv$", "") + ".rejects.csv");
+	}
+
+	/**
+	* This method formats a record as a line of the import file.
+	*
+	* @param clubber the record
+	* @return the CSV line, without a line separator
+	*/
+	public static String toCsv(ClubberRecord clubber)
+	{
+		StringBuilder line = new StringBuilder(clubber.getType().getTitle());
+		for(int i = 0; i < clubber.getFieldCount(); i++)
+			line.append(',').append(clubber.get(i));
+		return line.toString();
+	}
+
+	/**
+	* This method parses and validates one line.
+	*
+	* @param line the CSV line
+	* @return the parsed line, or null if the line is skipped
+	*/
+	static Row parse(String line)
+	{
+		String trimmed = line.trim();
+		if(trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.regionMatches(true, 0, HEADER, 0, HEADER.length()))
+			return null;
+
+		ArrayList<String> columns = new ArrayList<>(6);
+		int from = 0;
+		while(true)
+		{
+			int comma = trimmed.indexOf(',', from);
+			columns.add(unquote(comma < 0 ? trimmed.substring(from) : trimmed.substring(from, comma)));
+			if(comma < 0)
+				break;
+			from = comma + 1;
+		}
+		ClubberType type = ClubberType.forTitle(columns.get(0));
+		if(type == null)
+			return new Row(null, "unknown type " + columns.get(0));
+		//trailing empty columns are ignored
+		while(columns.size() > type.getFieldCount() + 1 && columns.get(columns.size() - 1).isEmpty())
+			columns.remove(columns.size() - 1);
+		if(columns.size() != type.getFieldCount() + 1)
+			return new Row(null, String.format("%s needs %d fields", type.getTitle(), type.getFieldCount()));
+
+		ClubberRecord clubber = new ClubberRecord(type, columns.subList(1, columns.size()).toArray(new String[0]));
+		int invalid = ClubberValidator.validate(clubber);
+		if(invalid == ClubberValidator.VALID)
+			return new Row(clubber, null);
+		return new Row(null, ClubberValidator.describe(type, invalid));
+	}
+
+	/**
+	* This method adds the valid clubbers of a batch to the repository and the journal, and writes the rejected lines.
+	*/
+	private void load(Row [] rows, String [] lines, int count, long first, BufferedWriter out, Report report) throws IOException
+	{
+		ArrayList<ClubberRecord> valid = new ArrayList<>(count);
+		int [] lineOf = new int[count];
+		String [] reasons = new String[count];
+		for(int i = 0; i < count; i++)
+		{
+			if(rows[i] == null)
+				report.skipped++;
+			else if(rows[i].clubber == null)
+			{
+				report.invalid++;
+				reasons[i] = rows[i].reason;
+			}else
+			{
+				lineOf[valid.size()] = i;
+				valid.add(rows[i].clubber);
+			}
+		}
+
+		long [] seq = new long[1];
+		ClubberRecord [] conflicts = repository.addAllAbsent(valid, (previous, added) -> seq[0] = storage.log(previous, added));
+		//the whole batch shares the fsync of its last entry
+		storage.finish(repository, seq[0]);
+		for(int i = 0; i < conflicts.length; i++)
+		{
+			if(conflicts[i] == null)
+			{
+				report.imported++;
+			}else
+			{
+				report.duplicates++;
+				reasons[lineOf[i]] = "key already belongs to " + conflicts[i].getId();
+			}
+		}
+		//the rejects are written in the order of the lines
+		for(int i = 0; i < count; i++)
+			if(reasons[i] != null)
+				reject(out, first + i, reasons[i], lines[i]);
+	}
+
+	/**
+	* This method writes a rejected line to the rejects file.
+	*/
+	private static void reject(BufferedWriter out, long line, String reason, String row) throws IOException
+	{
+		out.write(Long.toString(line));
+		out.write(",\"");
+		out.write(reason.replace("\"", "\"\""));
+		out.write("\",");
+		out.write(row);
+		out.newLine();
+	}
+
+	/**
+	* This method reads the next lines of the file into the array.
+	*
+	* @return number of lines read, 0 at the end of the file
+	*/
+	private static int readBatch(BufferedReader in, String [] lines) throws IOException
+	{
+		int count = 0;
+		String line;
+		while(count < lines.length && (line = in.readLine()) != null)
+			lines[count++] = line;
+		return count;
+	}
+
+	/**
+	* @param column a CSV column
+	* @return the trimmed column without its surrounding double quotes
+	*/
+	private static String unquote(String column)
+	{
+		column = column.trim();
+		if(column.length() >= 2 && column.charAt(0) == '"' && column.charAt(column.length() - 1) == '"')
+			column = column.substring(1, column.length() - 1).replace("\"\"", "\"");
+		return column;
+	}
+
+
+	/**
+	* This class is a parsed line, either a valid clubber or the reason the line is invalid.
+	*/
+	static class Row
+	{
+		final ClubberRecord clubber;
+		final String reason;
+
+		Row(ClubberRecord clubber, String reason)
+		{
+			this.clubber = clubber;
+			this.reason = reason;
+		}
+	}
+
+
+	/**
+	* This class reports the outcome and the throughput of an import.
+	*/
+	public static class Report
+	{
+		private final Path rejects;
+		private long lines;
+		private long imported;
+		private long invalid;
+		private long duplicates;
+		private long skipped;
+		private long nanos;
+
+		private Report(Path rejects)
+		{
+			this.rejects = rejects;
+		}
+
+		/**
+		* @return the rejects file
+		*/
+		public Path getRejects()
+		{
+			return rejects;
+		}
+
+		/**
+		* @return number of lines read
+		*/
+		public long getLines()
+		{
+			return lines;
+		}
+
+		/**
+		* @return number of clubbers added to the repository
+		*/
+		public long getImported()
+		{
+			return imported;
+		}
+
+		/**
+		* @return number of lines rejected for a wrong type, field count or field value
+		*/
+		public long getInvalid()
+		{
+			return invalid;
+		}
+
+		/**
+		* @return number of lines rejected because a key already belongs to another clubber
+		*/
+		public long getDuplicates()
+		{
+			return duplicates;
+		}
+
+		/**
+		* @return number of empty, comment and header lines
+		*/
+		public long getSkipped()
+		{
+			return skipped;
+		}
+
+		/**
+		* @return duration of the import in milliseconds
+		*/
+		public long getMillis()
+		{
+			return nanos / 1000000;
+		}
+
+		/**
+		* @return lines processed per second
+		*/
+		public double getLinesPerSecond()
+		{
+			return nanos == 0 ? 0 : lines * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d lines in %d ms (%.0f lines/s): %d imported, %d invalid, %d duplicates, %d skipped",
+				lines, getMillis(), getLinesPerSecond(), imported, invalid, duplicates, skipped);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+* This class is a hash index over the night club clubbers repository.
+* Every clubber is registered under each of its search keys as returned by {@link ClubberRecord#getKeys}:
+* the person id, the digits of a soldier personal number and the digits of a student id.
+* Looking up a key is therefore O(1) instead of invoking {@link ClubberRecord#match} on every clubber.
+* <p>
+* Commits never give a key to a second clubber, but a database may be loaded with keys that several clubbers share,
+* such as the student ids of a generated database. All the clubbers that share a key stay indexed under it in id order,
+* and the key belongs to the first of them, the same clubber a linear search of the clubbers in id order would have found,
+* whatever order they were loaded in. When the owner is removed or loses the key, the next clubber owns it.
+* <p>
+* The index is a {@link ConcurrentHashMap}, so {@link #get} never blocks.
+* The methods that change the index must be called by a thread that holds the {@link ClubberRepository} stripe locks of the keys.
+*/
+public class ClubberIndex
+{
+	private static final Comparator<ClubberRecord> BY_ID = Comparator.comparing(ClubberRecord::getId);
+
+	//key to its owner, or to an array of the clubbers that share it in id order, replaced and never changed
+	private final ConcurrentHashMap<String, Object> byKey;
+
+
+	/**
+	* Parameterless constructor - creates an empty index.
+	*/
+	public ClubberIndex()
+	{
+		byKey = new ConcurrentHashMap<>();
+	}
+
+	/**
+	* This method returns the clubber that owns the key.
+	*
+	* @param key search key
+	* @return the clubber indexed under the key, the one with the smallest id if several share it, or null if there is none
+	*/
+	public ClubberRecord get(String key)
+	{
+		Object owners = byKey.get(key);
+		return owners instanceof ClubberRecord[] ? ((ClubberRecord[])owners)[0] : (ClubberRecord)owners;
+	}
+
+	/**
+	* This method registers the clubber under all of its keys.
+	* A key that is already owned by another clubber is shared, it stays with the clubber with the smaller id.
+	*
+	* @param clubber the clubber to index
+	*/
+	public void add(ClubberRecord clubber)
+	{
+		replace(null, null, clubber);
+	}
+
+	/**
+	* This method registers the new record of a clubber under all of its keys in place of the records it replaces,
+	* then removes the keys of the replaced records that the new record doesn't have.
+	* Keys shared with other clubbers keep them indexed, and a key that is kept is never missing in between.
+	*
+	* @param old the previous record of the clubber, may be null
+	* @param existing a record with the same id as the new record that it replaces, may be null
+	* @param updated the new record
+	*/
+	public void replace(ClubberRecord old, ClubberRecord existing, ClubberRecord updated)
+	{
+		for(String key : updated.getKeys())
+			if(!key.isEmpty())
+				byKey.compute(key, (shared, owners) -> join(owners, old, existing, updated));
+		if(old != null)
+			remove(old);
+		if(existing != null)
+			remove(existing);
+	}
+
+	/**
+	* This method removes the clubber from the index.
+	* The clubber leaves the keys it shares with other clubbers, the next of them owns the key.
+	*
+	* @param clubber the clubber to remove
+	*/
+	public void remove(ClubberRecord clubber)
+	{
+		for(String key : clubber.getKeys())
+			if(!key.isEmpty())
+				byKey.computeIfPresent(key, (shared, owners) -> leave(owners, clubber));
+	}
+
+	/**
+	* This method removes all keys from the index.
+	*/
+	public void clear()
+	{
+		byKey.clear();
+	}
+
+	/**
+	* @param owners the owner of a key, the array of the clubbers that share it, or null
+	* @return the clubbers of the key with the new record in place of the records it replaces
+	*/
+	private static Object join(Object owners, ClubberRecord old, ClubberRecord existing, ClubberRecord updated)
+	{
+		if(owners == null || owners == old || owners == existing || owners == updated)
+			return updated;
+		ClubberRecord [] current = owners instanceof ClubberRecord[] ? (ClubberRecord[])owners : new ClubberRecord[]{(ClubberRecord)owners};
+		ArrayList<ClubberRecord> shared = new ArrayList<>(current.length + 1);
+		for(ClubberRecord owner : current)
+			if(owner != old && owner != existing && owner != updated)
+				shared.add(owner);
+		shared.add(updated);
+		if(shared.size() == 1)
+			return updated;
+		shared.sort(BY_ID);
+		return shared.toArray(new ClubberRecord[0]);
+	}
+
+	/**
+	* @param owners the owner of a key or the array of the clubbers that share it
+	* @return the clubbers of the key without the record, null if it was the only one
+	*/
+	private static Object leave(Object owners, ClubberRecord clubber)
+	{
+		if(owners == clubber)
+			return null;
+		if(!(owners instanceof ClubberRecord[]))
+			return owners;
+		ClubberRecord [] current = (ClubberRecord[])owners;
+		int index = 0;
+		while(index < current.length && current[index] != clubber)
+			index++;
+		if(index == current.length)
+			return owners;
+		if(current.length == 2)
+			return current[1 - index];
+		ClubberRecord [] rest = new ClubberRecord[current.length - 1];
+		System.arraycopy(current, 0, rest, 0, index);
+		System.arraycopy(current, index + 1, rest, index, rest.length - index);
+		return rest;
+	}
+}
@@ -0,0 +1,488 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+
+/**
+* This class is the append-only write-ahead journal of the clubbers database.
+* Every committed clubber and every removal is appended as an entry,
+* a background thread writes the pending entries in batches and forces each batch to disk once (group commit).
+* A commit is acknowledged only after {@link #awaitDurable} saw its entry forced to disk,
+* while commits made in the meantime are collected in the next batch, so many commits share one fsync.
+* <pre>
+* entry : payload length (int), payload, CRC32 of the payload (int)
+* store : STORE_AT (byte), time (long), previous id (unsigned short length and UTF-8 bytes, empty for a new clubber), the {@link ClubberFile} record
+* remove: REMOVE_AT (byte), time (long), id (unsigned short length and UTF-8 bytes)
+* </pre>
+* The time of an entry is the commit time in milliseconds, it dates the revisions of the {@link ClubberHistory}.
+* Entries written by earlier versions, STORE and REMOVE without a time, are replayed with time 0.
+* The same entries are used for the history file, see {@link #writeStore} and {@link #writeRemove}.
+* The journal is split in numbered segment files (BKCustomers.journal.1, BKCustomers.journal.2 ...).
+* {@link #rotate} seals the current segment so it can be folded into a snapshot and deleted with {@link #deleteUpTo},
+* on startup all remaining segments are replayed in order with {@link #replay}.
+*/
+public class ClubberJournal implements Closeable
+{
+	private static final byte STORE = 1;
+	private static final byte REMOVE = 2;
+	private static final byte STORE_AT = 3;
+	private static final byte REMOVE_AT = 4;
+
+	private final Path base;
+	//guards the pending entries and the sequence numbers
+	private final Object lock = new Object();
+	//guards the segment channel, always taken before lock
+	private final Object channelLock = new Object();
+	private final Thread writer;
+	private ByteArrayOutputStream pending;
+	private long appendedSeq;
+	private long durableSeq;
+	private FileChannel channel;
+	private long segment;
+	private long segmentSize;
+	private IOException failure;
+	private boolean closed;
+
+
+	/**
+	* This interface receives the entries of a journal segment when it is replayed.
+	*/
+	public interface Replayer
+	{
+		/**
+		* @param time commit time in milliseconds, 0 for an entry without a time
+		* @param oldId id of the previous record of the clubber, empty for a new clubber
+		* @param updated the committed record
+		*/
+		void store(long time, String oldId, ClubberRecord updated);
+
+		/**
+		* @param time removal time in milliseconds, 0 for an entry without a time
+		* @param id id of the removed clubber
+		*/
+		void remove(long time, String id);
+	}
+
+
+	/**
+	* Constructor - opens a new segment after the existing ones and starts the writer thread.
+	*
+	* @param base path of the journal, segment numbers are appended to it
+	* @throws IOException if the segment can't be created
+	*/
+	public ClubberJournal(Path base) throws IOException
+	{
+		this.base = base;
+		List<Path> existing = segments(base);
+		segment = existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+		channel = openSegment(segment);
+		pending = new ByteArrayOutputStream();
+		writer = new Thread(this::writeLoop, "clubber-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	* This method appends the commit of a clubber to the journal.
+	*
+	* @param time commit time in milliseconds
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the committed record
+	* @return sequence number of the entry, see {@link #awaitDurable}
+	* @throws IOException if the journal was closed or failed
+	*/
+	public long logStore(long time, ClubberRecord old, ClubberRecord updated) throws IOException
+	{
+		return append(storeEntry(time, old == null ? "" : old.getId(), updated));
+	}
+
+	/**
+	* This method appends the removal of a clubber to the journal.
+	*
+	* @param time removal time in milliseconds
+	* @param removed the record of the removed clubber
+	* @return sequence number of the entry, see {@link #awaitDurable}
+	* @throws IOException if the journal was closed or failed
+	*/
+	public long logRemove(long time, ClubberRecord removed) throws IOException
+	{
+		return append(removeEntry(time, removed.getId()));
+	}
+
+	/**
+	* This method writes a store entry to a stream in the journal format, used to write files that are read with {@link #replay}.
+	*
+	* @param out the stream
+	* @param time commit time in milliseconds
+	* @param oldId id of the previous record of the clubber, empty for a new clubber
+	* @param updated the committed record
+	* @throws IOException if writing fails
+	*/
+	public static void writeStore(DataOutput out, long time, String oldId, ClubberRecord updated) throws IOException
+	{
+		writeEntry(out, storeEntry(time, oldId, updated));
+	}
+
+	/**
+	* This method writes a remove entry to a stream in the journal format, used to write files that are read with {@link #replay}.
+	*
+	* @param out the stream
+	* @param time removal time in milliseconds
+	* @param id id of the removed clubber
+	* @throws IOException if writing fails
+	*/
+	public static void writeRemove(DataOutput out, long time, String id) throws IOException
+	{
+		writeEntry(out, removeEntry(time, id));
+	}
+
+	/**
+	* This method waits until the entry with the sequence number was forced to disk.
+	*
+	* @param seq sequence number returned by {@link #logStore} or {@link #logRemove}
+	* @throws IOException if the journal failed before the entry was written
+	*/
+	public void awaitDurable(long seq) throws IOException
+	{
+		synchronized(lock)
+		{
+			while(durableSeq < seq && failure == null)
+			{
+				try
+				{
+					lock.wait();
+				}catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for the journal");
+				}
+			}
+			if(durableSeq < seq)
+				throw failure;
+		}
+	}
+
+	/**
+	* @return size in bytes of the current segment, including entries that are not written yet
+	*/
+	public long size()
+	{
+		synchronized(lock)
+		{
+			return segmentSize + pending.size();
+		}
+	}
+
+	/**
+	* This method seals the current segment and continues the journal in a new one.
+	* All the entries appended before the call are in the sealed segment or an earlier one.
+	*
+	* @return number of the sealed segment
+	* @throws IOException if the segment can't be written or the new one created
+	*/
+	public long rotate() throws IOException
+	{
+		synchronized(channelLock)
+		{
+			writeBatch();
+			channel.close();
+			long sealed = segment;
+			segment++;
+			channel = openSegment(segment);
+			synchronized(lock)
+			{
+				segmentSize = 0;
+			}
+			return sealed;
+		}
+	}
+
+	/**
+	* This method deletes the sealed segments that were folded into a snapshot.
+	*
+	* @param sealed number of the last segment to delete
+	* @throws IOException if a segment can't be deleted
+	*/
+	public void deleteUpTo(long sealed) throws IOException
+	{
+		for(Path file : segments(base))
+			if(segmentNumber(file) <= sealed)
+				Files.deleteIfExists(file);
+	}
+
+	/**
+	* This method writes and forces the pending entries and closes the journal.
+	* The current segment is deleted if nothing was written to it, so runs that commit nothing leave no segments behind.
+	*/
+	@Override
+	public void close() throws IOException
+	{
+		synchronized(lock)
+		{
+			if(closed)
+				return;
+			closed = true;
+			lock.notifyAll();
+		}
+		try
+		{
+			writer.join();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		synchronized(channelLock)
+		{
+			writeBatch();
+			channel.close();
+		}
+		synchronized(lock)
+		{
+			if(failure != null)
+				throw failure;
+			if(segmentSize == 0)
+				Files.deleteIfExists(Paths.get(base + "." + segment));
+		}
+	}
+
+	/**
+	* This method returns the existing segments of a journal in order.
+	*
+	* @param base path of the journal
+	* @return the segment files sorted by number
+	* @throws IOException if the directory can't be listed
+	*/
+	public static List<Path> segments(Path base) throws IOException
+	{
+		Path dir = base.toAbsolutePath().getParent();
+		String prefix = base.getFileName() + ".";
+		ArrayList<Path> found = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*"))
+		{
+			for(Path file : files)
+				if(file.getFileName().toString().substring(prefix.length()).matches("\\d+"))
+					found.add(file);
+		}
+		found.sort(Comparator.comparingLong(ClubberJournal::segmentNumber));
+		return found;
+	}
+
+	/**
+	* This method replays the entries of a segment in order.
+	* Replaying stops at the first incomplete or corrupted entry,
+	* which can only be the tail that was being written when the app stopped.
+	*
+	* @param segment the segment file
+	* @param replayer receives the entries
+	* @return number of entries replayed
+	* @throws IOException if the segment can't be read
+	*/
+	public static int replay(Path segment, Replayer replayer) throws IOException
+	{
+		int count = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment))))
+		{
+			CRC32 crc = new CRC32();
+			while(true)
+			{
+				byte [] payload;
+				try
+				{
+					int length = in.readInt();
+					if(length <= 0 || length > 1 << 20)
+						break;
+					payload = new byte[length];
+					in.readFully(payload);
+					crc.reset();
+					crc.update(payload);
+					if(in.readInt() != (int)crc.getValue())
+						break;
+				}catch(EOFException e)
+				{
+					break;
+				}
+				ByteBuffer entry = ByteBuffer.wrap(payload);
+				byte kind = entry.get();
+				long time = kind == STORE_AT || kind == REMOVE_AT ? entry.getLong() : 0;
+				if(kind == STORE || kind == STORE_AT)
+					replayer.store(time, getString(entry), ClubberFile.decode(entry));
+				else replayer.remove(time, getString(entry));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	* @return the payload of a store entry, flipped for reading
+	*/
+	private static ByteBuffer storeEntry(long time, String oldId, ClubberRecord updated) throws IOException
+	{
+		ByteBuffer payload = ByteBuffer.allocate(9 + idLength(oldId) + ClubberFile.encodedSize(updated));
+		payload.put(STORE_AT).putLong(time);
+		putString(payload, oldId);
+		ClubberFile.encode(updated, payload);
+		return payload.flip();
+	}
+
+	/**
+	* @return the payload of a remove entry, flipped for reading
+	*/
+	private static ByteBuffer removeEntry(long time, String id)
+	{
+		ByteBuffer payload = ByteBuffer.allocate(9 + idLength(id));
+		payload.put(REMOVE_AT).putLong(time);
+		putString(payload, id);
+		return payload.flip();
+	}
+
+	/**
+	* This method writes an entry with its length and checksum.
+	*
+	* @param out the stream
+	* @param payload the entry payload, flipped for reading
+	*/
+	private static void writeEntry(DataOutput out, ByteBuffer payload) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(payload.array(), 0, payload.limit());
+		out.writeInt(payload.limit());
+		out.write(payload.array(), 0, payload.limit());
+		out.writeInt((int)crc.getValue());
+	}
+
+	/**
+	* This method adds an entry to the pending batch and wakes the writer thread.
+	*
+	* @param payload the entry payload, flipped for reading
+	* @return sequence number of the entry
+	*/
+	private long append(ByteBuffer payload) throws IOException
+	{
+		synchronized(lock)
+		{
+			if(failure != null)
+				throw failure;
+			if(closed)
+				throw new IOException("Journal is closed");
+			writeEntry(new DataOutputStream(pending), payload);
+			appendedSeq++;
+			lock.notifyAll();
+			return appendedSeq;
+		}
+	}
+
+	/**
+	* The writer thread, writes and forces a batch whenever entries are pending.
+	*/
+	private void writeLoop()
+	{
+		while(true)
+		{
+			synchronized(lock)
+			{
+				while(pending.size() == 0 && !closed)
+				{
+					try
+					{
+						lock.wait();
+					}catch(InterruptedException e)
+					{
+						return;
+					}
+				}
+				if(closed)
+					return;
+			}
+			synchronized(channelLock)
+			{
+				try
+				{
+					writeBatch();
+				}catch(IOException e)
+				{
+					synchronized(lock)
+					{
+						failure = e;
+						lock.notifyAll();
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	* This method takes the pending entries, writes them to the segment and forces it to disk.
+	* Must be called holding channelLock.
+	*/
+	private void writeBatch() throws IOException
+	{
+		byte [] batch;
+		long batchSeq;
+		synchronized(lock)
+		{
+			if(failure != null)
+				throw failure;
+			batch = pending.toByteArray();
+			pending.reset();
+			batchSeq = appendedSeq;
+		}
+		if(batch.length > 0)
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(batch);
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		}
+		synchronized(lock)
+		{
+			segmentSize += batch.length;
+			durableSeq = batchSeq;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	* @param number segment number
+	* @return the opened, empty segment file
+	*/
+	private FileChannel openSegment(long number) throws IOException
+	{
+		return FileChannel.open(Paths.get(base + "." + number), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	* @param file a segment file
+	* @return the number of the segment
+	*/
+	private static long segmentNumber(Path file)
+	{
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+	}
+
+	private static int idLength(String id)
+	{
+		return 2 + id.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private static void putString(ByteBuffer buffer, String value)
+	{
+		byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short)bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer)
+	{
+		byte [] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
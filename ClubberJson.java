@@ -0,0 +1,307 @@
+import java.util.*;
+
+
+/**
+* This class converts clubber records to and from JSON for the {@link ClubberServer}, without a JSON library.
+* A record is a flat object with the type title and the fields by name:
+* <pre>
+* {"type":"Soldier","id":"0-1234567|1","name":"Avi","surname":"Cohen","tel":"+(972)54-1234567","extra":"R/1234567"}
+* </pre>
+* The parser reads any JSON document into maps, lists, strings, booleans and null, numbers are kept as their text.
+* Objects and arrays may be nested at most {@value #MAX_DEPTH} deep, so a hostile document can't overflow the stack of the parser.
+*/
+public final class ClubberJson
+{
+	public static final int MAX_DEPTH = 64;
+	private static final String [] FIELD_NAMES = {"id", "name", "surname", "tel", "extra"};
+
+
+	private ClubberJson()
+	{
+	}
+
+	/**
+	* This method writes a record as a JSON object.
+	*
+	* @param clubber the record
+	* @param out receives the JSON text
+	* @return out
+	*/
+	public static StringBuilder write(ClubberRecord clubber, StringBuilder out)
+	{
+		out.append("{\"type\":");
+		quote(clubber.getType().getTitle(), out);
+		for(int i = 0; i < clubber.getFieldCount(); i++)
+		{
+			out.append(",\"").append(FIELD_NAMES[i]).append("\":");
+			quote(clubber.get(i), out);
+		}
+		return out.append('}');
+	}
+
+	/**
+	* @param clubber the record
+	* @return the record as a JSON object
+	*/
+	public static String toJson(ClubberRecord clubber)
+	{
+		return write(clubber, new StringBuilder(160)).toString();
+	}
+
+	/**
+	* This method reads a record from a parsed JSON object, missing fields are read as empty.
+	*
+	* @param json the parsed JSON object
+	* @return the record
+	* @throws IllegalArgumentException if the value is not an object or the type is unknown
+	*/
+	public static ClubberRecord toRecord(Object json)
+	{
+		if(!(json instanceof Map))
+			throw new IllegalArgumentException("a clubber must be a JSON object");
+		Map<?, ?> object = (Map<?, ?>)json;
+		ClubberType type = ClubberType.forTitle(String.valueOf(object.get("type")));
+		if(type == null)
+			throw new IllegalArgumentException("unknown type " + object.get("type"));
+		String [] fields = new String[type.getFieldCount()];
+		for(int i = 0; i < fields.length; i++)
+		{
+			Object value = object.get(FIELD_NAMES[i]);
+			fields[i] = value == null ? "" : value.toString();
+		}
+		return new ClubberRecord(type, fields);
+	}
+
+	/**
+	* This method writes a string as a JSON string literal.
+	*
+	* @param value the string
+	* @param out receives the literal
+	* @return out
+	*/
+	public static StringBuilder quote(String value, StringBuilder out)
+	{
+		out.append('"');
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			switch(c)
+			{
+				case '"':
+					out.append("\\\"");
+					break;
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				default:
+					if(c < 0x20)
+						out.append(String.format("\\u%04x", (int)c));
+					else out.append(c);
+			}
+		}
+		return out.append('"');
+	}
+
+	/**
+	* This method parses a JSON document.
+	*
+	* @param text the JSON text
+	* @return a {@link Map}, {@link List}, {@link String}, {@link Boolean} or null
+	* @throws IllegalArgumentException if the text is not valid JSON or is nested deeper than {@value #MAX_DEPTH}
+	*/
+	public static Object parse(String text)
+	{
+		Parser parser = new Parser(text);
+		Object value = parser.value();
+		parser.skipSpace();
+		if(parser.pos != text.length())
+			throw parser.error("unexpected text after the value");
+		return value;
+	}
+
+
+	/**
+	* This class is a recursive descent JSON parser.
+	*/
+	private static class Parser
+	{
+		private final String text;
+		private int pos;
+		//number of objects and arrays the parser is in
+		private int depth;
+
+		Parser(String text)
+		{
+			this.text = text;
+		}
+
+		Object value()
+		{
+			skipSpace();
+			if(pos == text.length())
+				throw error("unexpected end");
+			char c = text.charAt(pos);
+			switch(c)
+			{
+				case '{':
+					return object();
+				case '[':
+					return array();
+				case '"':
+					return string();
+				default:
+					int start = pos;
+					while(pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0)
+						pos++;
+					String literal = text.substring(start, pos);
+					if(literal.equals("null"))
+						return null;
+					if(literal.equals("true") || literal.equals("false"))
+						return Boolean.valueOf(literal);
+					if(literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?"))
+						return literal;
+					throw error("unexpected " + (literal.isEmpty() ? String.valueOf(c) : literal));
+			}
+		}
+
+		LinkedHashMap<String, Object> object()
+		{
+			LinkedHashMap<String, Object> object = new LinkedHashMap<>();
+			enter();
+			pos++;
+			skipSpace();
+			if(consume('}'))
+			{
+				depth--;
+				return object;
+			}
+			do
+			{
+				skipSpace();
+				if(pos == text.length() || text.charAt(pos) != '"')
+					throw error("expected a name");
+				String name = string();
+				skipSpace();
+				if(!consume(':'))
+					throw error("expected :");
+				object.put(name, value());
+				skipSpace();
+			}while(consume(','));
+			if(!consume('}'))
+				throw error("expected , or }");
+			depth--;
+			return object;
+		}
+
+		ArrayList<Object> array()
+		{
+			ArrayList<Object> array = new ArrayList<>();
+			enter();
+			pos++;
+			skipSpace();
+			if(consume(']'))
+			{
+				depth--;
+				return array;
+			}
+			do
+			{
+				array.add(value());
+				skipSpace();
+			}while(consume(','));
+			if(!consume(']'))
+				throw error("expected , or ]");
+			depth--;
+			return array;
+		}
+
+		String string()
+		{
+			StringBuilder value = new StringBuilder();
+			pos++;
+			while(pos < text.length())
+			{
+				char c = text.charAt(pos++);
+				if(c == '"')
+					return value.toString();
+				if(c != '\\')
+				{
+					value.append(c);
+					continue;
+				}
+				if(pos == text.length())
+					break;
+				char escape = text.charAt(pos++);
+				switch(escape)
+				{
+					case 'b':
+						value.append('\b');
+						break;
+					case 'f':
+						value.append('\f');
+						break;
+					case 'n':
+						value.append('\n');
+						break;
+					case 'r':
+						value.append('\r');
+						break;
+					case 't':
+						value.append('\t');
+						break;
+					case 'u':
+						if(pos + 4 > text.length())
+							throw error("bad unicode escape");
+						try
+						{
+							value.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+						}catch(NumberFormatException e)
+						{
+							throw error("bad unicode escape");
+						}
+						pos += 4;
+						break;
+					default:
+						value.append(escape);
+				}
+			}
+			throw error("unterminated string");
+		}
+
+		boolean consume(char c)
+		{
+			if(pos < text.length() && text.charAt(pos) == c)
+			{
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		void skipSpace()
+		{
+			while(pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+				pos++;
+		}
+
+		private void enter()
+		{
+			if(++depth > MAX_DEPTH)
+				throw error("nested deeper than " + MAX_DEPTH);
+		}
+
+		IllegalArgumentException error(String message)
+		{
+			return new IllegalArgumentException(String.format("JSON %s at %d", message, pos));
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.*;
+
+
+/**
+* This class collects the metrics of the clubbers database operations of this JVM:
+* search, isExists, validate, commit, load, save and import.
+* Every operation has a count, a count of failures, the records and bytes it read or wrote, and a {@link LatencyHistogram}.
+* <p>
+* Searches, key checks and validations take tens of nanoseconds, so they are only counted unless someone is reading the metrics:
+* they are timed while a reader is registered with {@link #addReader}, such as the statistics window,
+* while a Flight Recorder recording is running, or always if the {@value #TIMING_PROPERTY} system property is true.
+* Commits, loads, saves and imports are always timed and each one is also a clubbers.Operation Flight Recorder event.
+* A recording also gets a periodic clubbers.Metrics event with the totals of every operation.
+* <p>
+* The metrics are polled with {@link #snapshot}. There is one instance per JVM, returned by {@link #get}.
+*/
+public final class ClubberMetrics
+{
+	public static final String TIMING_PROPERTY = "clubbers.metrics.timing";
+	private static final ClubberMetrics METRICS = new ClubberMetrics();
+
+	private final LongAdder [] counts;
+	private final LongAdder [] errors;
+	private final LongAdder [] records;
+	private final LongAdder [] bytes;
+	private final LatencyHistogram [] latencies;
+	private final AtomicInteger readers;
+	private final boolean alwaysTiming;
+	private volatile boolean recording;
+	private volatile boolean timing;
+
+
+	/**
+	* This enum is the instrumented operations.
+	*/
+	public enum Operation
+	{
+		SEARCH("search", false),
+		IS_EXISTS("isExists", false),
+		VALIDATE("validate", false),
+		COMMIT("commit", true),
+		LOAD("load", true),
+		SAVE("save", true),
+		IMPORT("import", true);
+
+		private final String title;
+		private final boolean alwaysTimed;
+
+		Operation(String title, boolean alwaysTimed)
+		{
+			this.title = title;
+			this.alwaysTimed = alwaysTimed;
+		}
+
+		/**
+		* @return name of the operation in the metrics
+		*/
+		public String getTitle()
+		{
+			return title;
+		}
+	}
+
+
+	private ClubberMetrics()
+	{
+		int operations = Operation.values().length;
+		counts = new LongAdder[operations];
+		errors = new LongAdder[operations];
+		records = new LongAdder[operations];
+		bytes = new LongAdder[operations];
+		latencies = new LatencyHistogram[operations];
+		for(int i = 0; i < operations; i++)
+		{
+			counts[i] = new LongAdder();
+			errors[i] = new LongAdder();
+			records[i] = new LongAdder();
+			bytes[i] = new LongAdder();
+			latencies[i] = new LatencyHistogram();
+		}
+		readers = new AtomicInteger();
+		alwaysTiming = Boolean.getBoolean(TIMING_PROPERTY);
+		timing = alwaysTiming;
+		try
+		{
+			FlightRecorder.addPeriodicEvent(MetricsEvent.class, this::emitMetrics);
+			FlightRecorder.addListener(new FlightRecorderListener() {
+				@Override
+				public void recordingStateChanged(Recording changed)
+				{
+					boolean running = false;
+					for(Recording any : FlightRecorder.getFlightRecorder().getRecordings())
+						running |= any.getState() == RecordingState.RUNNING;
+					recording = running;
+					updateTiming();
+				}
+			});
+		}catch(RuntimeException | LinkageError e)
+		{
+			//a JVM without Flight Recorder still has the polled metrics
+		}
+	}
+
+	/**
+	* @return the metrics of this JVM
+	*/
+	public static ClubberMetrics get()
+	{
+		return METRICS;
+	}
+
+	/**
+	* This method starts a fast operation, a search, a key check or a validation.
+	*
+	* @param operation the operation
+	* @return the start time to pass to {@link #end}, or 0 if the operation is not timed now
+	*/
+	public long start(Operation operation)
+	{
+		return timing || operation.alwaysTimed ? System.nanoTime() : 0;
+	}
+
+	/**
+	* This method ends a fast operation.
+	*
+	* @param operation the operation
+	* @param start the value returned by {@link #start}
+	*/
+	public void end(Operation operation, long start)
+	{
+		int i = operation.ordinal();
+		counts[i].increment();
+		if(start != 0)
+			latencies[i].recordSince(start);
+	}
+
+	/**
+	* This method starts a slow operation, a commit, a load, a save or an import.
+	*
+	* @param operation the operation
+	* @return the timer of the operation, its {@link Timer#done} or {@link Timer#failed} must be called when the operation ends
+	*/
+	public Timer time(Operation operation)
+	{
+		return new Timer(operation);
+	}
+
+	/**
+	* This method registers a reader, the fast operations are timed until it is removed.
+	*/
+	public void addReader()
+	{
+		readers.incrementAndGet();
+		updateTiming();
+	}
+
+	/**
+	* This method removes a reader registered by {@link #addReader}.
+	*/
+	public void removeReader()
+	{
+		readers.decrementAndGet();
+		updateTiming();
+	}
+
+	/**
+	* @return true if the fast operations are timed now
+	*/
+	public boolean isTiming()
+	{
+		return timing;
+	}
+
+	/**
+	* This method returns the metrics of every operation that ran, named operation.metric:
+	* count, errors, records, bytes, meanMicros, p50Micros, p99Micros, maxMicros, and recordsPerSecond for the operations that move records.
+	* The latencies of a fast operation only cover the time it was timed.
+	*
+	* @return the metric names and values in a stable order
+	*/
+	public LinkedHashMap<String, Long> snapshot()
+	{
+		LinkedHashMap<String, Long> metrics = new LinkedHashMap<>();
+		for(Operation operation : Operation.values())
+		{
+			int i = operation.ordinal();
+			long count = counts[i].sum();
+			if(count == 0)
+				continue;
+			String name = operation.title + ".";
+			LatencyHistogram latency = latencies[i];
+			metrics.put(name + "count", count);
+			metrics.put(name + "errors", errors[i].sum());
+			metrics.put(name + "meanMicros", (long)(latency.getMean() / 1000));
+			metrics.put(name + "p50Micros", latency.getPercentile(50) / 1000);
+			metrics.put(name + "p99Micros", latency.getPercentile(99) / 1000);
+			metrics.put(name + "maxMicros", latency.getMax() / 1000);
+			long moved = records[i].sum();
+			if(moved > 0)
+			{
+				double seconds = latency.getMean() * latency.getCount() / 1e9;
+				metrics.put(name + "records", moved);
+				metrics.put(name + "bytes", bytes[i].sum());
+				metrics.put(name + "recordsPerSecond", seconds > 0 ? (long)(moved / seconds) : 0);
+			}
+		}
+		return metrics;
+	}
+
+	private void updateTiming()
+	{
+		timing = alwaysTiming || recording || readers.get() > 0;
+	}
+
+	/**
+	* This method emits the periodic clubbers.Metrics events of a recording.
+	*/
+	private void emitMetrics()
+	{
+		for(Operation operation : Operation.values())
+		{
+			int i = operation.ordinal();
+			long count = counts[i].sum();
+			if(count == 0)
+				continue;
+			MetricsEvent event = new MetricsEvent();
+			event.operation = operation.title;
+			event.count = count;
+			event.errors = errors[i].sum();
+			event.records = records[i].sum();
+			event.bytes = bytes[i].sum();
+			event.p50 = latencies[i].getPercentile(50);
+			event.p99 = latencies[i].getPercentile(99);
+			event.max = latencies[i].getMax();
+			event.commit();
+		}
+	}
+
+
+	/**
+	* This class times one slow operation and emits its Flight Recorder event.
+	*/
+	public final class Timer
+	{
+		private final Operation operation;
+		private final OperationEvent event;
+		private final long start;
+
+		private Timer(Operation operation)
+		{
+			this.operation = operation;
+			event = new OperationEvent();
+			event.begin();
+			start = System.nanoTime();
+		}
+
+		/**
+		* This method ends a successful operation.
+		*
+		* @param moved number of records read or written
+		* @param size number of bytes read or written
+		*/
+		public void done(long moved, long size)
+		{
+			int i = operation.ordinal();
+			records[i].add(moved);
+			bytes[i].add(size);
+			finish(moved, size, true);
+		}
+
+		/**
+		* This method ends a failed operation.
+		*/
+		public void failed()
+		{
+			errors[operation.ordinal()].increment();
+			finish(0, 0, false);
+		}
+
+		private void finish(long moved, long size, boolean success)
+		{
+			end(operation, start);
+			event.end();
+			if(event.shouldCommit())
+			{
+				event.operation = operation.title;
+				event.records = moved;
+				event.bytes = size;
+				event.success = success;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	* This class is the Flight Recorder event of a commit, a load, a save or an import.
+	*/
+	@Name("clubbers.Operation")
+	@Label("Clubbers Operation")
+	@Category("Clubbers")
+	@Description("A commit, load, save or import of the clubbers database")
+	static class OperationEvent extends Event
+	{
+		@Label("Operation")
+		String operation;
+
+		@Label("Records")
+		long records;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Success")
+		boolean success;
+	}
+
+	/**
+	* This class is the periodic Flight Recorder event with the totals of an operation.
+	*/
+	@Name("clubbers.Metrics")
+	@Label("Clubbers Metrics")
+	@Category("Clubbers")
+	@Description("Totals of an operation of the clubbers database since the JVM started")
+	@Period("1 s")
+	static class MetricsEvent extends Event
+	{
+		@Label("Operation")
+		String operation;
+
+		@Label("Count")
+		long count;
+
+		@Label("Errors")
+		long errors;
+
+		@Label("Records")
+		long records;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Median Latency")
+		@Timespan
+		long p50;
+
+		@Label("99th Percentile Latency")
+		@Timespan
+		long p99;
+
+		@Label("Max Latency")
+		@Timespan
+		long max;
+	}
+}
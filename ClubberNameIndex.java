@@ -0,0 +1,264 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+* This class is a sorted, case-insensitive index of the names and surnames of the clubbers for prefix search as you type.
+* Every name and surname is indexed in lower case, a surname made of parts joined by ' or - is also indexed
+* under each of its later parts, so Bar-On is found by bar and by on.
+* The index is a {@link ConcurrentSkipListMap} of name to the clubbers with that name ordered by id,
+* it follows every change of the {@link ClubberRepository} as a {@link ClubberRepository.Listener},
+* so committed clubbers are found right away. The changes take a lock among themselves, searches never lock.
+* <p>
+* Building the index costs a few microseconds per clubber, so it is not built while the database loads:
+* {@link #attach} starts following the changes and then indexes a snapshot of the repository on a background thread.
+* A clubber changed while the snapshot is indexed may leave an outdated entry behind,
+* every result is checked against the repository, so outdated entries are never returned.
+* <p>
+* A query is one or more space separated prefixes, a clubber matches if every prefix starts one of its names.
+* Results are ranked by the name the longest prefix matched: exact matches first, then in alphabetical order of the name,
+* then by id, and are returned in pages. A query of one prefix takes time proportional to the offset and size of the page,
+* not to the number of clubbers. With more prefixes the clubbers of the longest one are scanned until the page is full,
+* those that don't match the other prefixes too, so a query whose prefixes rarely meet can scan all the clubbers of the longest prefix.
+*/
+public class ClubberNameIndex implements ClubberRepository.Listener
+{
+	//the page of a search before the index is attached
+	public static final Page EMPTY = new Page(new ArrayList<>(), 0, false);
+
+	//name to the clubbers with the name by id, a name is removed with its last clubber
+	private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, ClubberRecord>> names;
+	private final ClubberRepository repository;
+	private final CountDownLatch built;
+	//guards the changes of the index, so a name isn't removed while a clubber is added to it
+	private final Object lock = new Object();
+
+
+	/**
+	* Constructor with the repository the index is checked against.
+	*
+	* @param repository the indexed repository
+	*/
+	private ClubberNameIndex(ClubberRepository repository)
+	{
+		this.repository = repository;
+		names = new ConcurrentSkipListMap<>();
+		built = new CountDownLatch(1);
+	}
+
+	/**
+	* This method creates an index of a repository that is kept current through its changes,
+	* the clubbers already in the repository are indexed on a background thread.
+	*
+	* @param repository the repository to index
+	* @return the index
+	*/
+	public static ClubberNameIndex attach(ClubberRepository repository)
+	{
+		ClubberNameIndex index = new ClubberNameIndex(repository);
+		repository.addListener(index);
+		ClubberRepository.Snapshot view = repository.snapshot();
+		Thread builder = new Thread(() -> {
+			for(ClubberRecord clubber : view)
+				synchronized(index.lock)
+				{
+					for(String name : names(clubber))
+						//a newer record of the clubber indexed by changed is kept
+						index.postings(name).putIfAbsent(clubber.getId(), clubber);
+				}
+			index.built.countDown();
+		}, "clubber-names");
+		builder.setDaemon(true);
+		builder.start();
+		return index;
+	}
+
+	/**
+	* This method waits until the clubbers that were in the repository when the index was attached are indexed.
+	*
+	* @throws InterruptedException if the thread is interrupted while waiting
+	*/
+	public void awaitBuilt() throws InterruptedException
+	{
+		built.await();
+	}
+
+	/**
+	* @return true once the clubbers that were in the repository when the index was attached are indexed
+	*/
+	public boolean isBuilt()
+	{
+		return built.getCount() == 0;
+	}
+
+	@Override
+	public void changed(ClubberRecord removed, ClubberRecord added)
+	{
+		synchronized(lock)
+		{
+			if(added != null)
+				for(String name : names(added))
+					postings(name).put(added.getId(), added);
+			if(removed != null)
+				for(String name : names(removed))
+				{
+					ConcurrentSkipListMap<String, ClubberRecord> clubbers = names.get(name);
+					if(clubbers != null && clubbers.remove(removed.getId(), removed) && clubbers.isEmpty())
+						names.remove(name);
+				}
+		}
+	}
+
+	@Override
+	public void cleared()
+	{
+		synchronized(lock)
+		{
+			names.clear();
+		}
+	}
+
+	/**
+	* This method searches the clubbers whose names start with all the prefixes of the query.
+	*
+	* @param query space separated prefixes, case is ignored
+	* @param offset number of matching clubbers to skip
+	* @param limit maximal number of clubbers to return
+	* @return the page of matching clubbers in rank order
+	*/
+	public Page search(String query, int offset, int limit)
+	{
+		String [] prefixes = query.trim().toLowerCase(Locale.ROOT).split("\\s+");
+		ArrayList<ClubberRecord> found = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+		if(prefixes[0].isEmpty() || limit <= 0)
+			return new Page(found, offset, false);
+		//the longest prefix is the most selective one, it drives the scan
+		String driver = prefixes[0];
+		for(String prefix : prefixes)
+			if(prefix.length() > driver.length())
+				driver = prefix;
+
+		int skipped = 0;
+		for(Map.Entry<String, ConcurrentSkipListMap<String, ClubberRecord>> entry : names.subMap(driver, driver + Character.MAX_VALUE).entrySet())
+			for(ClubberRecord clubber : entry.getValue().values())
+			{
+				if(repository.getById(clubber.getId()) != clubber)
+					continue;
+				String [] own = names(clubber);
+				if(!isFirstMatch(own, driver, entry.getKey()) || !matchesAll(own, prefixes))
+					continue;
+				if(skipped < offset)
+					skipped++;
+				else if(found.size() == limit)
+					return new Page(found, offset, true);
+				else found.add(clubber);
+			}
+		return new Page(found, offset, false);
+	}
+
+	/**
+	* @param name an indexed name
+	* @return the clubbers with the name by id, created empty if the name has none, the caller holds the lock
+	*/
+	private ConcurrentSkipListMap<String, ClubberRecord> postings(String name)
+	{
+		return names.computeIfAbsent(name, key -> new ConcurrentSkipListMap<>());
+	}
+
+	/**
+	* This method returns the indexed names of a clubber, its name and surname and the later parts of its surname.
+	*
+	* @param clubber the record
+	* @return the names in lower case
+	*/
+	static String[] names(ClubberRecord clubber)
+	{
+		String name = clubber.get(ClubberRecord.NAME).toLowerCase(Locale.ROOT);
+		String surname = clubber.get(ClubberRecord.SURNAME).toLowerCase(Locale.ROOT);
+		int parts = 0;
+		for(int i = 0; i < surname.length() - 1; i++)
+			if(isSeparator(surname.charAt(i)))
+				parts++;
+		String [] own = new String[2 + parts];
+		own[0] = name;
+		own[1] = surname;
+		for(int i = 0, part = 2; i < surname.length() - 1; i++)
+			if(isSeparator(surname.charAt(i)))
+				own[part++] = surname.substring(i + 1);
+		return own;
+	}
+
+	/**
+	* A clubber with several names that start with the prefix is returned only once, at the first of those names.
+	*
+	* @return true if name is the smallest of the names that start with the prefix
+	*/
+	private static boolean isFirstMatch(String [] own, String prefix, String name)
+	{
+		for(String other : own)
+			if(other.startsWith(prefix) && other.compareTo(name) < 0)
+				return false;
+		return true;
+	}
+
+	private static boolean matchesAll(String [] own, String [] prefixes)
+	{
+		for(String prefix : prefixes)
+		{
+			boolean match = false;
+			for(String name : own)
+				match |= name.startsWith(prefix);
+			if(!match)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSeparator(char c)
+	{
+		return c == '-' || c == '\'';
+	}
+
+
+	/**
+	* This class is one page of search results.
+	*/
+	public static class Page
+	{
+		private final List<ClubberRecord> clubbers;
+		private final int offset;
+		private final boolean more;
+
+		Page(List<ClubberRecord> clubbers, int offset, boolean more)
+		{
+			this.clubbers = Collections.unmodifiableList(clubbers);
+			this.offset = offset;
+			this.more = more;
+		}
+
+		/**
+		* @return the clubbers of the page in rank order
+		*/
+		public List<ClubberRecord> getClubbers()
+		{
+			return clubbers;
+		}
+
+		/**
+		* @return number of matching clubbers before the page
+		*/
+		public int getOffset()
+		{
+			return offset;
+		}
+
+		/**
+		* @return true if more clubbers match after the page otherwise false
+		*/
+		public boolean hasMore()
+		{
+			return more;
+		}
+	}
+}
@@ -0,0 +1,485 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+* This class is a reverse lookup index of the clubbers by phone number.
+* A phone number in the +(972)54-1234567 format that {@link ClubberValidator#isTel} accepts is packed in a long,
+* the country code in bits 34 to 43, the area code in bits 24 to 33 and the subscriber number in bits 0 to 23,
+* so the numbers of a country or of an area are one range of longs.
+* The numbers are the keys of an open addressing hash table of primitive longs, so finding the owners of a number is O(1)
+* without a String or a boxed key per clubber, and a sorted array of the numbers is kept for the range queries
+* by country, area or the first digits of the subscriber. The array is sorted again on the first range query after
+* a number was added or removed.
+* <p>
+* Like {@link ClubberNameIndex} it follows the changes of the {@link ClubberRepository} as a listener from the time it is attached.
+* A number usually has one owner, the owners of a number that several clubbers share are kept in a {@link TreeMap} by id.
+* A read write lock guards the table: lookups share it, changes and the sorting of the range array take it exclusively.
+*/
+public class ClubberPhoneIndex implements ClubberRepository.Listener
+{
+	private static final int COUNTRY_SHIFT = 34;
+	private static final int AREA_SHIFT = 24;
+	private static final long CODE_MASK = 0x3ff;
+	private static final long SUBSCRIBER_MASK = 0xffffff;
+	private static final int SUBSCRIBER_DIGITS = 7;
+	private static final int MIN_CAPACITY = 1024;
+
+	private final ReentrantReadWriteLock lock;
+	//open addressing with linear probing, 0 marks a free slot since no encoded number is 0
+	private long [] numbers;
+	//a ClubberRecord, or a TreeMap of id to ClubberRecord when the number has several owners
+	private Object [] owners;
+	private int size;
+	//the numbers in ascending order, null when a number was added or removed since it was sorted
+	private long [] sorted;
+
+
+	/**
+	* Parameterless constructor - creates an empty index.
+	*/
+	private ClubberPhoneIndex()
+	{
+		lock = new ReentrantReadWriteLock();
+		numbers = new long[MIN_CAPACITY];
+		owners = new Object[MIN_CAPACITY];
+	}
+
+	/**
+	* This method creates an index of a repository that is kept current through its changes,
+	* the clubbers already in the repository are indexed before it returns.
+	*
+	* @param repository the repository to index
+	* @return the index
+	*/
+	public static ClubberPhoneIndex attach(ClubberRepository repository)
+	{
+		ClubberPhoneIndex index = new ClubberPhoneIndex();
+		index.lock.writeLock().lock();
+		try
+		{
+			//the changes made from now on wait for the lock and are applied over the snapshot,
+			//the changes made before are in the snapshot
+			repository.addListener(index);
+			for(ClubberRecord clubber : repository.snapshot())
+				index.add(clubber);
+		}finally
+		{
+			index.lock.writeLock().unlock();
+		}
+		return index;
+	}
+
+	@Override
+	public void changed(ClubberRecord removed, ClubberRecord added)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			if(removed != null)
+				remove(removed);
+			if(added != null)
+				add(added);
+		}finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void cleared()
+	{
+		lock.writeLock().lock();
+		try
+		{
+			numbers = new long[MIN_CAPACITY];
+			owners = new Object[MIN_CAPACITY];
+			size = 0;
+			sorted = null;
+		}finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	* This method finds the clubbers that own a phone number.
+	*
+	* @param tel the phone number in the +(972)54-1234567 format
+	* @return the owners by id, empty if the number is not valid or nobody owns it
+	*/
+	public List<ClubberRecord> lookup(String tel)
+	{
+		ArrayList<ClubberRecord> found = new ArrayList<>(1);
+		long number = encode(tel);
+		if(number < 0)
+			return found;
+		lock.readLock().lock();
+		try
+		{
+			found.addAll(owners(owners[find(number)]));
+		}finally
+		{
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	* This method finds the clubbers whose phone numbers start with a prefix:
+	* the country code as +(972), the area code as +(972)54 or +(972)54-,
+	* or the first digits of the subscriber number as +(972)54-123. A full number finds its owners.
+	* The clubbers are returned in the order of their numbers, the owners of one number by id.
+	*
+	* @param prefix the prefix
+	* @param offset number of matching clubbers to skip
+	* @param limit maximal number of clubbers to return
+	* @return the page of matching clubbers, empty if the prefix is not valid
+	*/
+	public ClubberNameIndex.Page search(String prefix, int offset, int limit)
+	{
+		ArrayList<ClubberRecord> found = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+		long [] range = prefixRange(prefix);
+		if(range == null || limit <= 0)
+			return new ClubberNameIndex.Page(found, offset, false);
+		long [] numbers = sortedNumbers();
+		int skipped = 0;
+		lock.readLock().lock();
+		try
+		{
+			for(int i = lowerBound(numbers, range[0]); i < numbers.length && numbers[i] < range[1]; i++)
+				for(ClubberRecord clubber : owners(owners[find(numbers[i])]))
+				{
+					if(skipped < offset)
+						skipped++;
+					else if(found.size() == limit)
+						return new ClubberNameIndex.Page(found, offset, true);
+					else found.add(clubber);
+				}
+		}finally
+		{
+			lock.readLock().unlock();
+		}
+		return new ClubberNameIndex.Page(found, offset, false);
+	}
+
+	/**
+	* @return number of distinct phone numbers in the index
+	*/
+	public int size()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return size;
+		}finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	* This method packs a phone number in a long.
+	*
+	* @param tel the phone number
+	* @return the packed number, or -1 if the number is not in the +(972)54-1234567 format
+	*/
+	public static long encode(CharSequence tel)
+	{
+		if(!ClubberValidator.isTel(tel))
+			return -1;
+		int close = 2;
+		while(tel.charAt(close) != ')')
+			close++;
+		int dash = close + 1;
+		while(tel.charAt(dash) != '-')
+			dash++;
+		return parse(tel, 2, close) << COUNTRY_SHIFT | parse(tel, close + 1, dash) << AREA_SHIFT | parse(tel, dash + 1, tel.length());
+	}
+
+	/**
+	* This method unpacks a phone number.
+	*
+	* @param number a number packed by {@link #encode}
+	* @return the phone number in the +(972)54-1234567 format
+	*/
+	public static String decode(long number)
+	{
+		return "+(" + (number >>> COUNTRY_SHIFT) + ")" + (number >>> AREA_SHIFT & CODE_MASK) + "-" + (number & SUBSCRIBER_MASK);
+	}
+
+	/**
+	* This method returns the range of packed numbers that start with a prefix.
+	*
+	* @param prefix +(country), +(country)area, +(country)area- or +(country)area-digits
+	* @return the first number of the range and the first number after it, or null if the prefix is not valid
+	*/
+	static long[] prefixRange(String prefix)
+	{
+		String tel = prefix.trim();
+		int close = tel.indexOf(')');
+		if(!tel.startsWith("+(") || close < 0 || !isCode(tel, 2, close))
+			return null;
+		long country = parse(tel, 2, close);
+		if(close + 1 == tel.length())
+			return new long[]{country << COUNTRY_SHIFT, country + 1 << COUNTRY_SHIFT};
+		int dash = tel.indexOf('-', close);
+		int areaEnd = dash < 0 ? tel.length() : dash;
+		if(!isCode(tel, close + 1, areaEnd))
+			return null;
+		long area = country << COUNTRY_SHIFT | parse(tel, close + 1, areaEnd) << AREA_SHIFT;
+		int digits = dash < 0 ? 0 : tel.length() - dash - 1;
+		if(digits == 0)
+			return new long[]{area, area + (1L << AREA_SHIFT)};
+		if(digits > SUBSCRIBER_DIGITS || tel.charAt(dash + 1) == '0' || !isDigits(tel, dash + 1, tel.length()))
+			return null;
+		long scale = 1;
+		for(int i = digits; i < SUBSCRIBER_DIGITS; i++)
+			scale *= 10;
+		long first = parse(tel, dash + 1, tel.length());
+		return new long[]{area | first * scale, area | (first + 1) * scale};
+	}
+
+	/**
+	* This method returns the ranges of packed numbers whose text starts with a prefix character by character.
+	* Unlike in {@link #prefixRange} a code that is cut short stands for every code that starts with it,
+	* +(97 for the countries 97 and 970 to 979, +(972)5 for the areas 5, 50 to 59 and 500 to 599.
+	*
+	* @param prefix the first characters of a phone number in the +(972)54-1234567 format
+	* @return the first number and the first number after every range, empty if no valid number starts with the prefix
+	*/
+	static long[] textRanges(String prefix)
+	{
+		if(prefix.equals("+"))
+			return codeRanges(prefix, 1, 1, COUNTRY_SHIFT, 0);
+		if(!prefix.startsWith("+("))
+			return new long[0];
+		int close = prefix.indexOf(')');
+		if(close < 0)
+			return codeRanges(prefix, 2, prefix.length(), COUNTRY_SHIFT, 0);
+		if(!isCode(prefix, 2, close))
+			return new long[0];
+		if(prefix.indexOf('-', close) < 0)
+			return codeRanges(prefix, close + 1, prefix.length(), AREA_SHIFT, parse(prefix, 2, close) << COUNTRY_SHIFT);
+		long [] range = prefixRange(prefix);
+		return range == null ? new long[0] : range;
+	}
+
+	/**
+	* This method adds a clubber to the owners of its number, the caller holds the write lock.
+	*
+	* @param clubber the clubber
+	*/
+	private void add(ClubberRecord clubber)
+	{
+		long number = encode(clubber.get(ClubberRecord.TEL));
+		if(number < 0)
+			return;
+		int slot = find(number);
+		Object owner = owners[slot];
+		if(owner == null)
+		{
+			numbers[slot] = number;
+			owners[slot] = clubber;
+			sorted = null;
+			if(++size * 2 > numbers.length)
+				resize(numbers.length * 2);
+		}else if(owner instanceof ClubberRecord)
+		{
+			ClubberRecord other = (ClubberRecord)owner;
+			if(!other.getId().equals(clubber.getId()))
+			{
+				TreeMap<String, ClubberRecord> shared = new TreeMap<>();
+				shared.put(other.getId(), other);
+				shared.put(clubber.getId(), clubber);
+				owners[slot] = shared;
+			}else owners[slot] = clubber;
+		}else
+		{
+			@SuppressWarnings("unchecked")
+			TreeMap<String, ClubberRecord> shared = (TreeMap<String, ClubberRecord>)owner;
+			shared.put(clubber.getId(), clubber);
+		}
+	}
+
+	/**
+	* This method removes a record from the owners of its number if it is indexed, the caller holds the write lock.
+	*
+	* @param clubber the record
+	*/
+	private void remove(ClubberRecord clubber)
+	{
+		long number = encode(clubber.get(ClubberRecord.TEL));
+		if(number < 0)
+			return;
+		int slot = find(number);
+		Object owner = owners[slot];
+		if(owner instanceof TreeMap)
+		{
+			@SuppressWarnings("unchecked")
+			TreeMap<String, ClubberRecord> shared = (TreeMap<String, ClubberRecord>)owner;
+			shared.remove(clubber.getId(), clubber);
+			if(shared.size() == 1)
+				owners[slot] = shared.firstEntry().getValue();
+		}else if(owner == clubber)
+			delete(slot);
+	}
+
+	/**
+	* This method frees a slot, the later slots of its probe sequence are shifted back so no lookup stops early.
+	*/
+	private void delete(int slot)
+	{
+		int mask = numbers.length - 1;
+		int free = slot;
+		for(int next = free + 1 & mask; numbers[next] != 0; next = next + 1 & mask)
+		{
+			int home = hash(numbers[next], mask);
+			//the entry can move to the free slot if its home is not in the cyclic range (free, next]
+			if((next > free && (home <= free || home > next)) || (next < free && home <= free && home > next))
+			{
+				numbers[free] = numbers[next];
+				owners[free] = owners[next];
+				free = next;
+			}
+		}
+		numbers[free] = 0;
+		owners[free] = null;
+		size--;
+		sorted = null;
+	}
+
+	/**
+	* @return the slot of the number, or the free slot it would be added at
+	*/
+	private int find(long number)
+	{
+		int mask = numbers.length - 1;
+		int slot = hash(number, mask);
+		while(numbers[slot] != 0 && numbers[slot] != number)
+			slot = slot + 1 & mask;
+		return slot;
+	}
+
+	private static int hash(long number, int mask)
+	{
+		long mixed = number * 0x9E3779B97F4A7C15L;
+		return (int)(mixed ^ mixed >>> 32) & mask;
+	}
+
+	private void resize(int capacity)
+	{
+		long [] oldNumbers = numbers;
+		Object [] oldOwners = owners;
+		numbers = new long[capacity];
+		owners = new Object[capacity];
+		for(int i = 0; i < oldNumbers.length; i++)
+			if(oldNumbers[i] != 0)
+			{
+				int slot = find(oldNumbers[i]);
+				numbers[slot] = oldNumbers[i];
+				owners[slot] = oldOwners[i];
+			}
+	}
+
+	/**
+	* @return the numbers in ascending order, sorted again if a number was added or removed
+	*/
+	private long[] sortedNumbers()
+	{
+		lock.readLock().lock();
+		try
+		{
+			if(sorted != null)
+				return sorted;
+		}finally
+		{
+			lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try
+		{
+			if(sorted == null)
+			{
+				long [] all = new long[size];
+				int count = 0;
+				for(long number : numbers)
+					if(number != 0)
+						all[count++] = number;
+				Arrays.sort(all);
+				sorted = all;
+			}
+			return sorted;
+		}finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	* @param owner the content of an owner slot, a ClubberRecord, a TreeMap of them or null
+	* @return the owners by id
+	*/
+	private static Collection<ClubberRecord> owners(Object owner)
+	{
+		if(owner == null)
+			return Collections.emptyList();
+		if(owner instanceof ClubberRecord)
+			return Collections.singletonList((ClubberRecord)owner);
+		@SuppressWarnings("unchecked")
+		TreeMap<String, ClubberRecord> shared = (TreeMap<String, ClubberRecord>)owner;
+		return shared.values();
+	}
+
+	private static int lowerBound(long [] numbers, long number)
+	{
+		int index = Arrays.binarySearch(numbers, number);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/**
+	* @return true if the characters from start to end are a code of 1 to 3 digits that doesn't start with 0
+	*/
+	private static boolean isCode(CharSequence value, int start, int end)
+	{
+		return end - start >= 1 && end - start <= 3 && value.charAt(start) != '0' && isDigits(value, start, end);
+	}
+
+	/**
+	* @return the ranges of the packed numbers whose code at the shift starts with the digits from start to end,
+	*         with base in the bits above the code
+	*/
+	private static long[] codeRanges(CharSequence value, int start, int end, int shift, long base)
+	{
+		int digits = end - start;
+		if(digits == 0)
+			return new long[]{base | 1L << shift, base | 1000L << shift};
+		if(digits > 3 || value.charAt(start) == '0' || !isDigits(value, start, end))
+			return new long[0];
+		long first = parse(value, start, end);
+		//the codes of every length from the digits given to 3 digits
+		long [] ranges = new long[2 * (4 - digits)];
+		for(int i = 0, scale = 1; i < ranges.length; i += 2, scale *= 10)
+		{
+			ranges[i] = base | first * scale << shift;
+			ranges[i + 1] = base | (first + 1) * scale << shift;
+		}
+		return ranges;
+	}
+
+	private static boolean isDigits(CharSequence value, int start, int end)
+	{
+		for(int i = start; i < end; i++)
+			if(value.charAt(i) < '0' || value.charAt(i) > '9')
+				return false;
+		return true;
+	}
+
+	private static long parse(CharSequence value, int start, int end)
+	{
+		long number = 0;
+		for(int i = start; i < end; i++)
+			number = number * 10 + value.charAt(i) - '0';
+		return number;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+* This class is the plain data model of a committed clubber.
+* It holds only the committed field strings and the {@link ClubberType} of the clubber:
+* id, name, surname and phone-number, plus the personal number of a soldier or the student id of a student.
+* Records are immutable, committing an edit in a {@link ClubAbstractEntity} frame creates a new record
+* that replaces the old one in the {@link ClubberRepository}.
+* The record provides the {@link #match} and {@link #getKeys} methods used to search the repository.
+*/
+public final class ClubberRecord
+{
+	public static final int ID = 0;
+	public static final int NAME = 1;
+	public static final int SURNAME = 2;
+	public static final int TEL = 3;
+	public static final int EXTRA = 4;
+	
+	private final ClubberType type;
+	private final String [] fields;
+	
+	
+	/**
+	* Constructor with the type of the clubber and its field values in the order
+	* id, name, surname, tel and the extra field of soldiers and students.
+	*
+	* @param type the clubber type
+	* @param fields the committed field values
+	* @throws IllegalArgumentException if the number of fields does not fit the type
+	*/
+	public ClubberRecord(ClubberType type, String... fields)
+	{
+		if(fields.length != type.getFieldCount())
+			throw new IllegalArgumentException(String.format("%s clubber has %d fields, got %d",
+				type.getTitle(), type.getFieldCount(), fields.length));
+		this.type = type;
+		this.fields = fields.clone();
+	}
+	
+	/**
+	* @return the clubber type
+	*/
+	public ClubberType getType()
+	{
+		return type;
+	}
+	
+	/**
+	* This method returns the value of a field.
+	*
+	* @param field index of the field, one of {@link #ID}, {@link #NAME}, {@link #SURNAME}, {@link #TEL}, {@link #EXTRA}
+	* @return the committed value
+	*/
+	public String get(int field)
+	{
+		return fields[field];
+	}
+	
+	/**
+	* @return number of fields of the record
+	*/
+	public int getFieldCount()
+	{
+		return fields.length;
+	}
+	
+	/**
+	* @return the person id
+	*/
+	public String getId()
+	{
+		return fields[ID];
+	}
+	
+	/**
+	* This method returns all the keys the clubber can be found by:
+	* the person id, and the digits of the personal number or student id if the type has one.
+	*
+	* @return the search keys of the clubber
+	*/
+	public String[] getKeys()
+	{
+		String subKey = fields.length > EXTRA ? type.subKey(fields[EXTRA]) : null;
+		if(subKey == null)
+			return new String[]{fields[ID]};
+		return new String[]{fields[ID], subKey};
+	}
+	
+	/**
+	* This method indicates whether the key matches the person id,
+	* or the digits (after the / character) of the soldier personal number or student id.
+	*
+	* @param key search key
+	* @return true if the key matches one of the clubbers keys otherwise false
+	*/
+	public boolean match(String key)
+	{
+		for(String own : getKeys())
+			if(own.equals(key))
+				return true;
+		return false;
+	}
+	
+	/**
+	* This method replaces the strings of the fields that are equal in the previous record of the clubber
+	* by the strings of that record, so the revisions a {@link ClubberHistory} keeps share one copy of every unchanged value.
+	* The values of the record don't change, but the method must be called before the record is shared with other threads.
+	*
+	* @param previous the previous record of the clubber, may be null
+	*/
+	void shareFields(ClubberRecord previous)
+	{
+		if(previous == null)
+			return;
+		for(int i = Math.min(fields.length, previous.fields.length) - 1; i >= 0; i--)
+			if(fields[i].equals(previous.fields[i]))
+				fields[i] = previous.fields[i];
+	}
+	
+	@Override
+	public String toString()
+	{
+		return type.getTitle() + "[" + String.join(", ", fields) + "]";
+	}
+}
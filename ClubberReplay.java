@@ -0,0 +1,352 @@
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+* This class replays door traffic against the clubbers database to size the hardware it runs on.
+* A replay is a sequence of requests, each one is a lookup of a clubber at the door, an edit of a clubber, or the creation of a new one,
+* mixed in configurable shares. The clubbers are picked with a Zipf distribution, regulars come much more often than others,
+* and a share of the lookups are of people who are not clubbers yet. Every request is derived from the seed and its number,
+* so a replay with the same settings sends the same requests.
+* <p>
+* The requests are fired at a fixed rate whatever the latency of the database is (an open loop),
+* the latency of a request is measured from the time it was due, not from the time it was sent,
+* so a stall shows in the histograms as the delay of all the requests that were due during it.
+* A rate of 0 fires every request as soon as a worker is free.
+* <p>
+* The target is a {@link ClubberEngine} in this JVM, or a {@link ClubberServer} over HTTP.
+*/
+public class ClubberReplay
+{
+	public static final String LOOKUP = "lookup";
+	public static final String CREATE = "create";
+	public static final String EDIT = "edit";
+
+	private final Target target;
+	private final ClubberRecord [] clubbers;
+	private final ClubberGenerator generator;
+	private final long seed;
+	private final Zipf skew;
+	private int createPercent;
+	private int editPercent;
+	private int missPercent;
+
+
+	/**
+	* Constructor with the target and the clubbers to replay traffic of,
+	* 90% of the requests are lookups, 8% edits and 2% creates by default, and 5% of the lookups miss.
+	*
+	* @param target the database to send the requests to
+	* @param clubbers the clubbers that come to the door, they are shuffled into a popularity order
+	* @param seed the seed of the replay
+	* @param exponent exponent of the Zipf distribution of the clubbers, 0 for uniform, around 1 for a typical club
+	* @throws IllegalArgumentException if there are no clubbers
+	*/
+	public ClubberReplay(Target target, Collection<ClubberRecord> clubbers, long seed, double exponent)
+	{
+		if(clubbers.isEmpty())
+			throw new IllegalArgumentException("The replay needs clubbers in the database, generate or import some first");
+		this.target = target;
+		this.clubbers = clubbers.toArray(new ClubberRecord[0]);
+		this.seed = seed;
+		generator = new ClubberGenerator(seed);
+		skew = new Zipf(this.clubbers.length, exponent);
+		SplittableRandom random = new SplittableRandom(seed);
+		for(int i = this.clubbers.length - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			ClubberRecord swap = this.clubbers[i];
+			this.clubbers[i] = this.clubbers[j];
+			this.clubbers[j] = swap;
+		}
+		createPercent = 2;
+		editPercent = 8;
+		missPercent = 5;
+	}
+
+	/**
+	* This method sets the shares of the requests.
+	*
+	* @param createPercent percent of the requests that create a clubber
+	* @param editPercent percent of the requests that edit a clubber, the rest are lookups
+	* @param missPercent percent of the lookups of people who are not clubbers
+	* @return this replay
+	* @throws IllegalArgumentException if the percents are out of range
+	*/
+	public ClubberReplay setMix(int createPercent, int editPercent, int missPercent)
+	{
+		if(createPercent < 0 || editPercent < 0 || createPercent + editPercent > 100 || missPercent < 0 || missPercent > 100)
+			throw new IllegalArgumentException("the percents must be between 0 and 100");
+		this.createPercent = createPercent;
+		this.editPercent = editPercent;
+		this.missPercent = missPercent;
+		return this;
+	}
+
+	/**
+	* This method replays the traffic and reports it.
+	*
+	* @param rate requests per second, 0 to send them as fast as the workers can
+	* @param requests number of requests
+	* @param workers number of requests in flight at most
+	* @param out receives the report
+	* @return the latency histogram of every request kind
+	* @throws InterruptedException if the replay is interrupted
+	*/
+	public Map<String, LatencyHistogram> run(double rate, long requests, int workers, PrintStream out) throws InterruptedException
+	{
+		LinkedHashMap<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+		LinkedHashMap<String, ConcurrentHashMap<Integer, LongAdder>> statuses = new LinkedHashMap<>();
+		for(String kind : new String[]{LOOKUP, EDIT, CREATE})
+		{
+			latencies.put(kind, new LatencyHistogram());
+			statuses.put(kind, new ConcurrentHashMap<>());
+		}
+		//the ids of new clubbers start far after the ids of a generated database
+		long created = 1L << 32;
+		AtomicLong next = new AtomicLong();
+		LongAdder failures = new LongAdder();
+		double interval = rate > 0 ? 1e9 / rate : 0;
+		ExecutorService threads = ClubberServer.newExecutor(workers);
+		CountDownLatch done = new CountDownLatch(workers);
+		long start = System.nanoTime();
+		for(int w = 0; w < workers; w++)
+			threads.execute(() -> {
+				try
+				{
+					for(long n = next.getAndIncrement(); n < requests; n = next.getAndIncrement())
+					{
+						long due = start + (long)(n * interval);
+						long wait = due - System.nanoTime();
+						if(wait > 0)
+							LockSupport.parkNanos(wait);
+						if(interval == 0)
+							due = System.nanoTime();
+						SplittableRandom random = new SplittableRandom(seed ^ n * 0x9E3779B97F4A7C15L);
+						int choice = random.nextInt(100);
+						String kind = choice < createPercent ? CREATE : choice < createPercent + editPercent ? EDIT : LOOKUP;
+						int status;
+						try
+						{
+							status = send(kind, random, created + n);
+						}catch(IOException e)
+						{
+							failures.increment();
+							continue;
+						}
+						latencies.get(kind).recordSince(due);
+						statuses.get(kind).computeIfAbsent(status, key -> new LongAdder()).increment();
+					}
+				}catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}finally
+				{
+					done.countDown();
+				}
+			});
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		threads.shutdownNow();
+
+		out.printf(Locale.ROOT, "replay rate=%s requests=%d workers=%d clubbers=%d failures=%d seconds=%.2f throughput=%.0f/s%n",
+			rate > 0 ? String.format(Locale.ROOT, "%.0f/s", rate) : "max", requests, workers, clubbers.length, failures.sum(),
+			seconds, (requests - failures.sum()) / seconds);
+		for(String kind : latencies.keySet())
+		{
+			TreeMap<Integer, Long> counts = new TreeMap<>();
+			statuses.get(kind).forEach((status, count) -> counts.put(status, count.sum()));
+			out.printf("%-6s %s statuses=%s%n", kind, latencies.get(kind), counts);
+		}
+		return latencies;
+	}
+
+	/**
+	* This method sends one request.
+	*
+	* @param kind the kind of request
+	* @param random the source of the request
+	* @param number number of the clubber a create makes
+	* @return the status of the response
+	*/
+	private int send(String kind, SplittableRandom random, long number) throws IOException, InterruptedException
+	{
+		if(kind.equals(CREATE))
+			return target.create(generator.generate(number));
+		ClubberRecord clubber = clubbers[skew.sample(random) - 1];
+		if(kind.equals(EDIT))
+		{
+			String [] fields = new String[clubber.getFieldCount()];
+			for(int i = 0; i < fields.length; i++)
+				fields[i] = clubber.get(i);
+			fields[ClubberRecord.TEL] = ClubberGenerator.tel(random);
+			return target.update(new ClubberRecord(clubber.getType(), fields));
+		}
+		if(random.nextInt(100) < missPercent)
+			//check digit 0 is never valid, so nobody owns the id
+			return target.lookup(ClubberGenerator.id(random.nextLong()).substring(0, 10) + "0");
+		String [] keys = clubber.getKeys();
+		return target.lookup(keys[random.nextInt(keys.length)]);
+	}
+
+	/**
+	* This method creates a target that calls an engine in this JVM.
+	*
+	* @param engine the loaded engine
+	* @return the target
+	*/
+	public static Target forEngine(ClubberEngine engine)
+	{
+		return new Target() {
+			public int lookup(String key)
+			{
+				return engine.search(key) != null ? 200 : 404;
+			}
+
+			public int create(ClubberRecord clubber) throws IOException
+			{
+				return engine.create(clubber) == null ? 201 : 409;
+			}
+
+			public int update(ClubberRecord clubber) throws IOException
+			{
+				ClubberRecord old = engine.getById(clubber.getId());
+				if(old == null)
+					return 404;
+				return engine.store(old, clubber) == null ? 200 : 409;
+			}
+		};
+	}
+
+	/**
+	* This method creates a target that sends HTTP requests to a {@link ClubberServer}.
+	*
+	* @param base the URI of the clubbers resource, http://host:port/clubbers
+	* @return the target
+	*/
+	public static Target forHttp(URI base)
+	{
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		String clubbers = base.toString().replaceFirst("/$", "");
+		return new Target() {
+			public int lookup(String key) throws IOException, InterruptedException
+			{
+				return send(HttpRequest.newBuilder(URI.create(clubbers + "/" + URLEncoder.encode(key, StandardCharsets.UTF_8))));
+			}
+
+			public int create(ClubberRecord clubber) throws IOException, InterruptedException
+			{
+				return send(HttpRequest.newBuilder(URI.create(clubbers)).POST(HttpRequest.BodyPublishers.ofString(ClubberJson.toJson(clubber))));
+			}
+
+			public int update(ClubberRecord clubber) throws IOException, InterruptedException
+			{
+				return send(HttpRequest.newBuilder(URI.create(clubbers + "/" + URLEncoder.encode(clubber.getId(), StandardCharsets.UTF_8)))
+					.PUT(HttpRequest.BodyPublishers.ofString(ClubberJson.toJson(clubber))));
+			}
+
+			private int send(HttpRequest.Builder request) throws IOException, InterruptedException
+			{
+				return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+			}
+		};
+	}
+
+
+	/**
+	* This interface is the database a replay sends its requests to.
+	* Every request returns the HTTP status of its outcome: 200 found or updated, 201 created, 404 not found and 409 key taken.
+	*/
+	public interface Target
+	{
+		/**
+		* @param key a search key
+		* @return 200 or 404
+		*/
+		int lookup(String key) throws IOException, InterruptedException;
+
+		/**
+		* @param clubber a new clubber
+		* @return 201 or 409
+		*/
+		int create(ClubberRecord clubber) throws IOException, InterruptedException;
+
+		/**
+		* @param clubber the new record of a clubber
+		* @return 200, 404 or 409
+		*/
+		int update(ClubberRecord clubber) throws IOException, InterruptedException;
+	}
+
+	/**
+	* This class samples ranks 1 to n with a Zipf distribution, P(k) proportional to 1/k^exponent,
+	* by the rejection-inversion method of Hormann and Derflinger, in constant time and memory.
+	*/
+	private static class Zipf
+	{
+		private final int n;
+		private final double exponent;
+		private final double hIntegralX1;
+		private final double hIntegralN;
+		private final double s;
+
+		Zipf(int n, double exponent)
+		{
+			this.n = n;
+			this.exponent = exponent;
+			hIntegralX1 = hIntegral(1.5) - 1;
+			hIntegralN = hIntegral(n + 0.5);
+			s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+		}
+
+		int sample(SplittableRandom random)
+		{
+			if(exponent == 0)
+				return 1 + random.nextInt(n);
+			while(true)
+			{
+				double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+				double x = hIntegralInverse(u);
+				int k = (int)Math.max(1, Math.min(n, x + 0.5));
+				if(k - x <= s || u >= hIntegral(k + 0.5) - h(k))
+					return k;
+			}
+		}
+
+		private double h(double x)
+		{
+			return Math.exp(-exponent * Math.log(x));
+		}
+
+		private double hIntegral(double x)
+		{
+			double log = Math.log(x);
+			return helper2((1 - exponent) * log) * log;
+		}
+
+		private double hIntegralInverse(double x)
+		{
+			double t = Math.max(-1, x * (1 - exponent));
+			return Math.exp(helper1(t) * x);
+		}
+
+		//log(1 + x) / x, accurate near 0
+		private static double helper1(double x)
+		{
+			return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+		}
+
+		//(exp(x) - 1) / x, accurate near 0
+		private static double helper2(double x)
+		{
+			return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+		}
+	}
+}
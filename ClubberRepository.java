@@ -0,0 +1,695 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+* This class is the night club clubbers repository.
+* It holds the committed {@link ClubberRecord} of every clubber,
+* and keeps a {@link ClubberIndex} of all clubber keys current through every {@link #store} and {@link #remove}.
+* The repository has no GUI dependency, editor frames only read records from it and store new ones into it.
+* <p>
+* The repository is shared by several threads, such as door terminals checking clubbers in at the same time.
+* Searches never lock: the key index and the id map are {@link ConcurrentHashMap}s.
+* Changes lock only the stripes of the keys they touch, always in stripe order,
+* so changes to different clubbers run in parallel while a {@link #commit} checks and claims
+* all the keys of a clubber, the id and the secondary key, as one atomic step.
+* <p>
+* Records are also kept in fixed size chunks of slots that are shared copy-on-write with {@link Snapshot} views:
+* taking a snapshot only copies the chunk references, and the first change to a chunk after a snapshot
+* copies that chunk, so a snapshot can be written on another thread while clubbers keep being committed.
+* The chunks are guarded by their own lock that is held only to place a record in its slot,
+* the records of a loaded batch are placed together, so threads loading in parallel take it once per batch.
+* <p>
+* Secondary indexes, such as the {@link ClubberNameIndex}, follow every change through a {@link Listener}.
+* A commit is journaled by a {@link Committer} while the stripes of the clubber are still locked,
+* so the changes of one clubber are journaled in the order they are applied.
+* <p>
+* While the database is loaded in the background ({@link #beginLoading} to {@link #finishLoading})
+* the records already loaded can be searched right away, and {@link #awaitSearch} waits for a key
+* only until it is loaded or the loading ends.
+*/
+public class ClubberRepository
+{
+	private static final int CHUNK_SIZE = 1024;
+	private static final int STRIPES = 64;
+
+	private final ConcurrentHashMap<String, ClubberRecord> byId;
+	private final ClubberIndex index;
+	private final ReentrantLock [] stripes;
+	//guards the chunks, the slots and the epochs
+	private final Object chunkLock = new Object();
+	//guards the waiting of awaitSearch
+	private final Object loadLock = new Object();
+	//id to slot of the record
+	private final HashMap<String, Integer> slots;
+	private ClubberRecord [][] chunks;
+	//snapshot epoch in which each chunk was last copied
+	private long [] chunkEpochs;
+	private long epoch;
+	private int slotCount;
+	private int [] freeSlots;
+	private int freeCount;
+	private volatile boolean loading;
+	private final CopyOnWriteArrayList<Listener> listeners;
+
+
+	/**
+	* This interface is notified of every change to the repository.
+	* It is called while the stripes of the keys of the changed clubber are locked,
+	* so the changes of one clubber arrive in order, and it must not call back into the repository.
+	*/
+	public interface Listener
+	{
+		/**
+		* @param removed the record that left the repository, null for a new clubber
+		* @param added the record that entered the repository, null if the clubber was removed
+		*/
+		void changed(ClubberRecord removed, ClubberRecord added);
+
+		/**
+		* This method is called when all the clubbers were removed by {@link ClubberRepository#clear}.
+		*/
+		void cleared();
+	}
+
+
+	/**
+	* This interface logs a commit, such as to the journal, as part of {@link ClubberRepository#commit}.
+	* It is called after the commit was applied and while the stripes of the keys of the clubber are still locked,
+	* so two commits of the same clubber are logged in the order they were applied. It must not call back into the repository.
+	*/
+	public interface Committer
+	{
+		/**
+		* @param previous the record the commit replaced, null for a new clubber
+		* @param updated the committed record
+		* @throws IOException if the commit can't be logged, the commit is then undone
+		*/
+		void committed(ClubberRecord previous, ClubberRecord updated) throws IOException;
+	}
+
+
+	/**
+	* Parameterless constructor - creates an empty repository.
+	*/
+	public ClubberRepository()
+	{
+		byId = new ConcurrentHashMap<>();
+		index = new ClubberIndex();
+		stripes = new ReentrantLock[STRIPES];
+		for(int i = 0; i < STRIPES; i++)
+			stripes[i] = new ReentrantLock();
+		slots = new HashMap<>();
+		chunks = new ClubberRecord[16][];
+		chunkEpochs = new long[16];
+		freeSlots = new int[16];
+		listeners = new CopyOnWriteArrayList<>();
+	}
+
+	/**
+	* This method registers a listener, it is notified of the changes made after it was added.
+	*
+	* @param listener the listener
+	*/
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	* This method searches the repository for a clubber by any of its keys.
+	*
+	* @param key the customer key
+	* @return the clubber if the search was successful otherwise null
+	*/
+	public ClubberRecord search(String key)
+	{
+		return index.get(key);
+	}
+
+	/**
+	* This method searches the repository for a clubber by any of its keys,
+	* while the database is loading it waits until the key is loaded or the loading ends.
+	*
+	* @param key the customer key
+	* @return the clubber if the search was successful otherwise null
+	* @throws InterruptedException if the thread is interrupted while waiting
+	*/
+	public ClubberRecord awaitSearch(String key) throws InterruptedException
+	{
+		ClubberRecord clubber = index.get(key);
+		if(clubber != null || !loading)
+			return clubber;
+		synchronized(loadLock)
+		{
+			while((clubber = index.get(key)) == null && loading)
+				loadLock.wait();
+		}
+		return clubber;
+	}
+
+	/**
+	* This method marks the start of a background load of the database.
+	*/
+	public void beginLoading()
+	{
+		loading = true;
+	}
+
+	/**
+	* This method marks the end of the background load and wakes the waiting searches.
+	*/
+	public void finishLoading()
+	{
+		synchronized(loadLock)
+		{
+			loading = false;
+			loadLock.notifyAll();
+		}
+	}
+
+	/**
+	* @return true while the database is loaded in the background
+	*/
+	public boolean isLoading()
+	{
+		return loading;
+	}
+
+	/**
+	* This method returns the clubber with the id.
+	*
+	* @param id the person id
+	* @return the record of the clubber, or null if there is none
+	*/
+	public ClubberRecord getById(String id)
+	{
+		return byId.get(id);
+	}
+
+	/**
+	* This method checks if a clubber other than the given one already owns the key.
+	* The answer may be outdated as soon as it is returned, {@link #commit} makes the same check atomically.
+	*
+	* @param key the key that is about to be committed
+	* @param self the committed record of the clubber being edited, null for a new clubber
+	* @return true if another clubber owns the key otherwise false
+	*/
+	public boolean isExists(String key, ClubberRecord self)
+	{
+		ClubberRecord clubber = index.get(key);
+		return clubber != null && clubber != self;
+	}
+
+	/**
+	* This method checks every key of a record, the id and the secondary key, against the keys of the other clubbers.
+	* The answer may be outdated as soon as it is returned, {@link #commit} makes the same check atomically.
+	*
+	* @param candidate the record that is about to be stored
+	* @param self the committed record of the same clubber, null for a new clubber
+	* @return a clubber other than self that owns one of the keys, or null if there is none
+	*/
+	public ClubberRecord findConflict(ClubberRecord candidate, ClubberRecord self)
+	{
+		for(String key : candidate.getKeys())
+		{
+			ClubberRecord clubber = index.get(key);
+			if(clubber != null && clubber != self)
+				return clubber;
+		}
+		ClubberRecord clubber = byId.get(candidate.getId());
+		return clubber != null && clubber != self ? clubber : null;
+	}
+
+	/**
+	* This method commits a clubber only if none of its keys, the id and the secondary key,
+	* belongs to another clubber. The keys are checked and claimed while their stripes are locked,
+	* so two threads can never commit clubbers that share a key.
+	*
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the new record of the clubber
+	* @return null if the clubber was committed, otherwise the clubber that owns one of its keys
+	*/
+	public ClubberRecord commit(ClubberRecord old, ClubberRecord updated)
+	{
+		return apply(old, updated, true, null, null);
+	}
+
+	/**
+	* This method commits a clubber like {@link #commit(ClubberRecord, ClubberRecord)} and logs the commit with the committer
+	* before the stripes are unlocked. If the committer fails the commit is undone before the listeners hear of it.
+	*
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the new record of the clubber
+	* @param committer logs the commit
+	* @return null if the clubber was committed, otherwise the clubber that owns one of its keys
+	* @throws IOException if the committer failed, the repository is then unchanged
+	*/
+	public ClubberRecord commit(ClubberRecord old, ClubberRecord updated, Committer committer) throws IOException
+	{
+		try
+		{
+			return apply(old, updated, true, committer, null);
+		}catch(UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	* This method stores a committed clubber, replacing the clubbers previous record if there was one.
+	* A record with the same id is replaced as well, keys owned by other clubbers stay with them.
+	* It is used to load and replay the database, new commits use {@link #commit}.
+	*
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the new record of the clubber
+	*/
+	public void store(ClubberRecord old, ClubberRecord updated)
+	{
+		apply(old, updated, false, null, null);
+	}
+
+	/**
+	* This method adds a loaded record to the repository,
+	* a record with the same id that was loaded before is replaced.
+	*
+	* @param clubber the record to add
+	*/
+	public void add(ClubberRecord clubber)
+	{
+		store(null, clubber);
+	}
+
+	/**
+	* This method adds all the records to the repository like {@link #add}, used when loading the database.
+	* Every record is indexed while its stripes are locked, then the records are placed in their slots
+	* with a single hold of the chunk lock, so several threads can load batches in parallel.
+	* A record replaced or removed by another thread in between is not placed, its slot is already current.
+	* Searches waiting for a key that is not loaded yet are woken to look again.
+	*
+	* @param loaded the records to add
+	*/
+	public void addAll(Collection<ClubberRecord> loaded)
+	{
+		ArrayList<ClubberRecord> stored = new ArrayList<>(loaded.size());
+		for(ClubberRecord clubber : loaded)
+			apply(null, clubber, false, null, stored);
+		synchronized(chunkLock)
+		{
+			for(ClubberRecord clubber : stored)
+				if(byId.get(clubber.getId()) == clubber)
+					place(clubber);
+		}
+		if(loading)
+			synchronized(loadLock)
+			{
+				loadLock.notifyAll();
+			}
+	}
+
+	/**
+	* This method adds new clubbers whose keys are all free, every clubber is added with {@link #commit},
+	* so a candidate that shares a key with a clubber of the repository or with an earlier candidate is not added.
+	*
+	* @param candidates the records of the new clubbers
+	* @return for every candidate in order, null if it was added, otherwise the clubber that owns one of its keys
+	*/
+	public ClubberRecord[] addAllAbsent(List<ClubberRecord> candidates)
+	{
+		ClubberRecord [] conflicts = new ClubberRecord[candidates.size()];
+		for(int i = 0; i < conflicts.length; i++)
+			conflicts[i] = commit(null, candidates.get(i));
+		return conflicts;
+	}
+
+	/**
+	* This method adds new clubbers whose keys are all free like {@link #addAllAbsent(List)}, every added clubber is logged by the committer.
+	*
+	* @param candidates the records of the new clubbers
+	* @param committer logs every added clubber
+	* @return for every candidate in order, null if it was added, otherwise the clubber that owns one of its keys
+	* @throws IOException if the committer failed, the candidates after the failed one are not added
+	*/
+	public ClubberRecord[] addAllAbsent(List<ClubberRecord> candidates, Committer committer) throws IOException
+	{
+		ClubberRecord [] conflicts = new ClubberRecord[candidates.size()];
+		for(int i = 0; i < conflicts.length; i++)
+			conflicts[i] = commit(null, candidates.get(i), committer);
+		return conflicts;
+	}
+
+	/**
+	* This method removes a clubber from the repository.
+	*
+	* @param clubber the record of the clubber
+	* @return true if the clubber was in the repository otherwise false
+	*/
+	public boolean remove(ClubberRecord clubber)
+	{
+		int [] locked = lock(clubber, null, null);
+		try
+		{
+			if(!byId.remove(clubber.getId(), clubber))
+				return false;
+			index.remove(clubber);
+			synchronized(chunkLock)
+			{
+				freeSlot(clubber.getId());
+			}
+			for(Listener listener : listeners)
+				listener.changed(clubber, null);
+			return true;
+		}finally
+		{
+			unlock(locked);
+		}
+	}
+
+	/**
+	* @return number of clubbers in the repository
+	*/
+	public int size()
+	{
+		return byId.size();
+	}
+
+	/**
+	* This method takes a consistent view of all the records in the repository.
+	* It takes time proportional to the number of chunks, not records,
+	* later changes to the repository are not visible in the view.
+	*
+	* @return the snapshot view
+	*/
+	public Snapshot snapshot()
+	{
+		synchronized(chunkLock)
+		{
+			epoch++;
+			return new Snapshot(Arrays.copyOf(chunks, (slotCount + CHUNK_SIZE - 1) / CHUNK_SIZE), slotCount, slots.size());
+		}
+	}
+
+	/**
+	* @return a copy of all the records in the repository
+	*/
+	public ArrayList<ClubberRecord> toList()
+	{
+		Snapshot snapshot = snapshot();
+		ArrayList<ClubberRecord> list = new ArrayList<>(snapshot.size());
+		snapshot.forEach(list::add);
+		return list;
+	}
+
+	/**
+	* This method removes all clubbers from the repository.
+	*/
+	public void clear()
+	{
+		for(ReentrantLock stripe : stripes)
+			stripe.lock();
+		try
+		{
+			synchronized(chunkLock)
+			{
+				byId.clear();
+				index.clear();
+				slots.clear();
+				chunks = new ClubberRecord[16][];
+				chunkEpochs = new long[16];
+				slotCount = 0;
+				freeCount = 0;
+			}
+			for(Listener listener : listeners)
+				listener.cleared();
+		}finally
+		{
+			for(ReentrantLock stripe : stripes)
+				stripe.unlock();
+		}
+	}
+
+	/**
+	* This method replaces the previous record of a clubber by the new one while the stripes of all their keys are locked.
+	*
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the new record
+	* @param strict true to store only if no other clubber owns a key of the new record
+	* @param committer logs the change before the stripes are unlocked, may be null
+	* @param deferred receives the new record instead of placing it in its slot, see {@link #addAll}, null to place it now
+	* @return null if the record was stored, otherwise the clubber that owns one of its keys
+	* @throws UncheckedIOException if the committer failed, the change is then undone
+	*/
+	private ClubberRecord apply(ClubberRecord old, ClubberRecord updated, boolean strict, Committer committer, List<ClubberRecord> deferred)
+	{
+		while(true)
+		{
+			ClubberRecord existing = byId.get(updated.getId());
+			int [] locked = lock(old, updated, existing);
+			try
+			{
+				//the stripe of the id is locked, so the record of the id can't change any more
+				if(byId.get(updated.getId()) != existing)
+					continue;
+				ClubberRecord previous = old != null && byId.get(old.getId()) == old ? old : null;
+				if(strict)
+				{
+					if(existing != null && existing != previous)
+						return existing;
+					for(String key : updated.getKeys())
+					{
+						ClubberRecord owner = index.get(key);
+						if(owner != null && owner != previous)
+							return owner;
+					}
+				}
+				byId.put(updated.getId(), updated);
+				if(previous != null && !previous.getId().equals(updated.getId()))
+					byId.remove(previous.getId(), previous);
+				index.replace(previous, existing, updated);
+				if(deferred != null)
+					deferred.add(updated);
+				else
+					synchronized(chunkLock)
+					{
+						if(previous != null && !previous.getId().equals(updated.getId()))
+							freeSlot(previous.getId());
+						place(updated);
+					}
+				if(committer != null)
+				{
+					try
+					{
+						committer.committed(previous, updated);
+					}catch(IOException e)
+					{
+						undo(previous, updated);
+						throw new UncheckedIOException(e);
+					}catch(RuntimeException e)
+					{
+						undo(previous, updated);
+						throw e;
+					}
+				}
+				for(Listener listener : listeners)
+				{
+					if(existing != null && existing != previous)
+						listener.changed(existing, null);
+					listener.changed(previous, updated);
+				}
+				return null;
+			}finally
+			{
+				unlock(locked);
+			}
+		}
+	}
+
+	/**
+	* This method puts the previous record of a strict commit back after its committer failed.
+	* Must be called holding the stripes of the commit, a strict commit replaced no record but the previous one.
+	*/
+	private void undo(ClubberRecord previous, ClubberRecord updated)
+	{
+		byId.remove(updated.getId(), updated);
+		if(previous == null)
+			index.remove(updated);
+		else
+		{
+			byId.put(previous.getId(), previous);
+			index.replace(updated, null, previous);
+		}
+		synchronized(chunkLock)
+		{
+			if(previous == null || !previous.getId().equals(updated.getId()))
+				freeSlot(updated.getId());
+			if(previous != null)
+				place(previous);
+		}
+	}
+
+	/**
+	* This method locks the stripes of all the keys of the records in stripe order.
+	*
+	* @return the locked stripes
+	*/
+	private int[] lock(ClubberRecord first, ClubberRecord second, ClubberRecord third)
+	{
+		int [] locked = new int[6];
+		int count = 0;
+		for(ClubberRecord clubber : new ClubberRecord[]{first, second, third})
+			if(clubber != null)
+				for(String key : clubber.getKeys())
+					locked[count++] = stripe(key);
+		Arrays.sort(locked, 0, count);
+		int distinct = 0;
+		for(int i = 0; i < count; i++)
+			if(distinct == 0 || locked[distinct - 1] != locked[i])
+				locked[distinct++] = locked[i];
+		locked = Arrays.copyOf(locked, distinct);
+		for(int stripe : locked)
+			stripes[stripe].lock();
+		return locked;
+	}
+
+	private void unlock(int [] locked)
+	{
+		for(int i = locked.length - 1; i >= 0; i--)
+			stripes[locked[i]].unlock();
+	}
+
+	/**
+	* @param key a clubber key
+	* @return the stripe that guards the key
+	*/
+	private static int stripe(String key)
+	{
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+
+	/**
+	* This method empties the slot of the id so it can be reused. Must be called holding chunkLock.
+	*/
+	private void freeSlot(String id)
+	{
+		Integer slot = slots.remove(id);
+		if(slot == null)
+			return;
+		write(slot, null);
+		if(freeCount == freeSlots.length)
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		freeSlots[freeCount++] = slot;
+	}
+
+	/**
+	* This method writes a record to the slot of its id, allocating a slot for a new id. Must be called holding chunkLock.
+	*/
+	private void place(ClubberRecord clubber)
+	{
+		Integer slot = slots.get(clubber.getId());
+		if(slot == null)
+		{
+			slot = allocateSlot();
+			slots.put(clubber.getId(), slot);
+		}
+		write(slot, clubber);
+	}
+
+	/**
+	* This method returns a free slot, reusing the slots of removed clubbers first. Must be called holding chunkLock.
+	*/
+	private int allocateSlot()
+	{
+		if(freeCount > 0)
+			return freeSlots[--freeCount];
+		int chunk = slotCount / CHUNK_SIZE;
+		if(chunk == chunks.length)
+		{
+			chunks = Arrays.copyOf(chunks, chunk * 2);
+			chunkEpochs = Arrays.copyOf(chunkEpochs, chunk * 2);
+		}
+		if(chunks[chunk] == null)
+		{
+			chunks[chunk] = new ClubberRecord[CHUNK_SIZE];
+			chunkEpochs[chunk] = epoch;
+		}
+		return slotCount++;
+	}
+
+	/**
+	* This method writes a slot, copying its chunk first if the chunk is shared with a snapshot.
+	* Must be called holding chunkLock.
+	*/
+	private void write(int slot, ClubberRecord clubber)
+	{
+		int chunk = slot / CHUNK_SIZE;
+		if(chunkEpochs[chunk] < epoch)
+		{
+			chunks[chunk] = chunks[chunk].clone();
+			chunkEpochs[chunk] = epoch;
+		}
+		chunks[chunk][slot % CHUNK_SIZE] = clubber;
+	}
+
+
+	/**
+	* This class is an immutable view of the repository at the time {@link ClubberRepository#snapshot} was called.
+	* It shares the chunks of the repository that were not changed since.
+	*/
+	public static class Snapshot implements Iterable<ClubberRecord>
+	{
+		private final ClubberRecord [][] chunks;
+		private final int slotCount;
+		private final int size;
+
+		private Snapshot(ClubberRecord [][] chunks, int slotCount, int size)
+		{
+			this.chunks = chunks;
+			this.slotCount = slotCount;
+			this.size = size;
+		}
+
+		/**
+		* @return number of records in the view
+		*/
+		public int size()
+		{
+			return size;
+		}
+
+		@Override
+		public Iterator<ClubberRecord> iterator()
+		{
+			return new Iterator<ClubberRecord>() {
+				private int slot = advance(0);
+
+				private int advance(int from)
+				{
+					while(from < slotCount && chunks[from / CHUNK_SIZE][from % CHUNK_SIZE] == null)
+						from++;
+					return from;
+				}
+
+				@Override
+				public boolean hasNext()
+				{
+					return slot < slotCount;
+				}
+
+				@Override
+				public ClubberRecord next()
+				{
+					if(!hasNext())
+						throw new NoSuchElementException();
+					ClubberRecord clubber = chunks[slot / CHUNK_SIZE][slot % CHUNK_SIZE];
+					slot = advance(slot + 1);
+					return clubber;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,430 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+* This class is the embedded HTTP/JSON service of the clubbers database, used by door scanners and the bar's POS.
+* It serves a {@link ClubberEngine} with the JDK {@link HttpServer}:
+* <pre>
+* GET  /clubbers/{key}     the clubber with the key, any key {@link ClubberRecord#match} accepts, 404 if there is none
+* GET  /clubbers?name=q    clubbers whose names start with the prefixes of q, ranked, with optional offset and limit parameters
+* GET  /clubbers?tel=t     owners of the phone number t, or of the numbers of a prefix such as +(972)54, with offset and limit
+* POST /clubbers           create a clubber from a JSON record, 201, or 400 if a field is invalid, or 409 if a key is taken
+* PUT  /clubbers/{id}      update the clubber with the id, 200, or 400, 404 or 409
+* POST /clubbers/lookup    bulk lookup of a JSON array of keys, returns an object of key to clubber or null
+* GET  /clubbers/metrics   the number of clubbers and the {@link ClubberMetrics} of the operations as a JSON object, for polling
+* POST /clubbers/checkins/{key}?door=d   check the clubber with the key in at door d, 200 with the clubber, or 404, or 409 if already inside
+* POST /clubbers/checkouts/{key}?door=d  check the clubber with the key out at door d, 200 with the clubber, or 404, or 409 if not inside
+* GET  /clubbers/occupancy the live occupancy of the club as a JSON object, see {@link ClubberCheckins#occupancy}
+* </pre>
+* Records are written and read by {@link ClubberJson}, invalid fields are found by {@link ClubberValidator}
+* with the same rules the editor frames validate with. Keys that hold a | are sent percent-encoded as %7C.
+* A request body larger than {@value #MAX_BODY} bytes is answered with 413, and a JSON body nested too deep with 400.
+* <p>
+* Every request runs on its own virtual thread when the JVM has them (Java 21 and later),
+* otherwise on a fixed pool of platform threads. {@link #loadTest} measures the latency of the service on localhost.
+* The launchers call {@link #enableNoDelay} in main, before any server is created, since the JDK server reads the setting once per JVM.
+*/
+public class ClubberServer implements Closeable
+{
+	public static final int DEFAULT_PORT = 8080;
+	private static final String CONTEXT = "/clubbers";
+	private static final int BACKLOG = 1024;
+	private static final int MAX_BULK = 1000;
+	public static final int MAX_BODY = 1 << 20;
+	private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private final ClubberEngine engine;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+
+	/**
+	* Constructor - binds the service to the address, it serves requests once {@link #start} is called.
+	*
+	* @param engine the loaded engine to serve
+	* @param address the address to listen on, port 0 for any free port
+	* @throws IOException if the address can't be bound
+	*/
+	public ClubberServer(ClubberEngine engine, InetSocketAddress address) throws IOException
+	{
+		this.engine = engine;
+		server = HttpServer.create(address, BACKLOG);
+		server.createContext(CONTEXT, this::handle);
+		executor = newExecutor(Math.max(64, 16 * Runtime.getRuntime().availableProcessors()));
+		server.setExecutor(executor);
+	}
+
+	/**
+	* This method turns on TCP_NODELAY for the JDK HTTP server of the whole JVM, unless the sun.net.httpserver.nodelay
+	* system property was given on the command line. Without it a response on a keep-alive connection
+	* waits for the delayed ack of the previous one. It must be called before the first server is created.
+	*/
+	public static void enableNoDelay()
+	{
+		if(System.getProperty(NODELAY_PROPERTY) == null)
+			System.setProperty(NODELAY_PROPERTY, "true");
+	}
+
+	/**
+	* This method starts serving requests.
+	*
+	* @return this server
+	*/
+	public ClubberServer start()
+	{
+		server.start();
+		return this;
+	}
+
+	/**
+	* @return the port the service listens on
+	*/
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	* This method stops the service, requests that are being served are given a second to complete.
+	*/
+	@Override
+	public void close()
+	{
+		server.stop(1);
+		executor.shutdownNow();
+	}
+
+	/**
+	* This method creates a virtual thread per task executor by reflection, so the class still runs on Java 17,
+	* or a fixed pool of platform threads when the JVM has no virtual threads.
+	*
+	* @param platformThreads size of the platform thread pool used without virtual threads
+	* @return the executor
+	*/
+	static ExecutorService newExecutor(int platformThreads)
+	{
+		try
+		{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException e)
+		{
+			return Executors.newFixedThreadPool(platformThreads, task -> {
+				Thread thread = new Thread(task, "clubber-http");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	* This method routes a request by its method and path.
+	* Any other runtime exception is answered with 500 and doesn't reach the JDK server, errors of the JVM are not caught.
+	*/
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+			String key = path.length() > CONTEXT.length() + 1 ? path.substring(CONTEXT.length() + 1) : "";
+			if(key.isEmpty() && method.equals("POST"))
+				create(exchange);
+			else if(key.isEmpty() && method.equals("GET"))
+				searchNames(exchange);
+			else if(key.equals("lookup") && method.equals("POST"))
+				bulkLookup(exchange);
+			else if(key.equals("metrics") && method.equals("GET"))
+				metrics(exchange);
+			else if(key.equals("occupancy") && method.equals("GET"))
+				occupancy(exchange);
+			else if(key.startsWith("checkins/") && method.equals("POST"))
+				checkIn(exchange, key.substring("checkins/".length()), true);
+			else if(key.startsWith("checkouts/") && method.equals("POST"))
+				checkIn(exchange, key.substring("checkouts/".length()), false);
+			else if(!key.isEmpty() && method.equals("GET"))
+				lookup(exchange, key);
+			else if(!key.isEmpty() && method.equals("PUT"))
+				update(exchange, key);
+			else send(exchange, 405, error("unsupported request " + method + " " + path));
+		}catch(TooLargeException e)
+		{
+			send(exchange, 413, error(e.getMessage()));
+		}catch(IllegalArgumentException e)
+		{
+			send(exchange, 400, error(e.getMessage()));
+		}catch(IOException e)
+		{
+			e.printStackTrace();
+			send(exchange, 500, error("clubbers database failed"));
+		}catch(RuntimeException e)
+		{
+			e.printStackTrace();
+			send(exchange, 500, error("internal error"));
+		}finally
+		{
+			exchange.close();
+		}
+	}
+
+	private void lookup(HttpExchange exchange, String key) throws IOException
+	{
+		ClubberRecord clubber = engine.search(key);
+		if(clubber == null)
+			send(exchange, 404, error("clubber with key " + key + " does not exist"));
+		else send(exchange, 200, ClubberJson.toJson(clubber));
+	}
+
+	private void searchNames(HttpExchange exchange) throws IOException
+	{
+		HashMap<String, String> parameters = parameters(exchange);
+		if(!parameters.containsKey("name") && !parameters.containsKey("tel"))
+			throw new IllegalArgumentException("expected a name or tel parameter");
+		int offset, limit;
+		try
+		{
+			offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+			limit = Math.min(Integer.parseInt(parameters.getOrDefault("limit", "20")), MAX_BULK);
+		}catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("offset and limit must be numbers");
+		}
+		ClubberNameIndex.Page page = parameters.containsKey("name") ? engine.searchNames(parameters.get("name"), offset, limit)
+			: engine.searchTel(parameters.get("tel"), offset, limit);
+		StringBuilder out = new StringBuilder("{\"offset\":").append(offset).append(",\"more\":").append(page.hasMore()).append(",\"clubbers\":[");
+		for(ClubberRecord clubber : page.getClubbers())
+		{
+			if(out.charAt(out.length() - 1) != '[')
+				out.append(',');
+			ClubberJson.write(clubber, out);
+		}
+		send(exchange, 200, out.append("]}").toString());
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException
+	{
+		StringBuilder out = new StringBuilder("{\"clubbers\":").append(engine.size());
+		for(Map.Entry<String, Long> metric : ClubberMetrics.get().snapshot().entrySet())
+			ClubberJson.quote(metric.getKey(), out.append(',')).append(':').append(metric.getValue());
+		send(exchange, 200, out.append('}').toString());
+	}
+
+	private void occupancy(HttpExchange exchange) throws IOException
+	{
+		StringBuilder out = new StringBuilder("{");
+		for(Map.Entry<String, Long> counter : engine.occupancy().entrySet())
+			ClubberJson.quote(counter.getKey(), out.length() > 1 ? out.append(',') : out).append(':').append(counter.getValue());
+		send(exchange, 200, out.append('}').toString());
+	}
+
+	private void checkIn(HttpExchange exchange, String key, boolean in) throws IOException
+	{
+		int door;
+		try
+		{
+			door = Integer.parseInt(parameters(exchange).getOrDefault("door", "0"));
+		}catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("door must be a number");
+		}
+		ClubberRecord clubber = engine.search(key);
+		if(clubber == null)
+			send(exchange, 404, error("clubber with key " + key + " does not exist"));
+		else if(in ? !engine.checkIn(clubber, door) : !engine.checkOut(clubber, door))
+			send(exchange, 409, error("clubber " + clubber.getId() + (in ? " is already inside" : " is not inside")));
+		else send(exchange, 200, ClubberJson.toJson(clubber));
+	}
+
+	private void bulkLookup(HttpExchange exchange) throws IOException
+	{
+		Object keys = ClubberJson.parse(readBody(exchange));
+		if(!(keys instanceof List))
+			throw new IllegalArgumentException("expected a JSON array of keys");
+		List<?> list = (List<?>)keys;
+		if(list.size() > MAX_BULK)
+			throw new IllegalArgumentException("at most " + MAX_BULK + " keys per lookup");
+		StringBuilder out = new StringBuilder(list.size() * 160 + 2).append('{');
+		for(Object key : list)
+		{
+			if(out.length() > 1)
+				out.append(',');
+			ClubberJson.quote(String.valueOf(key), out).append(':');
+			ClubberRecord clubber = engine.search(String.valueOf(key));
+			if(clubber == null)
+				out.append("null");
+			else ClubberJson.write(clubber, out);
+		}
+		send(exchange, 200, out.append('}').toString());
+	}
+
+	private void create(HttpExchange exchange) throws IOException
+	{
+		ClubberRecord clubber = ClubberJson.toRecord(ClubberJson.parse(readBody(exchange)));
+		ClubberRecord conflict = engine.create(clubber);
+		if(conflict != null)
+			send(exchange, 409, error("key already belongs to " + conflict.getId()));
+		else send(exchange, 201, ClubberJson.toJson(clubber));
+	}
+
+	private void update(HttpExchange exchange, String id) throws IOException
+	{
+		ClubberRecord updated = ClubberJson.toRecord(ClubberJson.parse(readBody(exchange)));
+		ClubberRecord old = engine.getById(id);
+		if(old == null)
+		{
+			send(exchange, 404, error("clubber with id " + id + " does not exist"));
+			return;
+		}
+		int invalid = ClubberValidator.validate(updated);
+		if(invalid != ClubberValidator.VALID)
+			throw new IllegalArgumentException(ClubberValidator.describe(updated.getType(), invalid));
+		ClubberRecord conflict = engine.store(old, updated);
+		if(conflict != null)
+			send(exchange, 409, error("key already belongs to " + conflict.getId()));
+		else send(exchange, 200, ClubberJson.toJson(updated));
+	}
+
+	private static HashMap<String, String> parameters(HttpExchange exchange)
+	{
+		HashMap<String, String> parameters = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if(query != null)
+			for(String parameter : query.split("&"))
+			{
+				int equals = parameter.indexOf('=');
+				if(equals > 0)
+					parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		return parameters;
+	}
+
+	/**
+	* This method reads the body of a request, at most {@value #MAX_BODY} bytes of it.
+	* A body whose Content-Length is larger is refused before it is read.
+	*
+	* @throws TooLargeException if the body is larger
+	*/
+	private static String readBody(HttpExchange exchange) throws IOException
+	{
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		try(InputStream in = exchange.getRequestBody())
+		{
+			if(length != null && Long.parseLong(length.trim()) > MAX_BODY)
+				throw new TooLargeException("the request body is larger than " + MAX_BODY + " bytes");
+			byte [] body = in.readNBytes(MAX_BODY + 1);
+			if(body.length > MAX_BODY)
+				throw new TooLargeException("the request body is larger than " + MAX_BODY + " bytes");
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String error(String message)
+	{
+		return ClubberJson.quote(message, new StringBuilder("{\"error\":")).append('}').toString();
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException
+	{
+		byte [] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+	/**
+	* This method load-tests a running service on localhost.
+	* The given number of clients, each on its own virtual or platform thread, send GET lookups of random keys
+	* of the engine back to back, and the latency of every request is recorded.
+	*
+	* @param engine the engine served, the keys to look up are taken from it
+	* @param port the port of the service on localhost
+	* @param clients number of concurrent clients
+	* @param requests total number of requests
+	* @param out receives the report
+	* @return the latencies of the successful requests
+	* @throws IOException if the engine has no clubbers
+	* @throws InterruptedException if the test is interrupted
+	*/
+	public static LatencyHistogram loadTest(ClubberEngine engine, int port, int clients, int requests, PrintStream out)
+		throws IOException, InterruptedException
+	{
+		ArrayList<String> keys = new ArrayList<>();
+		for(ClubberRecord clubber : engine.getRepository().snapshot())
+		{
+			keys.add(URLEncoder.encode(clubber.getId(), StandardCharsets.UTF_8));
+			if(keys.size() == 100000)
+				break;
+		}
+		if(keys.isEmpty())
+			throw new IOException("The load test needs clubbers in the database, import some first");
+
+		ExecutorService threads = newExecutor(clients);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		String base = "http://localhost:" + port + CONTEXT + "/";
+		LatencyHistogram latencies = new LatencyHistogram();
+		LongAdder failures = new LongAdder();
+		CountDownLatch done = new CountDownLatch(clients);
+		long start = System.nanoTime();
+		for(int c = 0; c < clients; c++)
+		{
+			int share = requests / clients + (c < requests % clients ? 1 : 0);
+			threads.execute(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try
+				{
+					for(int i = 0; i < share; i++)
+					{
+						HttpRequest request = HttpRequest.newBuilder(URI.create(base + keys.get(random.nextInt(keys.size())))).build();
+						long sent = System.nanoTime();
+						try
+						{
+							HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+							if(response.statusCode() == 200)
+								latencies.recordSince(sent);
+							else failures.increment();
+						}catch(IOException e)
+						{
+							failures.increment();
+						}
+					}
+				}catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}finally
+				{
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		threads.shutdownNow();
+		out.printf("clients=%d requests=%d failures=%d seconds=%.2f throughput=%.0f/s%n", clients, requests,
+			failures.sum(), seconds, latencies.getCount() / seconds);
+		out.println(latencies);
+		return latencies;
+	}
+
+
+	/**
+	* This class is the failure of a request whose body is larger than {@value #MAX_BODY} bytes, answered with 413.
+	*/
+	private static class TooLargeException extends IllegalArgumentException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private TooLargeException(String message)
+		{
+			super(message);
+		}
+	}
+}
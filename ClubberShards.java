@@ -0,0 +1,274 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.regex.*;
+
+
+/**
+* This class reads and writes the clubbers snapshot split in shard files by a hash of the clubber id.
+* The shards of BKCustomers.dat are BKCustomers.0.dat to BKCustomers.15.dat next to it, every shard is a {@link ClubberFile}.
+* <p>
+* A clubber is always in the shard of its id, so the shards don't overlap
+* and their records can be merged into the repository in any order.
+* The shards are read and written in parallel on a {@link ForkJoinPool}, one task per shard,
+* so loading and saving use all the cores and the disk bandwidth instead of one thread reading one stream.
+* Every shard is written in id order, so a single clubber is found by {@link #lookup} in one compressed block of one shard.
+* <p>
+* A write goes to temporary files that are renamed over the shards only after all of them are complete.
+* If the app stops between the renames some shards are newer than others,
+* the journal segments the snapshot folds are deleted only after the write, so replaying them makes the shards consistent again.
+* Shards of a larger shard count that are left over are deleted after the write.
+*/
+public class ClubberShards
+{
+	public static final int SHARD_COUNT = 16;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(Math.min(SHARD_COUNT, Runtime.getRuntime().availableProcessors()));
+
+	private final Path directory;
+	private final String base;
+	private final Pattern pattern;
+
+
+	/**
+	* This interface is the work of one shard.
+	*/
+	private interface ShardTask
+	{
+		/**
+		* @param shard index of the shard
+		* @return the amount of work done, added up over the shards
+		*/
+		long run(int shard) throws IOException;
+	}
+
+
+	/**
+	* Constructor with the snapshot file the shards belong to.
+	*
+	* @param dataFile the snapshot file, BKCustomers.dat
+	*/
+	public ClubberShards(Path dataFile)
+	{
+		directory = dataFile.toAbsolutePath().getParent();
+		base = dataFile.getFileName().toString().replaceFirst("\\.dat$", "");
+		pattern = Pattern.compile(Pattern.quote(base) + "\\.(\\d+)\\.dat");
+	}
+
+	/**
+	* This method returns the shard of a clubber id.
+	* It depends only on the id string, so it is the same in every run of the app.
+	*
+	* @param id the clubber id
+	* @param count number of shards
+	* @return index of the shard
+	*/
+	public static int shardOf(String id, int count)
+	{
+		int hash = id.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), count);
+	}
+
+	/**
+	* @param shard index of the shard
+	* @return the shard file
+	*/
+	public Path getFile(int shard)
+	{
+		return directory.resolve(base + "." + shard + ".dat");
+	}
+
+	/**
+	* @return the existing shard files in shard order
+	* @throws IOException if the directory can't be listed
+	*/
+	public List<Path> files() throws IOException
+	{
+		TreeMap<Integer, Path> files = new TreeMap<>();
+		try(DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+		{
+			for(Path entry : entries)
+			{
+				Matcher matcher = pattern.matcher(entry.getFileName().toString());
+				if(matcher.matches())
+					files.put(Integer.parseInt(matcher.group(1)), entry);
+			}
+		}
+		return new ArrayList<>(files.values());
+	}
+
+	/**
+	* @return number of records in all the shards, read from the headers
+	* @throws IOException if a shard can't be read
+	*/
+	public int count() throws IOException
+	{
+		int count = 0;
+		for(Path file : files())
+			count += ClubberFile.count(file);
+		return count;
+	}
+
+	/**
+	* @return size in bytes of all the shards
+	* @throws IOException if a shard can't be read
+	*/
+	public long size() throws IOException
+	{
+		long size = 0;
+		for(Path file : files())
+			size += Files.size(file);
+		return size;
+	}
+
+	/**
+	* This method reads all the shards in parallel and passes their records to the consumer in batches.
+	* The consumer is called by several threads at the same time, the batches of one shard arrive in file order.
+	* A batch list is reused after the consumer returns, so it must not be kept.
+	*
+	* @param batchSize number of records in a batch, the last batch of a shard may be smaller
+	* @param consumer receives the batches, must be thread safe
+	* @return number of records read
+	* @throws IOException if a shard can't be read, is not a clubbers database or is corrupted
+	*/
+	public int read(int batchSize, Consumer<List<ClubberRecord>> consumer) throws IOException
+	{
+		List<Path> files = files();
+		return (int)invoke(files.size(), shard -> {
+			ArrayList<ClubberRecord> batch = new ArrayList<>(batchSize);
+			int read = ClubberFile.read(files.get(shard), clubber -> {
+				batch.add(clubber);
+				if(batch.size() == batchSize)
+				{
+					consumer.accept(batch);
+					batch.clear();
+				}
+			});
+			if(!batch.isEmpty())
+				consumer.accept(batch);
+			return read;
+		});
+	}
+
+	/**
+	* This method writes the records to {@value #SHARD_COUNT} shards in parallel, replacing the previous shards.
+	* The records are split by shard in one pass first, then every shard task sorts the records of its shard by id,
+	* encodes and writes them.
+	*
+	* @param records the records to write, an immutable view such as a {@link ClubberRepository.Snapshot}
+	* @return number of bytes written
+	* @throws IOException if writing fails, the previous shards are then left intact
+	*/
+	public long write(Iterable<ClubberRecord> records) throws IOException
+	{
+		ArrayList<List<ClubberRecord>> split = new ArrayList<>(SHARD_COUNT);
+		for(int shard = 0; shard < SHARD_COUNT; shard++)
+			split.add(new ArrayList<>());
+		for(ClubberRecord clubber : records)
+			split.get(shardOf(clubber.getId(), SHARD_COUNT)).add(clubber);
+		long bytes = invoke(SHARD_COUNT, shard -> {
+			List<ClubberRecord> sorted = split.get(shard);
+			sorted.sort(Comparator.comparing(ClubberRecord::getId));
+			ClubberFile.Writer writer = new ClubberFile.Writer(temp(shard));
+			try
+			{
+				for(ClubberRecord clubber : sorted)
+					writer.append(clubber);
+				writer.close();
+			}finally
+			{
+				writer.abort();
+			}
+			return writer.getBytesWritten();
+		});
+		for(int shard = 0; shard < SHARD_COUNT; shard++)
+			Files.move(temp(shard), getFile(shard), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		List<Path> files = files();
+		for(Path stale : files.subList(Math.min(SHARD_COUNT, files.size()), files.size()))
+			Files.delete(stale);
+		return bytes;
+	}
+
+	/**
+	* This method finds the record of a clubber id in its shard, mapping the shard and inflating one block of it,
+	* see {@link ClubberFile#find}.
+	*
+	* @param id the clubber id
+	* @return the record of the id in the last snapshot, or null if it has none
+	* @throws IOException if the shard can't be read or is corrupted
+	*/
+	public ClubberRecord lookup(String id) throws IOException
+	{
+		Path file = getFile(shardOf(id, SHARD_COUNT));
+		return Files.exists(file) ? ClubberFile.find(file, id) : null;
+	}
+
+	/**
+	* @return the temporary file a shard is written to
+	*/
+	private Path temp(int shard)
+	{
+		return directory.resolve(base + "." + shard + ".dat.tmp");
+	}
+
+	/**
+	* This method runs a task for every shard on the fork/join pool and waits for all of them.
+	* The range of shards is split in halves until every task has one shard.
+	*
+	* @return the sum of the results of the tasks
+	*/
+	private static long invoke(int count, ShardTask task) throws IOException
+	{
+		if(count == 0)
+			return 0;
+		try
+		{
+			return POOL.invoke(new Split(0, count, task));
+		}catch(UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+
+	/**
+	* This class is a fork/join task over a range of shards.
+	*/
+	private static class Split extends RecursiveTask<Long>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final ShardTask task;
+
+		private Split(int from, int to, ShardTask task)
+		{
+			this.from = from;
+			this.to = to;
+			this.task = task;
+		}
+
+		@Override
+		protected Long compute()
+		{
+			if(to - from == 1)
+			{
+				try
+				{
+					return task.run(from);
+				}catch(IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+			int middle = (from + to) >>> 1;
+			Split low = new Split(from, middle, task);
+			low.fork();
+			long high = new Split(middle, to, task).compute();
+			return low.join() + high;
+		}
+	}
+}
@@ -0,0 +1,566 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+
+/**
+* This class persists the clubbers repository.
+* The database is the last snapshot, split in {@link ClubberShards} files by a hash of the clubber id,
+* plus the {@link ClubberJournal} of the commits and removals made since that snapshot.
+* The shards are loaded and written in parallel, one task per shard.
+* Every change is appended to the journal as it happens, so nothing is lost if the app stops unexpectedly
+* and closing the app doesn't rewrite the database.
+* When the journal grows past {@link #COMPACT_THRESHOLD}, periodically, or on demand it is compacted by {@link #snapshot}:
+* the journal is rotated, a copy-on-write view of the repository is written on a background thread
+* to temporary shard files that are atomically renamed over the shards,
+* and only then the folded journal segments are deleted.
+* A single BKCustomers.dat snapshot, written by earlier versions or by {@link ClubberGenerator}, is still loaded
+* and is converted to the shards while it is loaded.
+* The previous snapshot stays intact until the new one is complete, and neither the UI nor commits wait for it.
+* <p>
+* Every commit and removal is also added to the {@link ClubberHistory} with the time it is journaled with,
+* the history is written to BKCustomers.history with every snapshot and the journal entries after it are added to it on load.
+*/
+public class ClubberStorage implements Closeable
+{
+	public static final long COMPACT_THRESHOLD = 4L << 20;
+	public static final int LOAD_BATCH = 4096;
+
+	private final Path dataFile;
+	private final ClubberShards shards;
+	private final Path journalBase;
+	private final ClubberHistory history;
+	private final Path historyFile;
+	//held shared while a commit is journaled and added to the history, exclusive while the journal is rotated for a snapshot
+	private final ReentrantReadWriteLock rotation = new ReentrantReadWriteLock();
+	private volatile ClubberJournal journal;
+	//size of the segments replayed on load that no snapshot folded yet
+	private volatile long replayedBytes;
+	private final ScheduledExecutorService executor;
+	private Future<?> compaction;
+	private boolean closed;
+
+
+	/**
+	* Constructor with the snapshot file, the shards, the journal and the history are kept next to it.
+	* The history keeps the retention of the system properties, see {@link ClubberHistory#ClubberHistory()}.
+	*
+	* @param dataFile the snapshot file, BKCustomers.dat
+	*/
+	public ClubberStorage(Path dataFile)
+	{
+		this(dataFile, new ClubberHistory());
+	}
+
+	/**
+	* Constructor with the snapshot file and the history the commits are added to.
+	*
+	* @param dataFile the snapshot file, BKCustomers.dat
+	* @param history an empty history
+	*/
+	public ClubberStorage(Path dataFile, ClubberHistory history)
+	{
+		this.dataFile = dataFile;
+		this.history = history;
+		shards = new ClubberShards(dataFile);
+		String name = dataFile.getFileName().toString().replaceFirst("\\.dat$", "");
+		journalBase = dataFile.resolveSibling(name + ".journal");
+		historyFile = dataFile.resolveSibling(name + ".history");
+		executor = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "clubber-storage");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	* This method loads the database into the repository and opens the journal.
+	* A single BKCustomers.dat snapshot is read first if there is one, a legacy serialized file is migrated using {@link LegacyClubberReader},
+	* copied to the .legacy extension and replaced by a new snapshot.
+	* Then the shards are read in parallel and merged into the repository, they replace records of the single snapshot with the same id.
+	* Then the remaining journal segments are replayed on top of the snapshot in order, and added to the history read before the snapshot,
+	* they are kept and replayed again by the next load until they pass {@link #COMPACT_THRESHOLD} together with the new commits,
+	* and are then folded into a new snapshot in the background, so a short run doesn't rewrite the database.
+	* A single snapshot is converted to the shards before this method returns, folding the journal with it,
+	* so it is converted only once even if the app exits right after the load.
+	*
+	* @param repository the empty repository to load into
+	* @throws IOException if the database can't be read or the journal can't be opened
+	*/
+	public void load(ClubberRepository repository) throws IOException
+	{
+		load(repository, loaded -> {});
+	}
+
+	/**
+	* This method loads the database into the repository like {@link #load(ClubberRepository)},
+	* the snapshot records are added in batches of {@link #LOAD_BATCH} so they can be searched while the rest is loading.
+	* The shards are loaded by several threads, so the progress may be reported by several threads.
+	*
+	* @param repository the empty repository to load into
+	* @param progress receives the number of snapshot records loaded after every batch
+	* @throws IOException if the database can't be read or the journal can't be opened
+	*/
+	public void load(ClubberRepository repository, IntConsumer progress) throws IOException
+	{
+		ClubberMetrics.Timer timer = ClubberMetrics.get().time(ClubberMetrics.Operation.LOAD);
+		try
+		{
+			long bytes = (Files.exists(dataFile) ? Files.size(dataFile) : 0) + shards.size() + (Files.exists(historyFile) ? Files.size(historyFile) : 0);
+			for(Path segment : ClubberJournal.segments(journalBase))
+				bytes += Files.size(segment);
+			int records = read(repository, progress);
+			timer.done(records, bytes);
+		}catch(IOException | RuntimeException e)
+		{
+			timer.failed();
+			throw e;
+		}
+	}
+
+	/**
+	* This method reads the snapshot and replays the journal into the repository, see {@link #load}.
+	*
+	* @return number of snapshot records and journal entries read
+	*/
+	private int read(ClubberRepository repository, IntConsumer progress) throws IOException
+	{
+		if(Files.exists(historyFile))
+			history.read(historyFile);
+		boolean single = Files.exists(dataFile);
+		boolean migrate = single && ClubberFile.isLegacy(dataFile);
+		AtomicInteger loaded = new AtomicInteger();
+		if(migrate)
+			repository.addAll(LegacyClubberReader.read(dataFile));
+		else if(single)
+		{
+			ArrayList<ClubberRecord> batch = new ArrayList<>(LOAD_BATCH);
+			ClubberFile.read(dataFile, clubber -> {
+				batch.add(clubber);
+				if(batch.size() == LOAD_BATCH)
+				{
+					repository.addAll(batch);
+					batch.clear();
+					progress.accept(loaded.addAndGet(LOAD_BATCH));
+				}
+			});
+			repository.addAll(batch);
+			progress.accept(loaded.addAndGet(batch.size()));
+		}
+		shards.read(LOAD_BATCH, batch -> {
+			repository.addAll(batch);
+			progress.accept(loaded.addAndGet(batch.size()));
+		});
+
+		history.attach(repository);
+
+		List<Path> segments = ClubberJournal.segments(journalBase);
+		int replayed = 0;
+		long bytes = 0;
+		for(Path segment : segments)
+		{
+			bytes += Files.size(segment);
+			replayed += ClubberJournal.replay(segment, new ClubberJournal.Replayer() {
+				@Override
+				public void store(long time, String oldId, ClubberRecord updated)
+				{
+					ClubberRecord old = repository.getById(oldId);
+					updated.shareFields(old);
+					history.store(time, old, updated);
+					if(old != null)
+						repository.remove(old);
+					repository.add(updated);
+				}
+
+				@Override
+				public void remove(long time, String id)
+				{
+					ClubberRecord old = repository.getById(id);
+					if(old != null)
+					{
+						history.remove(time, old);
+						repository.remove(old);
+					}
+				}
+			});
+		}
+
+		//the single file is converted to shards once, before the journal is opened, so a short run doesn't exit in the middle of it
+		if(single)
+		{
+			if(migrate)
+				Files.copy(dataFile, dataFile.resolveSibling(dataFile.getFileName() + ".legacy"), StandardCopyOption.REPLACE_EXISTING);
+			writeSnapshot(repository.snapshot());
+		}
+		if(single || replayed == 0)
+			for(Path segment : segments)
+				Files.delete(segment);
+		journal = new ClubberJournal(journalBase);
+		if(replayed > 0 && !single)
+		{
+			replayedBytes = bytes;
+			compactIfNeeded(repository);
+		}
+		return repository.size() + replayed;
+	}
+
+	/**
+	* @return number of records in the snapshot shards and in the single snapshot file if it isn't a legacy file
+	* @throws IOException if the snapshot can't be read
+	*/
+	public int snapshotCount() throws IOException
+	{
+		int count = shards.count();
+		if(Files.exists(dataFile) && !ClubberFile.isLegacy(dataFile))
+			count += ClubberFile.count(dataFile);
+		return count;
+	}
+
+	/**
+	* @return size in bytes of the snapshot shards and the single snapshot file
+	* @throws IOException if the snapshot can't be read
+	*/
+	public long snapshotSize() throws IOException
+	{
+		return shards.size() + (Files.exists(dataFile) ? Files.size(dataFile) : 0);
+	}
+
+	/**
+	* This method finds the committed record of a clubber id in the files without loading the database.
+	* The record is read from one block of the shard of the id, or from the single snapshot file if the shards don't have it,
+	* then the commits and removals of the id in the journal are applied to it,
+	* so the result is the same as a {@link ClubberRepository#getById} after a full load.
+	* Reading the journal takes time proportional to its size, which is bounded by the compactions.
+	*
+	* @param id the clubber id
+	* @return the committed record of the id, or null if there is none
+	* @throws IOException if the files can't be read
+	*/
+	public ClubberRecord lookup(String id) throws IOException
+	{
+		ClubberRecord [] found = {shards.lookup(id)};
+		if(found[0] == null && Files.exists(dataFile))
+			found[0] = ClubberFile.find(dataFile, id);
+		for(Path segment : ClubberJournal.segments(journalBase))
+			ClubberJournal.replay(segment, new ClubberJournal.Replayer() {
+				@Override
+				public void store(long time, String oldId, ClubberRecord updated)
+				{
+					if(updated.getId().equals(id))
+						found[0] = updated;
+					else if(id.equals(oldId))
+						found[0] = null;
+				}
+
+				@Override
+				public void remove(long time, String removed)
+				{
+					if(removed.equals(id))
+						found[0] = null;
+				}
+			});
+		return found[0];
+	}
+
+	/**
+	* This method appends a commit to the journal and adds it to the history with the same time.
+	* It is the {@link ClubberRepository.Committer} of the commits, called while the stripes of the clubber are locked,
+	* so the commits of one clubber are journaled in the order they were applied.
+	* A snapshot can't rotate the journal in between, so the revision of every entry it folds is in the history it writes.
+	* Once the stripes are unlocked the commit is finished by {@link #finish}.
+	*
+	* @param previous the record the commit replaced, null for a new clubber
+	* @param updated the committed record
+	* @return sequence number of the journal entry
+	* @throws IOException if the journal failed, the history is then unchanged
+	*/
+	public long log(ClubberRecord previous, ClubberRecord updated) throws IOException
+	{
+		ClubberJournal log = openJournal();
+		rotation.readLock().lock();
+		try
+		{
+			long time = history.nextTime();
+			long seq = log.logStore(time, previous, updated);
+			history.store(time, previous, updated);
+			return seq;
+		}finally
+		{
+			rotation.readLock().unlock();
+		}
+	}
+
+	/**
+	* This method appends a removal to the journal and adds it to the history with the same time, like {@link #log},
+	* it is called while the stripes of the clubber are locked.
+	*
+	* @param removed the removed record
+	* @return sequence number of the journal entry
+	* @throws IOException if the journal failed, the history is then unchanged
+	*/
+	public long logRemove(ClubberRecord removed) throws IOException
+	{
+		ClubberJournal log = openJournal();
+		rotation.readLock().lock();
+		try
+		{
+			long time = history.nextTime();
+			long seq = log.logRemove(time, removed);
+			history.remove(time, removed);
+			return seq;
+		}finally
+		{
+			rotation.readLock().unlock();
+		}
+	}
+
+	/**
+	* This method finishes commits logged with {@link #log} or {@link #logRemove} once the stripes are unlocked:
+	* it waits until their journal entries were forced to disk, see {@link ClubberJournal#awaitDurable},
+	* and starts a compaction if the journal grew too large.
+	* A commit is acknowledged only after this method returns, so an acknowledged commit survives a crash,
+	* and the commits of concurrent terminals share one fsync.
+	* <p>
+	* The commits are already applied to the repository, so if the entries can't be forced to disk they stay applied
+	* and a {@link SyncFailedException} reports that they may be lost by a crash.
+	* The journal is failed from then on, every later commit is refused by {@link #log} and left out of the repository.
+	* A compaction that can't be started doesn't fail the commits, it is printed and retried by a later commit.
+	*
+	* @param repository the repository of the commits
+	* @param seq sequence number of the last journal entry of the commits, 0 if none were logged
+	* @throws SyncFailedException if the journal failed before the entries were forced to disk
+	* @throws IOException if the database was not loaded
+	*/
+	public void finish(ClubberRepository repository, long seq) throws IOException
+	{
+		if(seq > 0)
+		{
+			try
+			{
+				openJournal().awaitDurable(seq);
+			}catch(InterruptedIOException e)
+			{
+				throw e;
+			}catch(IOException e)
+			{
+				SyncFailedException failed = new SyncFailedException("The commits are stored but may not be on disk: " + e.getMessage());
+				failed.initCause(e);
+				throw failed;
+			}
+		}
+		try
+		{
+			compactIfNeeded(repository);
+		}catch(IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	* This method folds the journal into a new snapshot in the background.
+	* The journal is rotated and a copy-on-write {@link ClubberRepository.Snapshot} is taken on the calling thread,
+	* both take constant time, the snapshot is written on the storage thread while the repository keeps changing.
+	* Only one snapshot is written at a time, a request while one is running is ignored.
+	* A failed snapshot is printed and its task fails with the IOException, the sealed segments are then kept.
+	*
+	* @param repository the repository to snapshot
+	* @return the running snapshot task, or null if the storage is closed or not loaded yet
+	* @throws IOException if the journal can't be rotated
+	*/
+	public synchronized Future<?> snapshot(ClubberRepository repository) throws IOException
+	{
+		if(closed || journal == null)
+			return null;
+		if(compaction != null && !compaction.isDone())
+			return compaction;
+		//every entry of the sealed segments is already in the repository and in the history
+		long sealed;
+		ClubberRepository.Snapshot view;
+		rotation.writeLock().lock();
+		try
+		{
+			sealed = journal.rotate();
+			view = repository.snapshot();
+			replayedBytes = 0;
+		}finally
+		{
+			rotation.writeLock().unlock();
+		}
+		compaction = executor.submit(() -> {
+			try
+			{
+				writeSnapshot(view);
+				journal.deleteUpTo(sealed);
+				return null;
+			}catch(IOException e)
+			{
+				//the sealed segments are kept and folded by the next snapshot
+				e.printStackTrace();
+				throw e;
+			}
+		});
+		return compaction;
+	}
+
+	/**
+	* This method folds the whole journal into a snapshot and waits until it is written,
+	* used by batch jobs before they exit so the next start doesn't replay their changes.
+	* A snapshot that was already running is waited for first, it may not include the latest changes.
+	*
+	* @param repository the repository to snapshot
+	* @throws IOException if the snapshot or the journal failed
+	*/
+	public void compact(ClubberRepository repository) throws IOException
+	{
+		await(snapshot(repository));
+		if(journal != null && journal.size() > 0)
+			await(snapshot(repository));
+	}
+
+	/**
+	* This method writes a snapshot periodically, as long as commits were journaled or replayed since the last one.
+	*
+	* @param repository the repository to snapshot
+	* @param period time between snapshots
+	* @param unit unit of the period
+	*/
+	public void schedule(ClubberRepository repository, long period, TimeUnit unit)
+	{
+		executor.scheduleWithFixedDelay(() -> {
+			try
+			{
+				if(journal.size() > 0 || replayedBytes > 0)
+					snapshot(repository);
+			}catch(IOException e)
+			{
+				e.printStackTrace();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	* This method stops the periodic snapshots, waits for a snapshot that is still being written
+	* and closes the journal, forcing its pending entries to disk.
+	* The snapshot is waited for outside the lock of the storage, so a periodic snapshot that waits for the lock ends first.
+	* If the snapshot failed, the journal segments it would have folded are replayed on the next load.
+	*/
+	@Override
+	public void close() throws IOException
+	{
+		Future<?> running;
+		synchronized(this)
+		{
+			if(closed)
+				return;
+			closed = true;
+			executor.shutdown();
+			running = compaction;
+		}
+		try
+		{
+			await(running);
+		}catch(IOException e)
+		{
+			//already printed by the snapshot task, its segments are replayed on the next load
+		}
+		if(journal != null)
+			journal.close();
+	}
+
+	/**
+	* @return the history of the commits
+	*/
+	public ClubberHistory getHistory()
+	{
+		return history;
+	}
+
+	/**
+	* @return size in bytes of the history file, 0 if there is none
+	* @throws IOException if the file can't be read
+	*/
+	public long historySize() throws IOException
+	{
+		return Files.exists(historyFile) ? Files.size(historyFile) : 0;
+	}
+
+	/**
+	* @return size in bytes of the current journal segment, 0 if the database was not loaded yet
+	*/
+	public long journalSize()
+	{
+		return journal == null ? 0 : journal.size();
+	}
+
+	/**
+	* This method waits for a snapshot task.
+	*
+	* @param task the task returned by {@link #snapshot}, may be null
+	*/
+	private static void await(Future<?> task) throws IOException
+	{
+		if(task == null)
+			return;
+		try
+		{
+			task.get();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the snapshot");
+		}catch(ExecutionException e)
+		{
+			throw new IOException("Snapshot failed", e.getCause());
+		}
+	}
+
+	/**
+	* @return the journal
+	* @throws IOException if the database was not loaded yet
+	*/
+	private ClubberJournal openJournal() throws IOException
+	{
+		if(journal == null)
+			throw new IOException("The clubbers database is not loaded");
+		return journal;
+	}
+
+	/**
+	* This method starts a snapshot once the journal segments that are not folded yet passed the threshold.
+	*/
+	private void compactIfNeeded(ClubberRepository repository) throws IOException
+	{
+		if(replayedBytes + journal.size() >= COMPACT_THRESHOLD)
+			snapshot(repository);
+	}
+
+	/**
+	* This method writes a snapshot to the shards in parallel, see {@link ClubberShards#write},
+	* so the previous snapshot stays intact until the new one is complete.
+	* The single snapshot file is deleted once the shards hold all its records.
+	* Then the history is written, see {@link ClubberHistory#write}, it holds every revision of the journal the snapshot folds.
+	*
+	* @param records the records to write
+	*/
+	private void writeSnapshot(ClubberRepository.Snapshot records) throws IOException
+	{
+		ClubberMetrics.Timer timer = ClubberMetrics.get().time(ClubberMetrics.Operation.SAVE);
+		try
+		{
+			long bytes = shards.write(records);
+			Files.deleteIfExists(dataFile);
+			history.write(historyFile);
+			bytes += Files.size(historyFile);
+			timer.done(records.size(), bytes);
+		}catch(IOException | RuntimeException e)
+		{
+			timer.failed();
+			throw e;
+		}
+	}
+}
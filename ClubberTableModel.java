@@ -0,0 +1,355 @@
+import java.util.*;
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+
+/**
+* This class is the table model of the clubbers browser, a sortable and filterable view of all the clubbers
+* that stays smooth with millions of rows.
+* <p>
+* The model doesn't hold a row object per clubber: the clubbers are a {@link ClubberColumns} copy of the repository,
+* and the view is an int array of the rows of the copy in the order they are shown.
+* A JTable only asks for the cells of the rows it paints, so records are created only for the visible rows,
+* a page of {@value #PAGE_SIZE} rows at a time, and the last {@value #CACHED_PAGES} pages are kept while scrolling.
+* <p>
+* Sorting and filtering run on a background worker and the view is replaced on the event dispatch thread when they end.
+* A sort computes the key of every row once with {@link ClubberColumns#getSortKey}
+* and sorts the keys packed with the rows in a long array, without a comparator.
+* A filter tests every distinct name and surname of the dictionary once, and compares the codes of the rows.
+* An id or phone number prefix is turned into ranges of {@link ClubberColumns#keyRanges} that the packed column of the rows is compared with.
+* The copy is taken when the model is created or {@link #reload}ed, later commits are shown after a reload.
+*/
+public class ClubberTableModel extends AbstractTableModel
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final int PAGE_SIZE = 128;
+	public static final int CACHED_PAGES = 16;
+	//the type column, the other columns are the fields of the record after it
+	private static final int TYPE_COLUMN = 0;
+	private static final String [] COLUMNS = {"Type", "ID", "Name", "Surname", "Tel", "Personal No. / Student ID"};
+
+	private final ClubberEngine engine;
+	private final LinkedHashMap<Integer, ClubberRecord[]> pages;
+	private ClubberColumns columns;
+	//rows of the copy in sort order, and the rows of it that pass the filter
+	private int [] order;
+	private int [] view;
+	private int sortColumn;
+	private boolean ascending;
+	private boolean busy;
+	//counts the requests, a worker whose request was replaced by a newer one drops its result
+	private int generation;
+	//the latest request, it includes the sort, the filter and the copy of the requests it replaced
+	private boolean requestedCopy;
+	private int requestedColumn;
+	private boolean requestedUp;
+	private ClubberType requestedType;
+	private String requestedText;
+	private Runnable listener;
+
+
+	/**
+	* Constructor - the model is empty until {@link #reload} is called.
+	*
+	* @param engine the loaded engine
+	*/
+	public ClubberTableModel(ClubberEngine engine)
+	{
+		this.engine = engine;
+		pages = new LinkedHashMap<Integer, ClubberRecord[]>(CACHED_PAGES * 2, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, ClubberRecord[]> eldest)
+			{
+				return size() > CACHED_PAGES;
+			}
+		};
+		order = new int[0];
+		view = order;
+		sortColumn = -1;
+		ascending = true;
+		requestedColumn = -1;
+		requestedUp = true;
+		requestedText = "";
+	}
+
+	/**
+	* This method sets a listener that is called on the event dispatch thread when a reload, a sort or a filter starts or ends.
+	*
+	* @param listener the listener
+	*/
+	public void setListener(Runnable listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	* This method copies the clubbers of the repository again in the background, keeping the sort and the filter.
+	*/
+	public void reload()
+	{
+		update(true, requestedColumn, requestedUp, requestedType, requestedText);
+	}
+
+	/**
+	* This method sorts the rows by a column in the background, sorting again by the same column reverses the order.
+	*
+	* @param column the column
+	*/
+	public void sort(int column)
+	{
+		update(false, column, column != requestedColumn || !requestedUp, requestedType, requestedText);
+	}
+
+	/**
+	* This method shows only the rows that pass a filter, filtering runs in the background.
+	*
+	* @param type the type of the clubbers to show, null for all types
+	* @param text text the name or surname contains, ignoring case, or the id or tel starts with, empty for all clubbers
+	*/
+	public void filter(ClubberType type, String text)
+	{
+		update(false, requestedColumn, requestedUp, type, text.trim());
+	}
+
+	/**
+	* @return true while a reload, a sort or a filter runs
+	*/
+	public boolean isBusy()
+	{
+		return busy;
+	}
+
+	/**
+	* @return the column the rows are sorted by, -1 if they are in repository order
+	*/
+	public int getSortColumn()
+	{
+		return sortColumn;
+	}
+
+	/**
+	* @return true if the rows are sorted in ascending order
+	*/
+	public boolean isAscending()
+	{
+		return ascending;
+	}
+
+	/**
+	* @return number of clubbers in the copy, shown or not
+	*/
+	public int getClubberCount()
+	{
+		return order.length;
+	}
+
+	/**
+	* This method returns the committed record of the clubber of a row, to show its editor.
+	*
+	* @param row the row in the view
+	* @return the current record of the clubber in the repository, or null if it was removed since the copy
+	*/
+	public ClubberRecord getClubber(int row)
+	{
+		return engine.getById(record(row).getId());
+	}
+
+	@Override
+	public int getRowCount()
+	{
+		return view.length;
+	}
+
+	@Override
+	public int getColumnCount()
+	{
+		return COLUMNS.length;
+	}
+
+	@Override
+	public String getColumnName(int column)
+	{
+		return COLUMNS[column];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column)
+	{
+		ClubberRecord clubber = record(row);
+		if(column == TYPE_COLUMN)
+			return clubber.getType().getTitle();
+		int field = column - 1;
+		return field < clubber.getFieldCount() ? clubber.get(field) : "";
+	}
+
+	/**
+	* @return the record of a row of the view, from the page cache
+	*/
+	private ClubberRecord record(int row)
+	{
+		int first = row - row % PAGE_SIZE;
+		ClubberRecord [] page = pages.get(first);
+		if(page == null)
+		{
+			page = new ClubberRecord[Math.min(PAGE_SIZE, view.length - first)];
+			for(int i = 0; i < page.length; i++)
+				page[i] = columns.get(view[first + i]);
+			pages.put(first, page);
+		}
+		return page[row - first];
+	}
+
+	/**
+	* This method computes a new view in the background and shows it when it is ready, if no newer request was made meanwhile.
+	*/
+	private void update(boolean copy, int column, boolean up, ClubberType type, String text)
+	{
+		int request = ++generation;
+		requestedCopy |= copy || columns == null;
+		requestedColumn = column;
+		requestedUp = up;
+		requestedType = type;
+		requestedText = text;
+		boolean reload = requestedCopy;
+		ClubberColumns source = columns;
+		int [] sorted = order;
+		boolean resort = reload || column != sortColumn || up != ascending;
+		busy = true;
+		notifyListener();
+		new SwingWorker<Object[], Void>() {
+			@Override
+			protected Object[] doInBackground()
+			{
+				ClubberColumns rows = reload ? engine.columns(false) : source;
+				int [] newOrder = resort ? sort(rows, column, up) : sorted;
+				return new Object[]{rows, newOrder, filter(rows, newOrder, type, text)};
+			}
+
+			@Override
+			protected void done()
+			{
+				if(request != generation)
+					return;
+				busy = false;
+				try
+				{
+					Object [] result = get();
+					//a failed copy stays requested, the next request copies again
+					requestedCopy = false;
+					columns = (ClubberColumns)result[0];
+					order = (int[])result[1];
+					view = (int[])result[2];
+					sortColumn = column;
+					ascending = up;
+					pages.clear();
+					fireTableDataChanged();
+				}catch(Exception e)
+				{
+					e.printStackTrace();
+				}
+				notifyListener();
+			}
+		}.execute();
+	}
+
+	private void notifyListener()
+	{
+		if(listener != null)
+			listener.run();
+	}
+
+	/**
+	* This method sorts the rows by the sort keys of a column.
+	* A key and a row are packed in one long that sorts without a comparator,
+	* keys that don't fit in 31 bits, such as phone numbers, are replaced by their rank among the distinct keys first.
+	*
+	* @return the rows in sort order, in repository order if column is -1
+	*/
+	private static int[] sort(ClubberColumns rows, int column, boolean up)
+	{
+		int size = rows.size();
+		int [] sorted = new int[size];
+		if(column < 0)
+		{
+			for(int row = 0; row < size; row++)
+				sorted[row] = row;
+			return sorted;
+		}
+		long [] keys = new long[size];
+		long max = 0;
+		for(int row = 0; row < size; row++)
+		{
+			keys[row] = column == TYPE_COLUMN ? rows.getType(row).ordinal() : rows.getSortKey(column - 1, row);
+			max = Math.max(max, keys[row]);
+		}
+		if(max > Integer.MAX_VALUE)
+		{
+			long [] distinct = keys.clone();
+			Arrays.parallelSort(distinct);
+			int count = 0;
+			for(int i = 0; i < size; i++)
+				if(count == 0 || distinct[count - 1] != distinct[i])
+					distinct[count++] = distinct[i];
+			for(int row = 0; row < size; row++)
+				keys[row] = Arrays.binarySearch(distinct, 0, count, keys[row]);
+		}
+		for(int row = 0; row < size; row++)
+			keys[row] = keys[row] << 32 | row;
+		Arrays.parallelSort(keys);
+		for(int i = 0; i < size; i++)
+			sorted[up ? i : size - 1 - i] = (int)keys[i];
+		return sorted;
+	}
+
+	/**
+	* @return the rows of the order that pass the filter, in the same order
+	*/
+	private static int[] filter(ClubberColumns rows, int [] order, ClubberType type, String text)
+	{
+		if(type == null && text.isEmpty())
+			return order;
+		String lower = text.toLowerCase(Locale.ROOT);
+		boolean [] words = rows.matchWords(word -> word.toLowerCase(Locale.ROOT).contains(lower));
+		boolean byKey = !text.isEmpty() && (Character.isDigit(text.charAt(0)) || text.charAt(0) == '+');
+		//ids start with a digit and phone numbers with +
+		int keyField = text.startsWith("+") ? ClubberRecord.TEL : ClubberRecord.ID;
+		long [] ranges = byKey ? ClubberColumns.keyRanges(keyField, text) : null;
+		int [] passed = new int[order.length];
+		int count = 0;
+		for(int row : order)
+		{
+			if(type != null && rows.getType(row) != type)
+				continue;
+			if(!text.isEmpty() && !matches(rows, row, words, text, keyField, ranges))
+				continue;
+			passed[count++] = row;
+		}
+		return Arrays.copyOf(passed, count);
+	}
+
+	/**
+	* @param ranges the ranges of the sort keys of the key field that start with the text, null if the text is not a key prefix
+	*/
+	private static boolean matches(ClubberColumns rows, int row, boolean [] words, String text, int keyField, long [] ranges)
+	{
+		int name = rows.getWord(ClubberRecord.NAME, row);
+		if(name < 0)
+		{
+			//an irregular clubber has no codes, its record is tested
+			ClubberRecord clubber = rows.get(row);
+			String lower = text.toLowerCase(Locale.ROOT);
+			return clubber.get(ClubberRecord.NAME).toLowerCase(Locale.ROOT).contains(lower)
+				|| clubber.get(ClubberRecord.SURNAME).toLowerCase(Locale.ROOT).contains(lower)
+				|| clubber.getId().startsWith(text) || clubber.get(ClubberRecord.TEL).startsWith(text);
+		}
+		if(words[name] || words[rows.getWord(ClubberRecord.SURNAME, row)])
+			return true;
+		if(ranges == null)
+			return false;
+		long key = rows.getSortKey(keyField, row);
+		for(int i = 0; i < ranges.length; i += 2)
+			if(key >= ranges[i] && key < ranges[i + 1])
+				return true;
+		return false;
+	}
+}
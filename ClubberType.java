@@ -0,0 +1,112 @@
+/**
+* This enum is the registry of the kinds of clubbers the night club manages.
+* Every type declares once the {@link ClubberField}s its {@link ClubberRecord} holds, in record order,
+* and everything type specific is derived from that declaration: the number and names of the fields,
+* the validation rules of {@link ClubberValidator}, the search keys indexed by {@link ClubberIndex}
+* (the person id, and the key of the extra field if the type has one, such as the digits after the / of a soldier personal number),
+* the packed extra column of {@link ClubberColumns} and the rows of the {@link Person} editor frame.
+* The snapshot, journal, CSV and JSON codecs write the fields in record order and the type by its ordinal or title,
+* so they need nothing per type.
+* <p>
+* A new type is a new constant at the end, its ordinal is the type tag of the files, so the order of the constants never changes.
+*/
+public enum ClubberType
+{
+	PERSON("Person"),
+	SOLDIER("Soldier", ClubberField.PERSONAL_NUM),
+	STUDENT("Student", ClubberField.STUDENT_ID),
+	VIP("VIP", ClubberField.VIP_CARD),
+	STAFF("Staff", ClubberField.EMPLOYEE_NUM);
+
+	private final String title;
+	private final ClubberField [] fields;
+
+
+	/**
+	* Constructor with the types title and the fields it adds to the person fields.
+	*
+	* @param title the name of the type as shown to the user
+	* @param extra the fields after ID, Name, Surname and Tel, at most one is indexed as a search key
+	*/
+	ClubberType(String title, ClubberField... extra)
+	{
+		this.title = title;
+		fields = new ClubberField[ClubberRecord.EXTRA + extra.length];
+		fields[ClubberRecord.ID] = ClubberField.ID;
+		fields[ClubberRecord.NAME] = ClubberField.NAME;
+		fields[ClubberRecord.SURNAME] = ClubberField.SURNAME;
+		fields[ClubberRecord.TEL] = ClubberField.TEL;
+		System.arraycopy(extra, 0, fields, ClubberRecord.EXTRA, extra.length);
+	}
+
+	/**
+	* @return the name of the type as shown to the user
+	*/
+	public String getTitle()
+	{
+		return title;
+	}
+
+	/**
+	* @return number of data fields of the type
+	*/
+	public int getFieldCount()
+	{
+		return fields.length;
+	}
+
+	/**
+	* @param field index of the field in the {@link ClubberRecord}
+	* @return the declaration of the field
+	*/
+	public ClubberField getField(int field)
+	{
+		return fields[field];
+	}
+
+	/**
+	* @param field index of the field in the {@link ClubberRecord}
+	* @return the name of the field as shown to the user
+	*/
+	public String getFieldName(int field)
+	{
+		return fields[field].getTitle();
+	}
+
+	/**
+	* This method finds a type by its title, ignoring case.
+	*
+	* @param title the name of the type
+	* @return the type, or null if there is no type with that title
+	*/
+	public static ClubberType forTitle(String title)
+	{
+		for(ClubberType type : values())
+			if(type.title.equalsIgnoreCase(title))
+				return type;
+		return null;
+	}
+
+	/**
+	* @return the titles of all the types, in declaration order
+	*/
+	public static String[] titles()
+	{
+		ClubberType [] types = values();
+		String [] titles = new String[types.length];
+		for(int i = 0; i < types.length; i++)
+			titles[i] = types[i].title;
+		return titles;
+	}
+
+	/**
+	* This method extracts the secondary search key from the extra field of the type, see {@link ClubberField#key}.
+	*
+	* @param extra the value of the extra field, such as the personal number or student id
+	* @return the key digits, or null if the type has no secondary key
+	*/
+	public String subKey(String extra)
+	{
+		return fields.length > ClubberRecord.EXTRA ? fields[ClubberRecord.EXTRA].key(extra) : null;
+	}
+}
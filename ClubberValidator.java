@@ -0,0 +1,201 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+
+/**
+* This class validates clubber fields without regular expressions and without allocating.
+* Every rule is a hand-written character matcher equivalent to the pattern the editor frames used:
+* <pre>
+* ID               \d-\d{7}\|[1-9]
+* Name             [A-Z][a-z]+
+* Surname          ([A-Z][a-z]*['-]?)+
+* Tel              \+\([1-9]\d{0,2}\)[1-9]\d{0,2}-[1-9]\d{6}
+* Soldier extra    [ROC]/[1-9]\d{6}
+* Student extra    [A-Z]{3}/[1-9]\d{4}
+* VIP extra        VIP/[1-9]\d{5}
+* Staff extra      [BDMS]/[1-9]\d{3}
+* </pre>
+* The rules of the extra fields are matched by the masks their {@link ClubberField} declares,
+* and the rule of every field of a type is found through the declaration of the {@link ClubberType}.
+* A whole record is validated at once with {@link #validate}, which reports every failing field in a bit mask
+* (bit i set when field i of the {@link ClubberRecord} is invalid), so the editor frames, the import and any other
+* non GUI path share the same rules. {@link #validateAll} validates large batches of records in parallel.
+*/
+public final class ClubberValidator
+{
+	public static final int VALID = 0;
+
+
+	private ClubberValidator()
+	{
+	}
+
+	/**
+	* This method validates all the fields of a record.
+	*
+	* @param clubber the record to validate
+	* @return a bit mask of the invalid fields, {@link #VALID} if all the fields are valid
+	*/
+	public static int validate(ClubberRecord clubber)
+	{
+		long start = ClubberMetrics.get().start(ClubberMetrics.Operation.VALIDATE);
+		int invalid = VALID;
+		for(int i = 0; i < clubber.getFieldCount(); i++)
+			if(!isValid(clubber.getType(), i, clubber.get(i)))
+				invalid |= 1 << i;
+		ClubberMetrics.get().end(ClubberMetrics.Operation.VALIDATE, start);
+		return invalid;
+	}
+
+	/**
+	* This method validates a single field of a clubber type.
+	*
+	* @param type the clubber type
+	* @param field index of the field in the {@link ClubberRecord}
+	* @param value the field value
+	* @return true if the value is valid for the field otherwise false
+	*/
+	public static boolean isValid(ClubberType type, int field, CharSequence value)
+	{
+		return field >= 0 && field < type.getFieldCount() && type.getField(field).isValid(value);
+	}
+
+	/**
+	* This method describes the invalid fields of a record for the user.
+	*
+	* @param type the clubber type
+	* @param invalid bit mask of the invalid fields returned by {@link #validate}
+	* @return the word invalid followed by the names of the invalid fields
+	*/
+	public static String describe(ClubberType type, int invalid)
+	{
+		StringBuilder reason = new StringBuilder("invalid");
+		for(int i = 0; i < type.getFieldCount(); i++)
+			if((invalid & 1 << i) != 0)
+				reason.append(' ').append(type.getFieldName(i));
+		return reason.toString();
+	}
+
+	/**
+	* This method validates a batch of records in parallel on all the cores.
+	*
+	* @param records the records to validate
+	* @return the bit mask of the invalid fields of every record, in the order of the list
+	*/
+	public static int[] validateAll(List<ClubberRecord> records)
+	{
+		int [] invalid = new int[records.size()];
+		IntStream.range(0, invalid.length).parallel().forEach(i -> invalid[i] = validate(records.get(i)));
+		return invalid;
+	}
+
+	/**
+	* @param value the value to check
+	* @return true if the value matches \d-\d{7}\|[1-9]
+	*/
+	public static boolean isId(CharSequence value)
+	{
+		if(value.length() != 11 || !isDigit(value.charAt(0)) || value.charAt(1) != '-')
+			return false;
+		for(int i = 2; i < 9; i++)
+			if(!isDigit(value.charAt(i)))
+				return false;
+		return value.charAt(9) == '|' && isNonZero(value.charAt(10));
+	}
+
+	/**
+	* @param value the value to check
+	* @return true if the value matches [A-Z][a-z]+
+	*/
+	public static boolean isName(CharSequence value)
+	{
+		if(value.length() < 2 || !isUpper(value.charAt(0)))
+			return false;
+		for(int i = 1; i < value.length(); i++)
+			if(!isLower(value.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/**
+	* The surname is one or more groups of an upper case letter, lower case letters and an optional ' or -,
+	* so a ' or - must follow a letter and must be followed by an upper case letter or end the surname.
+	*
+	* @param value the value to check
+	* @return true if the value matches ([A-Z][a-z]*['-]?)+
+	*/
+	public static boolean isSurname(CharSequence value)
+	{
+		if(value.length() == 0 || !isUpper(value.charAt(0)))
+			return false;
+		boolean afterSeparator = false;
+		for(int i = 1; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(isUpper(c))
+				afterSeparator = false;
+			else if(afterSeparator)
+				return false;
+			else if(c == '\'' || c == '-')
+				afterSeparator = true;
+			else if(!isLower(c))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	* @param value the value to check
+	* @return true if the value matches \+\([1-9]\d{0,2}\)[1-9]\d{0,2}-[1-9]\d{6}
+	*/
+	public static boolean isTel(CharSequence value)
+	{
+		if(value.length() < 13 || value.charAt(0) != '+' || value.charAt(1) != '(')
+			return false;
+		int pos = digits(value, 2, 3);
+		if(pos < 0 || pos == value.length() || value.charAt(pos) != ')')
+			return false;
+		pos = digits(value, pos + 1, 3);
+		if(pos < 0 || pos == value.length() || value.charAt(pos) != '-')
+			return false;
+		return digits(value, pos + 1, 7) == value.length() && value.length() - pos - 1 == 7;
+	}
+
+	/**
+	* This method matches a number without a leading zero, [1-9]\d{0,max-1}.
+	*
+	* @param value the value to check
+	* @param from position of the first digit
+	* @param max maximal number of digits
+	* @return the position after the digits, or -1 if there is no valid number at the position
+	*/
+	private static int digits(CharSequence value, int from, int max)
+	{
+		if(from >= value.length() || !isNonZero(value.charAt(from)))
+			return -1;
+		int pos = from + 1;
+		while(pos < value.length() && pos - from < max && isDigit(value.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isNonZero(char c)
+	{
+		return c >= '1' && c <= '9';
+	}
+
+	private static boolean isUpper(char c)
+	{
+		return c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isLower(char c)
+	{
+		return c >= 'a' && c <= 'z';
+	}
+}
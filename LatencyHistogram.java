@@ -0,0 +1,173 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+* This class is a fixed size histogram of latencies that many threads can record into without locking.
+* Values are kept in log-linear buckets: every power of two is split in {@link #SUB_BUCKETS} equal buckets,
+* so a percentile is reported with a relative error below 2% whatever the range of the values,
+* and recording a value is one array increment.
+*/
+public class LatencyHistogram
+{
+	public static final int SUB_BUCKETS = 64;
+	private static final int SUB_BITS = 6;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final LongAdder total;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+
+	/**
+	* Parameterless constructor - creates an empty histogram.
+	*/
+	public LatencyHistogram()
+	{
+		counts = new AtomicLongArray(BUCKETS);
+		total = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	* This method records a latency.
+	*
+	* @param nanos the latency in nanoseconds, negative values are recorded as 0
+	*/
+	public void record(long nanos)
+	{
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(value));
+		total.increment();
+		sum.add(value);
+		raiseMax(value);
+	}
+
+	/**
+	* This method records the time passed since a start time.
+	*
+	* @param startNanos the start time read from {@link System#nanoTime}
+	*/
+	public void recordSince(long startNanos)
+	{
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	* @return number of recorded values
+	*/
+	public long getCount()
+	{
+		return total.sum();
+	}
+
+	/**
+	* @return the largest recorded value in nanoseconds
+	*/
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	* @return the mean of the recorded values in nanoseconds, 0 if there are none
+	*/
+	public double getMean()
+	{
+		long count = total.sum();
+		return count == 0 ? 0 : (double)sum.sum() / count;
+	}
+
+	/**
+	* This method returns a percentile of the recorded values.
+	*
+	* @param percentile the percentile, between 0 and 100
+	* @return the upper bound of the bucket holding the percentile in nanoseconds, 0 if there are no values
+	*/
+	public long getPercentile(double percentile)
+	{
+		long count = total.sum();
+		if(count == 0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	* This method adds all the values of another histogram to this one.
+	*
+	* @param other the histogram to add
+	*/
+	public void add(LatencyHistogram other)
+	{
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			long count = other.counts.get(i);
+			if(count > 0)
+				counts.addAndGet(i, count);
+		}
+		total.add(other.total.sum());
+		sum.add(other.sum.sum());
+		raiseMax(other.max.get());
+	}
+
+	/**
+	* @return count, mean, p50, p90, p99, p99.9 and max in microseconds as name=value pairs
+	*/
+	@Override
+	public String toString()
+	{
+		return String.format("count=%d mean=%.1fus p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus", getCount(),
+			getMean() / 1000, micros(getPercentile(50)), micros(getPercentile(90)), micros(getPercentile(99)),
+			micros(getPercentile(99.9)), micros(max.get()));
+	}
+
+	private static long micros(long nanos)
+	{
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private void raiseMax(long value)
+	{
+		long current;
+		while(value > (current = max.get()) && !max.compareAndSet(current, value));
+	}
+
+	/**
+	* @param value a non negative value
+	* @return the bucket of the value
+	*/
+	private static int bucket(long value)
+	{
+		if(value < SUB_BUCKETS)
+			return (int)value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	* @param bucket a bucket
+	* @return the largest value of the bucket
+	*/
+	private static long upperBound(int bucket)
+	{
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		return ((SUB_BUCKETS + sub) << (exponent - SUB_BITS)) + width - 1;
+	}
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+* This class reads a BKCustomers.dat file written by earlier versions of the app,
+* which serialized the whole {@link ArrayList} of {@link Person}, {@link Soldier} and {@link Student} frames
+* with {@link ObjectOutputStream}.
+* The legacy clubber classes are resolved to small shim classes that declare the same serializable fields,
+* so only the committed field strings are kept and converted to {@link ClubberRecord} objects.
+* The swing components of the legacy frames are still deserialized (and then discarded),
+* therefore reading a legacy file requires a graphics environment.
+*/
+public class LegacyClubberReader
+{
+	//legacy class names mapped to the shims that replace them
+	private static final Map<String, Class<?>> SHIMS = Map.of(
+		"ClubAbstractEntity", LegacyEntity.class,
+		"ClubAbstractEntity$ButtonHandler", LegacyHandler.class,
+		"Person", LegacyPerson.class,
+		"Soldier", LegacySoldier.class,
+		"Student", LegacyStudent.class);
+
+
+	/**
+	* This method reads all the committed clubbers of a legacy database file.
+	*
+	* @param file the legacy database file
+	* @return the records of the clubbers in file order
+	* @throws IOException if the file can't be read or is not a legacy clubbers database
+	*/
+	public static ArrayList<ClubberRecord> read(Path file) throws IOException
+	{
+		try(ObjectInputStream readStream = new ShimInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			ArrayList<ClubberRecord> records = new ArrayList<>();
+			for(Object legacy : (List<?>) readStream.readObject())
+			{
+				ClubberRecord clubber = ((LegacyPerson) legacy).toRecord();
+				//clubbers that were never committed have no id
+				if(!clubber.getId().isEmpty())
+					records.add(clubber);
+			}
+			return records;
+		}catch(ClassNotFoundException | ClassCastException | java.awt.HeadlessException e)
+		{
+			throw new IOException("Can't read legacy clubbers database " + file, e);
+		}
+	}
+
+
+	/**
+	* This class replaces the class descriptors of the legacy clubber classes by the descriptors of their shims.
+	* The shims declare the same field names in the same order, so the field values are read in place.
+	*/
+	private static class ShimInputStream extends ObjectInputStream
+	{
+		ShimInputStream(InputStream in) throws IOException
+		{
+			super(in);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException
+		{
+			ObjectStreamClass streamDesc = super.readClassDescriptor();
+			Class<?> shim = SHIMS.get(streamDesc.getName());
+			return shim == null ? streamDesc : ObjectStreamClass.lookup(shim);
+		}
+	}
+
+	/**
+	* Shim of the legacy ClubAbstractEntity, its buttons, center panel and handler are discarded.
+	*/
+	private static class LegacyEntity implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Object cancelButton;
+		private Object centerPanel;
+		private Object handler;
+		private Object okButton;
+	}
+
+	/**
+	* Shim of the legacy ClubAbstractEntity.ButtonHandler, holds the reference to its frame.
+	*/
+	private static class LegacyHandler implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Object this$0;
+	}
+
+	/**
+	* Shim of the legacy Person, holds the committed id, name, surname and tel.
+	*/
+	private static class LegacyPerson extends LegacyEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String [] fieldString;
+		private Object textField;
+
+		ClubberRecord toRecord()
+		{
+			return new ClubberRecord(ClubberType.PERSON, fieldString);
+		}
+
+		ClubberRecord toRecord(ClubberType type, String extra)
+		{
+			String [] fields = Arrays.copyOf(fieldString, type.getFieldCount());
+			fields[ClubberRecord.EXTRA] = extra;
+			return new ClubberRecord(type, fields);
+		}
+	}
+
+	/**
+	* Shim of the legacy Soldier, adds the committed personal number.
+	*/
+	private static class LegacySoldier extends LegacyPerson
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String personalNum;
+		private Object personalNumField;
+
+		@Override
+		ClubberRecord toRecord()
+		{
+			return toRecord(ClubberType.SOLDIER, personalNum);
+		}
+	}
+
+	/**
+	* Shim of the legacy Student, adds the committed student id.
+	*/
+	private static class LegacyStudent extends LegacyPerson
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String studentId;
+		private Object studentIdField;
+
+		@Override
+		ClubberRecord toRecord()
+		{
+			return toRecord(ClubberType.STUDENT, studentId);
+		}
+	}
+}
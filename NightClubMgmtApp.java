@@ -1,4 +1,5 @@
 import java.io.*;
+import java.nio.file.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
@@ -10,34 +11,86 @@ import java.util.*;
 * This class is the main class that creates the GUI interface for managing the night club clubbers.of communication with the users
 * The GUI interface provides the user with the option to create and add new clubbers of {@link ClubAbstractEntity} type (via a create button)
 * and to {@link #search} the database for an existing clubber via search button that opens a input dialog.
-* This class is responsible for loading the customers data from  a binary file called  BKCustomers.dat using {@link #loadClubbersDBFromFile} when opening the app,
-* and saving all existing clubbers in the file using {@link #writeClubbersDBtoFile} when closing the app.
-* Customers are stored in an {@link ArrayList} data structure.
+* Clubbers are held as plain {@link ClubberRecord} data, an editor frame of the {@link ClubberEditorPool} is bound to a clubber
+* when it is shown and returns to the pool when it is hidden.
+* The app is a client of the GUI-free {@link ClubberEngine}, which holds the clubbers and persists them.
+* This class is responsible for loading the customers data from  a binary {@link ClubberFile} called  BKCustomers.dat using {@link #loadClubbersDBFromFile} when opening the app,
+* the window is shown right away and the data is loaded on a background worker with a progress bar,
+* every commit is appended to the {@link ClubberJournal} of the {@link ClubberStorage} as it happens,
+* and the journal is closed using {@link #writeClubbersDBtoFile} when closing the app.
+* A snapshot of the database is written in the background every few minutes and when the save button is pressed.
+* Clubbers can be imported in bulk from a CSV file with the import button using {@link ClubberImporter},
+* and found by the first letters of their name or surname as you type with the find button.
+* The browse button shows all the clubbers in a sortable and filterable table, a {@link ClubberTableModel}.
+* The stats button shows the {@link ClubberMetrics} of the database operations, refreshed every second.
+* Customers are stored by the engine in a {@link ClubberRepository} and indexed by their keys in a {@link ClubberIndex}.
 */
 public class NightClubMgmtApp extends JFrame 
 {
-	//Night-Club Regular Customers Repository
-	private static ArrayList<ClubAbstractEntity> clubbers;
+	private static final String DB_FILE = "BKCustomers.dat";
+	private static final int SNAPSHOT_MINUTES = 5;
+	//system property with the port of the embedded HTTP service, the service is not started without it
+	private static final String HTTP_PORT_PROPERTY = "clubbers.http.port";
+	private static final int FIND_PAGE = 50;
+	private static final int STATS_REFRESH_MILLIS = 1000;
+	//Night-Club Regular Customers engine
+	private static ClubberEngine engine;
+	private static ClubberServer server;
+	//editor frames currently shown for committed clubbers by id
+	private static HashMap<String, ClubAbstractEntity> editors;
+	private static ClubberEditorPool editorPool;
 	private JComboBox clubberType;
 	private JTextField size;
+	private JProgressBar loadProgress;
 	
 	
     /**
     * Parameterless constructor - creates and initializes the instance variables and the handler {@link NightClubMgmtApp.ButtonHandler}),
     * initializes and creates the GUI elements for the apps interface with the users.
     * assigning the action listeners to the buttons.
-    * loading all the information from the file {@link #loadClubbersDBFromFile}.
+    * showing the window and then loading all the information from the file in the background {@link #loadClubbersDBFromFile}.
     * placing the panel in the middle of the screen,
 	* preventing resizing and controlling the apps closing operation using an anonymous inner class {@link WindowListener}.
     */	
 	public NightClubMgmtApp()
 	{
-		String [] type = {"Person", "Soldier", "Student"};
-		clubbers = new ArrayList<>();
+		String [] type = ClubberType.titles();
+		engine = new ClubberEngine(Paths.get(DB_FILE));
+		editors = new HashMap<>();
+		editorPool = new ClubberEditorPool();
+		engine.getRepository().addListener(new ClubberRepository.Listener() {
+			@Override
+			public void changed(ClubberRecord removed, ClubberRecord added)
+			{
+				//a frame follows its clubber to a new id committed elsewhere, such as over HTTP,
+				//so showing the clubber by the new id doesn't open a second frame
+				if(removed != null && added != null && !removed.getId().equals(added.getId()))
+					SwingUtilities.invokeLater(() -> {
+						ClubAbstractEntity editor = editors.remove(removed.getId());
+						if(editor != null)
+							editors.putIfAbsent(added.getId(), editor);
+					});
+			}
+
+			@Override
+			public void cleared()
+			{
+			}
+		});
 		
 		JPanel searchBar = new JPanel();
 		JButton search = new JButton("Search");
+		JButton save = new JButton("Save");
+		JButton importCsv = new JButton("Import");
+		JButton find = new JButton("Find");
+		JButton stats = new JButton("Stats");
+		JButton browse = new JButton("Browse");
 		searchBar.add(search);
+		searchBar.add(find);
+		searchBar.add(browse);
+		searchBar.add(save);
+		searchBar.add(importCsv);
+		searchBar.add(stats);
 		
 		JPanel createBar = new JPanel();
 		clubberType = new JComboBox<>(type);
@@ -47,23 +100,34 @@ public class NightClubMgmtApp extends JFrame
 		
 		ButtonHandler handler = new ButtonHandler();
 		search.addActionListener(handler);
+		save.addActionListener(handler);
+		importCsv.addActionListener(handler);
+		find.addActionListener(handler);
+		stats.addActionListener(handler);
+		browse.addActionListener(handler);
 		create.addActionListener(handler);
 		
+		loadProgress = new JProgressBar();
+		loadProgress.setStringPainted(true);
+		
 		add(searchBar,BorderLayout.NORTH);
 		add(createBar);
+		add(loadProgress,BorderLayout.SOUTH);
 		
-		loadClubbersDBFromFile();
 		setResizable(false);
-		setLocationRelativeTo(null);
 		setTitle("Night Club Manager App");
-		setSize(450, 160);
+		setSize(580, 160);
+		setLocationRelativeTo(null);
 		setVisible(true);
+		loadClubbersDBFromFile();
 		//controls the closing of the app 
 		//saves the clubbers data to file before closing
 		setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
 		addWindowListener(new WindowAdapter() {
 				public void windowClosing(WindowEvent e)
 				{
+					if(!confirmDiscard())
+						return;
 					writeClubbersDBtoFile();
 					System.exit(0);
 				}
@@ -72,27 +136,99 @@ public class NightClubMgmtApp extends JFrame
 	}	
 
 /**
-* This method searches the clubber arrayList for existing clubber using {@link ClubAbstractEntity#match}s overridden methods,
-* using a key inputted by the user.
-* The match method is invoked polymorphically for the corresponding type of {@link ClubAbstractEntity} 
-* {@link Person#match}, {@link Soldier#match} and {@link Student#match}. 
+* This method searches the clubber repository for existing clubber using a key inputted by the user.
+* The repository indexes every key returned by {@link ClubberRecord#getKeys},
+* so the lookup takes constant time instead of invoking {@link ClubberRecord#match} on every clubber.
 * @param key the customer key
 * @return the customer if the search was successful otherwise null
 */
-	private static ClubAbstractEntity search(String key)
+	private static ClubberRecord search(String key)
+	{
+		return engine.search(key);
+	}
+	
+	/**
+	* This method stores the record committed by an editor frame using {@link ClubAbstractEntity#commit}
+	* with {@link ClubberEngine#store}, which appends the commit to the journal.
+	* If another terminal committed a clubber with one of its keys since {@link #isExists} checked them,
+	* the record is not stored and a message dialog notifies the user.
+	* If the journal failed the commit is undone by the engine and an error dialog notifies the user,
+	* if only forcing the journal to disk failed the record is stored and the dialog warns that it may be lost.
+	*
+	* @param editor the editor frame that committed the record
+	* @param old the previous record of the clubber, null for a new clubber
+	* @param updated the committed record
+	* @return true if the record was stored otherwise false
+	*/
+	public static boolean store(ClubAbstractEntity editor, ClubberRecord old, ClubberRecord updated)
+	{
+		try
+		{
+			ClubberRecord conflict = engine.store(old, updated);
+			if(conflict == null)
+				return true;
+			String message = String.format("Clubber with key %s already exists",conflict.getId());
+			JOptionPane.showMessageDialog(editor,message,"",JOptionPane.INFORMATION_MESSAGE);
+			return false;
+		}catch (SyncFailedException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(editor,"The clubber was stored, but it may be lost if the app stops, the database failed: " + e,"",JOptionPane.ERROR_MESSAGE);
+			return true;
+		}catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(editor,"The clubber was not stored, the database failed: " + e,"",JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+	}
+	
+	/**
+	* This method shows the editor frame of a committed clubber.
+	* A frame of the clubbers {@link ClubberType} is taken from the {@link ClubberEditorPool} only when no frame shows the id already.
+	* A shown frame whose clubber was committed elsewhere since, such as over HTTP or by a revert, is bound to the new record unless it was edited.
+	*
+	* @param clubber the record of the clubber
+	*/
+	private static void showEditor(ClubberRecord clubber)
+	{
+		ClubAbstractEntity editor = editors.get(clubber.getId());
+		if(editor != null && editor.getRecord() != clubber && !editor.isDirty())
+		{
+			if(editor.getClubberType() == clubber.getType())
+				editor.bind(clubber);
+			else
+			{//a revert may bring back a record of another type
+				editor.setVisible(false);
+				release(editor);
+				editor = null;
+			}
+		}
+		if(editor == null)
+		{
+			editor = editorPool.acquire(clubber.getType(), clubber);
+			editors.put(clubber.getId(), editor);
+		}
+		editor.setVisible(true);
+		editor.toFront();
+	}
+	
+	/**
+	* This method releases an editor frame to the {@link ClubberEditorPool} after it was hidden by OK or Cancel.
+	*
+	* @param editor the hidden editor frame
+	*/
+	public static void release(ClubAbstractEntity editor)
 	{
-		//search for clubber 
-		for(ClubAbstractEntity clubber : clubbers)
-			if(clubber.match(key))
-				return clubber;
-			//if clubber not found
-			return null;		
+		//by value, the commit of the frame may have changed the id of its clubber
+		editors.values().remove(editor);
+		editorPool.release(editor);
 	}
 	
 	/**
 	* This method manages the search for specific clubber in the database.
 	* The method creates a dialogs messages with the user to input a search key,
 	* calls {@link #search} to check if clubber exists.
+	* If the key is not found while the database is still loading,
+	* the search waits in the background using {@link ClubberEngine#awaitSearch} until the key is loaded or the loading ends.
 	* If search returns null a message dialog is opened notifying the user that the clubber doesn't exist in the database.
 	*/
 	private void manipulateDB()
@@ -103,29 +239,126 @@ public class NightClubMgmtApp extends JFrame
 		if(key == null)
 			return;
 
-		ClubAbstractEntity clubber = search(key);
+		ClubberRecord clubber = search(key);
+		if(clubber == null && engine.isLoading())
+		{//the clubber may not be loaded yet
+			new SwingWorker<ClubberRecord, Void>() {
+				@Override
+				protected ClubberRecord doInBackground() throws InterruptedException
+				{
+					return engine.awaitSearch(key);
+				}
+				
+				@Override
+				protected void done()
+				{
+					try
+					{
+						showSearchResult(key, get());
+					}catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}.execute();
+		}else showSearchResult(key, clubber);
+			
+	}
+	
+	/**
+	* This method opens a dialog that finds clubbers by the first letters of their name or surname as the user types,
+	* using {@link ClubberEngine#searchNames}, or by phone number using {@link ClubberEngine#searchTel} when the query starts with +. The best {@value #FIND_PAGE} matches are listed,
+	* the more button lists the next ones, and double clicking a clubber shows its editor.
+	*/
+	private void findByName()
+	{
+		JDialog dialog = new JDialog(this, "Find Clubber", false);
+		JTextField query = new JTextField(25);
+		DefaultListModel<ClubberRecord> results = new DefaultListModel<>();
+		JList<ClubberRecord> list = new JList<>(results);
+		JButton more = new JButton("More");
+		more.setEnabled(false);
+		
+		Runnable search = () -> {
+			results.clear();
+			ClubberNameIndex.Page page = find(query.getText(), 0);
+			page.getClubbers().forEach(results::addElement);
+			more.setEnabled(page.hasMore());
+		};
+		query.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+			public void insertUpdate(javax.swing.event.DocumentEvent e) { search.run(); }
+			public void removeUpdate(javax.swing.event.DocumentEvent e) { search.run(); }
+			public void changedUpdate(javax.swing.event.DocumentEvent e) { search.run(); }
+		});
+		more.addActionListener(e -> {
+			ClubberNameIndex.Page page = find(query.getText(), results.size());
+			page.getClubbers().forEach(results::addElement);
+			more.setEnabled(page.hasMore());
+		});
+		list.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e)
+			{
+				if(e.getClickCount() == 2 && list.getSelectedValue() != null)
+					showEditor(list.getSelectedValue());
+			}
+		});
+		
+		JPanel queryBar = new JPanel();
+		queryBar.add(new JLabel("Name or Tel"));
+		queryBar.add(query);
+		queryBar.add(more);
+		dialog.add(queryBar, BorderLayout.NORTH);
+		dialog.add(new JScrollPane(list));
+		dialog.setSize(500, 400);
+		dialog.setLocationRelativeTo(this);
+		dialog.setVisible(true);
+	}
+	
+	/**
+	* @return a page of {@value #FIND_PAGE} clubbers found by name, or by phone number if the query starts with +
+	*/
+	private static ClubberNameIndex.Page find(String query, int offset)
+	{
+		if(query.trim().startsWith("+"))
+			return engine.searchTel(query, offset, FIND_PAGE);
+		return engine.searchNames(query, offset, FIND_PAGE);
+	}
+
+	/**
+	* This method shows the editor of the clubber that was found,
+	* or a message dialog notifying the user that the clubber doesn't exist in the database.
+	*
+	* @param key the search key
+	* @param clubber the clubber that was found, null if there is none
+	*/
+	private void showSearchResult(String key, ClubberRecord clubber)
+	{
 		if(clubber == null)
 		{//if clubber not in system
 			String message = String.format("Clubber with key %s does not exist",key);  
 			JOptionPane.showMessageDialog(this,message,"",JOptionPane.INFORMATION_MESSAGE);
-		}else clubber.setVisible(true);
-			
+		}else showEditor(clubber);
 	}
 
 	
    /**
    * This method checks if a clubber with an identical id to the received clubber exists in the database.
-   * The method uses {@link #search} and {@link Person#getId} to search with the key in the id text field of the clubber.
+   * The method uses {@link ClubberEngine#isExists} and {@link Person#getId} to search with the key in the id text field of the clubber.
+   * While the database is still loading the id can't be checked yet, the user is asked to try again
+   * and the clubber is treated as existing so it is not committed.
    * 
-   * @param curr current clubber that is being added to database
+   * @param curr editor frame of the current clubber that is being added to database
    * @return true if a clubber with an identical  id exists in database otherwise false.
    */
 	public static boolean isExists(ClubAbstractEntity curr)
 	{
+			if(engine.isLoading())
+			{
+				JOptionPane.showMessageDialog(curr,"The clubbers database is still loading, please try again in a moment","",JOptionPane.INFORMATION_MESSAGE);
+				return true;
+			}
 		
 			String key = ((Person)curr).getId();
-			ClubAbstractEntity clubber = search(key);
-			if(search(key) == null || clubber == curr )
+			if(!engine.isExists(key, curr.getRecord()))
 				return false;
 			
 				
@@ -136,54 +369,310 @@ public class NightClubMgmtApp extends JFrame
 	}
 	
 	/**
-	* Loads all data from  BKCustomers.dat using {@link ObjectInputStream} and {@link FileInputStream}. 
-	* Creates the corresponding objects and places them in the clubbers ArrayList of {@link ClubAbstractEntity} objects.
-	* Exception handling with try-catch {@link IOException} for file not found and loading exceptions.
+	* Loads all data from  BKCustomers.dat and replays the journal on top of it using {@link ClubberEngine#load}
+	* on a {@link SwingWorker}, so the window is usable while the database is loading.
+	* Creates the corresponding {@link ClubberRecord} objects and places them in the clubbers repository in batches,
+	* the progress bar shows how many clubbers were loaded.
+	* When the loading ends an editor frame of every type is built ahead for the {@link ClubberEditorPool},
+	* the periodic background snapshots are scheduled,
+	* and the {@link ClubberServer} is started on localhost if the clubbers.http.port system property is set.
+	* Exception handling with try-catch {@link IOException} for loading exceptions.
 	*/
 	private void loadClubbersDBFromFile()
 	{
-			try
-		{
-			FileInputStream readData = new FileInputStream("BKCustomers.dat");
-			ObjectInputStream readStream = new ObjectInputStream(readData);
-		
-			clubbers = (ArrayList<ClubAbstractEntity>) readStream.readObject();
-			readStream.close();
+		engine.beginLoading();
+		new SwingWorker<Void, Integer>() {
+			private int total;
 			
-		}catch (Exception e) {
-			e.printStackTrace();
+			@Override
+			protected Void doInBackground() throws IOException
+			{
+				total = engine.snapshotCount();
+				engine.load(loaded -> publish(loaded));
+				return null;
+			}
+			
+			@Override
+			protected void process(java.util.List<Integer> loaded)
+			{
+				int count = loaded.get(loaded.size() - 1);
+				loadProgress.setMaximum(Math.max(total, 1));
+				loadProgress.setValue(count);
+				loadProgress.setString(String.format("Loading clubbers %d of %d", count, total));
+			}
+			
+			@Override
+			protected void done()
+			{
+				loadProgress.setValue(loadProgress.getMaximum());
+				loadProgress.setString(String.format("%d clubbers", engine.size()));
+				try
+				{
+					get();
+					editorPool.prewarm();
+					engine.schedule(SNAPSHOT_MINUTES, java.util.concurrent.TimeUnit.MINUTES);
+					String port = System.getProperty(HTTP_PORT_PROPERTY);
+					if(port != null)
+						server = new ClubberServer(engine, new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), Integer.parseInt(port))).start();
+				}catch (Exception e) {
+					e.printStackTrace();
+					loadProgress.setString(String.format("%d clubbers, loading failed", engine.size()));
+					JOptionPane.showMessageDialog(NightClubMgmtApp.this,"Loading the clubbers database failed: " + (e.getCause() != null ? e.getCause() : e),
+						"",JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	* This method writes a snapshot of the database using {@link ClubberEngine#snapshot} on a {@link SwingWorker}
+	* and waits for it there, so the window stays usable and a failed snapshot is shown in an error dialog.
+	*/
+	private void save()
+	{
+		new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception
+			{
+				java.util.concurrent.Future<?> snapshot = engine.snapshot();
+				try
+				{
+					if(snapshot != null)
+						snapshot.get();
+				}catch(java.util.concurrent.ExecutionException e)
+				{
+					throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+				}
+				return null;
+			}
+			
+			@Override
+			protected void done()
+			{
+				try
+				{
+					get();
+				}catch (Exception e) {
+					e.printStackTrace();
+					JOptionPane.showMessageDialog(NightClubMgmtApp.this,"Saving the clubbers database failed: " + e.getCause(),"",JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	* This method imports clubbers from a CSV file chosen by the user using {@link ClubberEngine#importCsv} on a {@link SwingWorker}.
+	* The progress bar shows how many lines were processed,
+	* when the import ends a message dialog shows the report and the file the rejected lines were written to.
+	* Clubbers can't be imported while the database is still loading.
+	*/
+	private void importClubbers()
+	{
+		if(engine.isLoading())
+		{
+			JOptionPane.showMessageDialog(this,"The clubbers database is still loading, please try again in a moment","",JOptionPane.INFORMATION_MESSAGE);
+			return;
 		}
+		JFileChooser chooser = new JFileChooser(".");
+		chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV files", "csv"));
+		if(chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		Path csv = chooser.getSelectedFile().toPath();
 		
+		new SwingWorker<ClubberImporter.Report, Long>() {
+			@Override
+			protected ClubberImporter.Report doInBackground() throws IOException
+			{
+				return engine.importCsv(csv, lines -> publish(lines));
+			}
+			
+			@Override
+			protected void process(java.util.List<Long> lines)
+			{
+				loadProgress.setIndeterminate(true);
+				loadProgress.setString(String.format("Importing %s: %d lines", csv.getFileName(), lines.get(lines.size() - 1)));
+			}
+			
+			@Override
+			protected void done()
+			{
+				loadProgress.setIndeterminate(false);
+				loadProgress.setString(String.format("%d clubbers", engine.size()));
+				try
+				{
+					ClubberImporter.Report report = get();
+					String message = String.format("%s%nRejected lines were written to %s", report, report.getRejects());
+					JOptionPane.showMessageDialog(NightClubMgmtApp.this,message,"Import",JOptionPane.INFORMATION_MESSAGE);
+				}catch (Exception e) {
+					e.printStackTrace();
+					JOptionPane.showMessageDialog(NightClubMgmtApp.this,"The import failed: " + e.getCause(),"Import",JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}.execute();
 	}
 
 	/**
-	* This method writes all objects data in clubbers {@link ArrayList} 
-	* in the BKCustomers.dat file using {@link java.io.ObjectOutputStream} ,{@link FileOutputStream}.
-	* Non validated clubbers are removes from the list if empty, and set to validated form if valid 
-	* using {@link ClubAbstractEntity#rollBack} method in package.
+	* This method asks the user before closing the app while editor frames hold uncommitted edits.
+	* Only the shown frames that are dirty are looked at, see {@link ClubberEditorPool#getDirty},
+	* so the check doesn't depend on the size of the database.
+	* If the user doesn't discard the edits the first dirty frame is brought to the front.
+	*
+	* @return true if there are no uncommitted edits or the user agreed to discard them
+	*/
+	private boolean confirmDiscard()
+	{
+		java.util.List<ClubAbstractEntity> dirty = editorPool.getDirty();
+		if(dirty.isEmpty())
+			return true;
+		int answer = JOptionPane.showConfirmDialog(this,
+			dirty.size() + " clubber editor(s) have uncommitted changes, close and discard them?",
+			"Uncommitted changes",JOptionPane.YES_NO_OPTION,JOptionPane.WARNING_MESSAGE);
+		if(answer == JOptionPane.YES_OPTION)
+			return true;
+		dirty.get(0).toFront();
+		return false;
+	}
+	
+	/**
+	* This method stops the HTTP service if it runs and closes the clubbers engine using {@link ClubberEngine#close}.
+	* Every commit was already appended to the journal, closing only forces the pending entries to disk,
+	* the database is not rewritten, only a background snapshot that is still running is waited for.
+	* Clubbers that were created but never committed have no record and are not written,
+	* uncommitted edits in open editor frames are discarded after {@link #confirmDiscard},
+	* so no editor frame and no clubber is visited and the closing time doesn't depend on the size of the database.
 	* Exception handling with try-catch {@link IOException} 
 	*/
 	private void writeClubbersDBtoFile()
 	{
-		//removes non validated clubbers from arraylist before committing to file
-		clubbers.removeIf(clubber->clubber.match(""));
-		/*use rollBack to return accurate values to text-fields and remove error symbols
-		when closing the app before closing the clubbers frame.
-		rollBack is a protected method in package and therefore can be used
-		*/
-		clubbers.forEach(clubber->clubber.rollBack());
 		try{
 			
-			FileOutputStream writeData = new FileOutputStream("BKCustomers.dat");
-			ObjectOutputStream writeStream = new ObjectOutputStream(writeData);
-		
-			writeStream.writeObject(clubbers);
-			writeStream.flush();
-			writeStream.close();
+			if(server != null)
+				server.close();
+			engine.close();
 		
 		}catch (IOException e) {
 			e.printStackTrace();
+			JOptionPane.showMessageDialog(this,"Closing the clubbers database failed, the last changes may be replayed or lost: " + e,
+				"",JOptionPane.ERROR_MESSAGE);
+		}
+	}
+	
+	/**
+	* This method opens a window that browses all the clubbers in a table, using a {@link ClubberTableModel}.
+	* Clicking a column header sorts by it, clicking it again reverses the order,
+	* the type box and the filter field show only the matching clubbers, and double clicking a clubber shows its editor.
+	* The table shows the clubbers as they were when it was opened, the refresh button shows the later commits.
+	* Clubbers can't be browsed while the database is still loading.
+	*/
+	private void browse()
+	{
+		if(engine.isLoading())
+		{
+			JOptionPane.showMessageDialog(this,"The clubbers database is still loading, please try again in a moment","",JOptionPane.INFORMATION_MESSAGE);
+			return;
 		}
+		JDialog dialog = new JDialog(this, "Browse Clubbers", false);
+		ClubberTableModel model = new ClubberTableModel(engine);
+		JTable table = new JTable(model);
+		JComboBox<Object> type = new JComboBox<>(new Object[]{"All"});
+		for(ClubberType each : ClubberType.values())
+			type.addItem(each);
+		JTextField filter = new JTextField(20);
+		JButton refresh = new JButton("Refresh");
+		JLabel status = new JLabel();
+		
+		table.setAutoCreateColumnsFromModel(false);
+		table.setFillsViewportHeight(true);
+		table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		model.setListener(() -> {
+			status.setText(model.isBusy() ? "Working..." : String.format("%d of %d clubbers", model.getRowCount(), model.getClubberCount()));
+			for(int i = 0; i < model.getColumnCount(); i++)
+			{
+				String name = model.getColumnName(i);
+				if(i == model.getSortColumn())
+					name += model.isAscending() ? " \u25B2" : " \u25BC";
+				table.getColumnModel().getColumn(i).setHeaderValue(name);
+			}
+			table.getTableHeader().repaint();
+		});
+		table.getTableHeader().addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e)
+			{
+				int column = table.columnAtPoint(e.getPoint());
+				if(column >= 0)
+					model.sort(table.convertColumnIndexToModel(column));
+			}
+		});
+		table.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e)
+			{
+				int row = table.getSelectedRow();
+				if(e.getClickCount() == 2 && row >= 0)
+				{
+					ClubberRecord clubber = model.getClubber(row);
+					if(clubber == null)
+						JOptionPane.showMessageDialog(dialog,"The clubber was removed, refresh the table","",JOptionPane.INFORMATION_MESSAGE);
+					else showEditor(clubber);
+				}
+			}
+		});
+		Runnable applyFilter = () -> model.filter(type.getSelectedItem() instanceof ClubberType ? (ClubberType)type.getSelectedItem() : null, filter.getText());
+		type.addActionListener(e -> applyFilter.run());
+		filter.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+			public void insertUpdate(javax.swing.event.DocumentEvent e) { applyFilter.run(); }
+			public void removeUpdate(javax.swing.event.DocumentEvent e) { applyFilter.run(); }
+			public void changedUpdate(javax.swing.event.DocumentEvent e) { applyFilter.run(); }
+		});
+		refresh.addActionListener(e -> model.reload());
+		
+		JPanel filterBar = new JPanel();
+		filterBar.add(type);
+		filterBar.add(new JLabel("Filter"));
+		filterBar.add(filter);
+		filterBar.add(refresh);
+		dialog.add(filterBar, BorderLayout.NORTH);
+		dialog.add(new JScrollPane(table));
+		dialog.add(status, BorderLayout.SOUTH);
+		dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		dialog.setSize(800, 500);
+		dialog.setLocationRelativeTo(this);
+		dialog.setVisible(true);
+		model.reload();
+	}
+	
+	/**
+	* This method opens a window with the {@link ClubberMetrics} of the database operations,
+	* counts, errors, latencies, records and bytes, refreshed every second while it is open.
+	* The window registers itself as a metrics reader, so searches, key checks and validations are timed only while it is open.
+	*/
+	private void showStats()
+	{
+		JDialog dialog = new JDialog(this, "Clubbers Database Stats", false);
+		javax.swing.table.DefaultTableModel rows = new javax.swing.table.DefaultTableModel(new Object[]{"Metric", "Value"}, 0) {
+			public boolean isCellEditable(int row, int column) { return false; }
+		};
+		Runnable refresh = () -> {
+			rows.setRowCount(0);
+			rows.addRow(new Object[]{"clubbers", engine.size()});
+			for(Map.Entry<String, Long> metric : ClubberMetrics.get().snapshot().entrySet())
+				rows.addRow(new Object[]{metric.getKey(), metric.getValue()});
+		};
+		refresh.run();
+		javax.swing.Timer timer = new javax.swing.Timer(STATS_REFRESH_MILLIS, e -> refresh.run());
+		ClubberMetrics.get().addReader();
+		timer.start();
+		dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		dialog.addWindowListener(new WindowAdapter() {
+			public void windowClosed(WindowEvent e)
+			{
+				timer.stop();
+				ClubberMetrics.get().removeReader();
+			}
+		});
+		dialog.add(new JScrollPane(new JTable(rows)));
+		dialog.setSize(400, 450);
+		dialog.setLocationRelativeTo(this);
+		dialog.setVisible(true);
 	}
 	
 
@@ -191,8 +680,14 @@ public class NightClubMgmtApp extends JFrame
 	* This is a inner class for buttons search and create event handling.
 	* The implementation of this handler is generic and correct for any type of customer,
     * if "Search" is pressed {@link #manipulateDB} is invoked.  
-    * if "Create" is pressed it creates new clubber corresponding the selected index on the {@link JComboBox},
-    * and invokes the corresponding constructor {@link Person} , {@link Soldier} or {@link Student}
+    * if "Save" is pressed {@link #save} is invoked.
+    * if "Import" is pressed {@link #importClubbers} is invoked.
+    * if "Find" is pressed {@link #findByName} is invoked.
+    * if "Stats" is pressed {@link #showStats} is invoked.
+    * if "Browse" is pressed {@link #browse} is invoked.
+    * if "Create" is pressed it takes an editor frame for a new clubber of the type selected on the {@link JComboBox}
+    * from the {@link ClubberEditorPool}, a {@link Person} , {@link Soldier} or {@link Student}.
+    * The new clubber is added to the repository on its first commit.
     */
     private class ButtonHandler implements ActionListener
     {
@@ -204,31 +699,37 @@ public class NightClubMgmtApp extends JFrame
     		case "Search" :
     			manipulateDB();
     			break;
+    		case "Save" :
+    			save();
+    			break;
+    		case "Import" :
+    			importClubbers();
+    			break;
+    		case "Find" :
+    			findByName();
+    			break;
+    		case "Stats" :
+    			showStats();
+    			break;
+    		case "Browse" :
+    			browse();
+    			break;
     		case "Create" :
-    			switch(clubberType.getSelectedIndex())
-    			{
-    				case 0:
-						clubbers.add(new Person());
-						break;
-    				case 1:
-						clubbers.add(new Soldier());
-						break;
-    				case 2:
-						clubbers.add(new Student());
-						break;
-    			}
-    			clubbers.get(clubbers.size() - 1).setVisible(true);
+    			ClubberType type = ClubberType.forTitle((String)clubberType.getSelectedItem());
+    			editorPool.acquire(type, null).setVisible(true);
     			break;
     		}
     	}
      }
       
      /**
-     * Main function creates a new NightClubMgmtApp to start the application
+     * Main function turns on TCP_NODELAY for the HTTP service with {@link ClubberServer#enableNoDelay}
+     * and creates a new NightClubMgmtApp on the event dispatch thread to start the application
      */
     public static void main(String[] args)
 	{
-		NightClubMgmtApp application = new NightClubMgmtApp();
+		ClubberServer.enableNoDelay();
+		SwingUtilities.invokeLater(NightClubMgmtApp::new);
 	}
    	
 }
\ No newline at end of file
@@ -1,86 +1,77 @@
-import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 
 
 /**
-* This class represents ordinary person clubber.
-* The Person is represented by 4 fields: id, name, last-name and phone-number.
+* This class is the editor frame of an ordinary person clubber, and of every type that only adds fields to the person.
+* The Person is represented by 4 fields: id, name, last-name and phone-number, stored in a {@link ClubberRecord}.
+* The frame has a row for every field its {@link ClubberType} declares, so a type such as VIP or Staff needs no subclass of its own.
 * The class extends {@link ClubAbstractEntity} which is abstract class and is a JFrame and with gui elements and methods.
-* The class defines the inherited methods match, validateData, commit and rollBack.
+* The class defines the inherited methods validateData, commit and rollBack.
 */
-public class Person extends ClubAbstractEntity implements Serializable
+public class Person extends ClubAbstractEntity
 {
-	private String [] fieldString;
 	private JTextField [] textField;
 	
 	
 	/**
-	* Parameterless constructor - creates a Persons fields rows using {@link ClubAbstractEntity#createRow} method
-	* adds them to the center panel using  {@link ClubAbstractEntity#addToCenter} method,
-	* and initializes the fields instance variables to empty values.
+	* Parameterless constructor - creates the editor of a new person,
+	* the fields are initialized to empty values.
 	* disables the cancel button until the first commit.
-	* sets window size and title.
 	*/
 		public Person()
 	{
-		this("", "", "", "");
+		this(null);
+	}
+	
+	/**
+	* Constructor with the record of the person to edit.
+	*
+	* @param record the committed record of the person, null for a new person
+	*/
+	public Person(ClubberRecord record)
+	{
+		this(ClubberType.PERSON, record);
+		setTitle("Persons Clubber's Data");
+		setSize(450, 220);
 	}
 	
 	
 	/** 
-	* Constructor with four string parameters corresponding to the fields.
-	* Creates and initializes the instance variables.
-	* creates and initializes the rows by using {@link ClubAbstractEntity#createRow} method and 
+	* Constructor with the type and record of the clubber, used by the subclasses and by the {@link ClubberEditorPool} for the other types.
+	* Creates and initializes the instance variables from the committed values of the record.
+	* creates a row for every field of the type by using {@link ClubAbstractEntity#createRow} method and 
 	* adds them the center panel using {@link ClubAbstractEntity#addToCenter} method.
-	* sets window size and title.
+	* Setting window size and title from the type.
 	*
-	* @param id person id
-	* @param name person name
-	* @param surname person last name
-	* @param tel person phone number
+	* @param type the clubber type
+	* @param record the committed record of the clubber, null for a new clubber
 	*/
-	public Person(String id, String name, String surname, String tel)
+	protected Person(ClubberType type, ClubberRecord record)
 	{
-		String [] fieldName = {"ID", "Name", "Surname" ,"Tel"};
-		fieldString = new String[]{id, name, surname, tel};
-	    textField = new JTextField[4];
+		super(type, record);
+	    textField = new JTextField[type.getFieldCount()];
 	    
-		for(int i = 0; i  < 4; i++)
+		for(int i = 0; i  < textField.length; i++)
 		{
-			textField[i] = new JTextField(fieldString[i],30);
-			addToCenter(createRow(fieldName[i],textField[i]));
+			textField[i] = new JTextField(getCommitted(i),30);
+			addToCenter(createRow(type.getFieldName(i),textField[i]));
 		}
-			
-		setTitle("Persons Clubber's Data");
-		setSize(450, 220);
+		setTitle(type.getTitle() + " Clubber's Data");
+		setSize(450, 100 + 30 * textField.length);
 	}
 	
 	
-	
-	/**
-	* This method overrides {@link ClubAbstractEntity#match} method and indicates whether 
-	* the id key matches the person id value.
-	*
-	* @param key key parameter
-	* @return true if the key equals the id field otherwise return false
-	*/
-	@Override
-    public  boolean match(String key)
-    {
-    	return  fieldString[0].equals(key);
-    }
-    
 	/**
 	* This method overrides {@link ClubAbstractEntity#validateData} method and indicates whether 
 	* The data in the fields is valid or not.
-	* The validation uses regular expressions patterns {@link java.util.regex.Pattern} to determine validity.
+	* The validation uses the rules of {@link ClubberValidator} to determine validity, the rule of every field is declared by its {@link ClubberField}.
 	* Id field - "\\d-\\d{7}\\|[1-9]"
 	* Name field -  "[A-Z][a-z]+"
 	* Last-name field - "([A-Z][a-z]*['-]?)+"
 	* Phone-number field -  "\\+\\([1-9]\\d{0,2}\\)[1-9]\\d{0,2}-[1-9]\\d{6}"}
-	* The fields are checked consecutively until either the first error or all fields are found valid. 
+	* All the fields are checked so every invalid field is marked at once. 
 	* Invokes {@link ClubAbstractEntity#setError} that add or remove '*' in the corresponding field to indicate valid or error field.
 	*
 	* @return true if fields are found valid otherwise returns false. 
@@ -88,43 +79,63 @@ public class Person extends ClubAbstractEntity implements Serializable
     @Override
     protected  boolean validateData()
     {
-    	String [] reg = {"\\d-\\d{7}\\|[1-9]", "[A-Z][a-z]+", "([A-Z][a-z]*['-]?)+",
-    					"\\+\\([1-9]\\d{0,2}\\)[1-9]\\d{0,2}-[1-9]\\d{6}"};
-    					
-    	for(int i = 0; i < 4; i++)			
-			if(textField[i].getText().matches(reg[i]))
-			  	setError(true, textField[i]);
-			else
-			{
-				setError(false, textField[i]);
-				return false;
-			}
+    	boolean valid = true;
+    	for(int i = 0; i < textField.length; i++)
+    		valid &= validateField(i, textField[i]);
     	
-			return true;
+			return valid;
+    }
+    
+    /**
+	* This method validates one textField using {@link ClubberValidator#isValid} with the rule of the field in the record,
+	* and marks it using {@link ClubAbstractEntity#setError}.
+	*
+	* @param field index of the field in the {@link ClubberRecord}
+	* @param text the textField of the field
+	* @return true if the field is valid otherwise false
+	*/
+    protected boolean validateField(int field, JTextField text)
+    {
+    	boolean valid = ClubberValidator.isValid(getClubberType(), field, text.getText());
+    	setError(valid, text);
+    	return valid;
     }
     
     /**
 	* This method overrides {@link ClubAbstractEntity#commit} method. 
-	* Stores the person information from the textFields to the corresponding person value fields.
+	* Stores the clubber information from the textFields in a new {@link ClubberRecord} of the frames type,
+	* using {@link #readFields} to collect the values.
 	*/
     @Override
     protected  void commit()
     {
-    	for(int i = 0; i < 4; i++)
-    		fieldString[i] = textField[i].getText();
+    	setRecord(new ClubberRecord(getClubberType(), readFields()));
+    }
+    
+    /**
+	* This method returns the values of the textFields in record order.
+	*
+	* @return the id, name, surname and tel values, followed by the values of the fields the type adds
+	*/
+    protected String[] readFields()
+    {
+    	String [] values = new String[textField.length];
+    	for(int i = 0; i < textField.length; i++)
+    		values[i] = textField[i].getText();
+    	return values;
     }
 
     /**
 	* This method overrides {@link ClubAbstractEntity#rollBack}  method. 
-	* The method returns the values from the persons value fields to the corresponding textFields,
+	* The method returns the committed values of the persons record to the corresponding textFields,
 	* and clears all erroneous signs from the fields using {@link ClubAbstractEntity#setError} method.
 	*/
     @Override
     protected  void rollBack()
     {
-    	for(int i = 0; i < 4; i++)
+    	for(int i = 0; i < textField.length; i++)
     	{
-    		textField[i].setText(fieldString[i]);
+    		textField[i].setText(getCommitted(i));
     		setError(true, textField[i]);
     	}
     }
@@ -0,0 +1,54 @@
+import java.io.*;
+import java.nio.file.*;
+
+
+/**
+* This class generates the databases the JMH benchmarks run on,
+* clubbers with the default type mix of {@link ClubberGenerator} from a fixed seed, in a temporary directory.
+*/
+final class ClubberBenchmarkData
+{
+	static final long SEED = 20240101L;
+	static final int KEYS = 1 << 16;
+
+
+	private ClubberBenchmarkData()
+	{
+	}
+
+	/**
+	* This method writes a database of generated clubbers and converts it to the shards with a first load,
+	* so the benchmarks don't compete with the conversion.
+	*
+	* @param clubbers number of clubbers
+	* @return the BKCustomers.dat path of the database in a new temporary directory
+	* @throws IOException if the database can't be written
+	*/
+	static Path generate(int clubbers) throws IOException
+	{
+		Path dataFile = Files.createTempDirectory("clubbers-jmh").resolve("BKCustomers.dat");
+		new ClubberGenerator(SEED).write(dataFile, 0, clubbers, written -> {});
+		try(ClubberEngine engine = new ClubberEngine(dataFile))
+		{
+			engine.load();
+		}
+		return dataFile;
+	}
+
+	/**
+	* This method deletes the directory of a generated database.
+	*
+	* @param dataFile the path returned by {@link #generate}
+	* @throws IOException if a file can't be deleted
+	*/
+	static void delete(Path dataFile) throws IOException
+	{
+		Path directory = dataFile.getParent();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+		{
+			for(Path file : files)
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+}
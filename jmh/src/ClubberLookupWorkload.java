@@ -0,0 +1,95 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+* This class is the work of {@link clubbers.jmh.LookupBenchmark} on a loaded {@link ClubberEngine} of generated clubbers.
+* The keys are a sample of {@value ClubberBenchmarkData#KEYS} clubbers of the database, used in turn.
+*/
+public class ClubberLookupWorkload implements clubbers.jmh.LookupBenchmark.Workload
+{
+	private final Path dataFile;
+	private final ClubberEngine engine;
+	private final String [] keys;
+	private final ClubberRecord [] owners;
+	private final String [] misses;
+	private int next;
+
+
+	/**
+	* Constructor - generates and loads the database and samples its keys.
+	*
+	* @param clubbers number of clubbers in the database
+	* @throws IOException if the database can't be written or loaded
+	* @throws InterruptedException if interrupted while the name index is built
+	*/
+	public ClubberLookupWorkload(int clubbers) throws IOException, InterruptedException
+	{
+		dataFile = ClubberBenchmarkData.generate(clubbers);
+		engine = new ClubberEngine(dataFile);
+		engine.load();
+		//the name index is built in the background, it would compete with the benchmarks for the processors
+		engine.awaitNameIndex();
+		int count = ClubberBenchmarkData.KEYS;
+		keys = new String[count];
+		owners = new ClubberRecord[count];
+		misses = new String[count];
+		Random random = new Random(ClubberBenchmarkData.SEED);
+		int seen = 0;
+		for(ClubberRecord clubber : engine.getRepository().snapshot())
+		{
+			int slot = seen < count ? seen : random.nextInt(seen + 1);
+			if(slot < count)
+			{
+				String [] own = clubber.getKeys();
+				keys[slot] = own[random.nextInt(own.length)];
+				owners[slot] = clubber;
+			}
+			seen++;
+		}
+		for(int i = 0; i < count; i++)
+		{
+			if(keys[i] == null)
+			{
+				keys[i] = keys[i % seen];
+				owners[i] = owners[i % seen];
+			}
+			//ids after the last clubber of the database
+			misses[i] = ClubberGenerator.id(clubbers + i);
+		}
+	}
+
+	@Override
+	public Object searchHit()
+	{
+		return engine.search(keys[next++ & ClubberBenchmarkData.KEYS - 1]);
+	}
+
+	@Override
+	public Object searchMiss()
+	{
+		return engine.search(misses[next++ & ClubberBenchmarkData.KEYS - 1]);
+	}
+
+	@Override
+	public boolean isExists()
+	{
+		int i = next++ & ClubberBenchmarkData.KEYS - 1;
+		return engine.isExists(keys[i], owners[i]);
+	}
+
+	@Override
+	public boolean checkIn() throws IOException
+	{
+		ClubberRecord clubber = owners[next++ & ClubberBenchmarkData.KEYS - 1];
+		return engine.checkIn(clubber, 1) || engine.checkOut(clubber, 1);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		engine.close();
+		ClubberBenchmarkData.delete(dataFile);
+	}
+}
@@ -0,0 +1,97 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.function.Consumer;
+
+
+/**
+* This class is the work of {@link clubbers.jmh.PersistenceBenchmark} on a database of generated clubbers.
+* The database is loaded once into a repository, whose snapshots are written by the write benchmarks
+* to a copy next to it, so the database itself is only read.
+*/
+public class ClubberPersistenceWorkload implements clubbers.jmh.PersistenceBenchmark.Workload
+{
+	private final Path dataFile;
+	private final ClubberShards shards;
+	private final ClubberRepository repository;
+	private final Path copy;
+	private final ClubberShards copies;
+	private final String [] ids;
+	private int next;
+
+
+	/**
+	* Constructor - generates and loads the database, samples its ids and writes the single file copy read by {@link #fileRead}.
+	*
+	* @param clubbers number of clubbers in the database
+	* @throws IOException if the database can't be written or loaded
+	*/
+	public ClubberPersistenceWorkload(int clubbers) throws IOException
+	{
+		dataFile = ClubberBenchmarkData.generate(clubbers);
+		shards = new ClubberShards(dataFile);
+		repository = new ClubberRepository();
+		try(ClubberStorage storage = new ClubberStorage(dataFile))
+		{
+			storage.load(repository);
+		}
+		ids = new String[ClubberBenchmarkData.KEYS];
+		int i = 0;
+		while(i < ids.length)
+			for(ClubberRecord clubber : repository.snapshot())
+			{
+				if(i == ids.length)
+					break;
+				ids[i++] = clubber.getId();
+			}
+		copy = dataFile.resolveSibling("copy.dat");
+		copies = new ClubberShards(copy);
+		ClubberFile.write(copy, repository.snapshot());
+	}
+
+	@Override
+	public int storageLoad() throws IOException
+	{
+		ClubberRepository loaded = new ClubberRepository();
+		try(ClubberStorage storage = new ClubberStorage(dataFile))
+		{
+			storage.load(loaded);
+		}
+		return loaded.size();
+	}
+
+	@Override
+	public int shardsRead(Consumer<Object> consumer) throws IOException
+	{
+		return shards.read(ClubberStorage.LOAD_BATCH, consumer::accept);
+	}
+
+	@Override
+	public long shardsWrite() throws IOException
+	{
+		return copies.write(repository.snapshot());
+	}
+
+	@Override
+	public Object shardsLookup() throws IOException
+	{
+		return shards.lookup(ids[next++ & ClubberBenchmarkData.KEYS - 1]);
+	}
+
+	@Override
+	public int fileRead(Consumer<Object> consumer) throws IOException
+	{
+		return ClubberFile.read(copy, consumer::accept);
+	}
+
+	@Override
+	public long fileWrite() throws IOException
+	{
+		return ClubberFile.write(copy, repository.snapshot());
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		ClubberBenchmarkData.delete(dataFile);
+	}
+}
@@ -0,0 +1,29 @@
+/**
+* This class is the work of {@link clubbers.jmh.ValidationBenchmark}, {@link ClubberValidator#validate}
+* of a sample of {@value ClubberBenchmarkData#KEYS} generated records of one {@link ClubberType}, used in turn.
+*/
+public class ClubberValidationWorkload implements clubbers.jmh.ValidationBenchmark.Workload
+{
+	private final ClubberRecord [] records;
+	private int next;
+
+
+	/**
+	* Constructor - generates the records.
+	*
+	* @param type name of the {@link ClubberType} constant
+	*/
+	public ClubberValidationWorkload(String type)
+	{
+		ClubberGenerator generator = new ClubberGenerator(ClubberBenchmarkData.SEED);
+		records = new ClubberRecord[ClubberBenchmarkData.KEYS];
+		for(int i = 0; i < records.length; i++)
+			records[i] = generator.generate(ClubberType.valueOf(type), i);
+	}
+
+	@Override
+	public int validate()
+	{
+		return ClubberValidator.validate(records[next++ & ClubberBenchmarkData.KEYS - 1]);
+	}
+}
@@ -0,0 +1,82 @@
+package clubbers.jmh;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+* This class benchmarks the lookups of the door and the editor frames on a loaded engine of generated clubbers:
+* <pre>
+* searchHit   ClubberEngine.search of a key of a clubber, the id or the secondary key, the lookup behind NightClubMgmtApp.search
+* searchMiss  ClubberEngine.search of an id nobody owns
+* isExists    ClubberEngine.isExists of a key by its own clubber, the check of the OK button of an editor
+* checkIn     ClubberEngine.checkIn, or checkOut of a clubber who is inside, one event of the door
+* </pre>
+* The work is done by ClubberLookupWorkload, see {@link Workloads}.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark
+{
+	@Param({"10000", "1000000", "10000000"})
+	public int clubbers;
+
+	private Workload workload;
+
+
+	/**
+	* This interface is the operations of the benchmark, every call uses the next key of a sample of the clubbers.
+	*/
+	public interface Workload extends Closeable
+	{
+		Object searchHit();
+
+		Object searchMiss();
+
+		boolean isExists();
+
+		boolean checkIn() throws IOException;
+	}
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		workload = Workloads.create(Workload.class, "ClubberLookupWorkload", clubbers);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		workload.close();
+	}
+
+	@Benchmark
+	public Object searchHit()
+	{
+		return workload.searchHit();
+	}
+
+	@Benchmark
+	public Object searchMiss()
+	{
+		return workload.searchMiss();
+	}
+
+	@Benchmark
+	public boolean isExists()
+	{
+		return workload.isExists();
+	}
+
+	@Benchmark
+	public boolean checkIn() throws IOException
+	{
+		return workload.checkIn();
+	}
+}
@@ -0,0 +1,104 @@
+package clubbers.jmh;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+* This class benchmarks the load and save round trip of the BKCustomers.dat database of generated clubbers:
+* <pre>
+* storageLoad   ClubberStorage.load of the sharded database into an empty repository
+* shardsRead    ClubberShards.read of the whole database, the shards are read in parallel
+* shardsWrite   ClubberShards.write of the whole database, the shards are written in parallel
+* shardsLookup  ClubberShards.lookup of a clubber id, the shard is mapped and one block of it is inflated
+* fileRead      ClubberFile.read of the whole database as a single file
+* fileWrite     ClubberFile.write of the whole database as a single file
+* </pre>
+* The records read are consumed by the {@link Blackhole}.
+* The work is done by ClubberPersistenceWorkload, see {@link Workloads}.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark
+{
+	@Param({"10000", "1000000", "10000000"})
+	public int clubbers;
+
+	private Workload workload;
+
+
+	/**
+	* This interface is the operations of the benchmark.
+	*/
+	public interface Workload extends Closeable
+	{
+		int storageLoad() throws IOException;
+
+		int shardsRead(Consumer<Object> consumer) throws IOException;
+
+		long shardsWrite() throws IOException;
+
+		Object shardsLookup() throws IOException;
+
+		int fileRead(Consumer<Object> consumer) throws IOException;
+
+		long fileWrite() throws IOException;
+	}
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		workload = Workloads.create(Workload.class, "ClubberPersistenceWorkload", clubbers);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		workload.close();
+	}
+
+	@Benchmark
+	public int storageLoad() throws IOException
+	{
+		return workload.storageLoad();
+	}
+
+	@Benchmark
+	public int shardsRead(Blackhole blackhole) throws IOException
+	{
+		return workload.shardsRead(blackhole::consume);
+	}
+
+	@Benchmark
+	public long shardsWrite() throws IOException
+	{
+		return workload.shardsWrite();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object shardsLookup() throws IOException
+	{
+		return workload.shardsLookup();
+	}
+
+	@Benchmark
+	public int fileRead(Blackhole blackhole) throws IOException
+	{
+		return workload.fileRead(blackhole::consume);
+	}
+
+	@Benchmark
+	public long fileWrite() throws IOException
+	{
+		return workload.fileWrite();
+	}
+}
@@ -0,0 +1,48 @@
+package clubbers.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+* This class benchmarks ClubberValidator.validate of the records of one clubber type,
+* the rules Person, Soldier and Student.validateData apply to their fields; the Swing frames themselves can't run headless.
+* Every type runs in its own JVM, so the profile the JIT collected for one type doesn't slow down the others.
+* A record is validated the same way in any database, so the benchmark has no database size.
+* The work is done by ClubberValidationWorkload, see {@link Workloads}.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark
+{
+	@Param({"PERSON", "SOLDIER", "STUDENT", "VIP", "STAFF"})
+	public String type;
+
+	private Workload workload;
+
+
+	/**
+	* This interface is the operation of the benchmark, every call validates the next record of a sample of the type.
+	*/
+	public interface Workload
+	{
+		int validate();
+	}
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		workload = Workloads.create(Workload.class, "ClubberValidationWorkload", type);
+	}
+
+	@Benchmark
+	public int validate()
+	{
+		return workload.validate();
+	}
+}
@@ -0,0 +1,40 @@
+package clubbers.jmh;
+
+import java.lang.reflect.InvocationTargetException;
+
+
+/**
+* This class creates the workloads the benchmarks measure.
+* The clubbers database is in the default package, which JMH doesn't accept for benchmarks and a named package can't import,
+* so every benchmark declares the operations it measures as an interface, implemented by a workload class in the default package
+* that is created once by name. Every interface has a single implementation, so its calls are inlined like direct calls.
+*/
+final class Workloads
+{
+	private Workloads()
+	{
+	}
+
+	/**
+	* This method creates a workload.
+	*
+	* @param type the interface of the workload
+	* @param className name of the implementing class in the default package
+	* @param argument argument of the constructor of the class
+	* @return the workload
+	* @throws Exception if the class can't be created, or the exception its constructor threw
+	*/
+	static <T> T create(Class<T> type, String className, Object argument) throws Exception
+	{
+		try
+		{
+			for(java.lang.reflect.Constructor<?> constructor : Class.forName(className).getDeclaredConstructors())
+				if(constructor.getParameterCount() == 1)
+					return type.cast(constructor.newInstance(argument));
+			throw new NoSuchMethodException(className + " has no constructor with one parameter");
+		}catch(InvocationTargetException e)
+		{
+			throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+		}
+	}
+}